@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.benchmarks;
+
+import com.mycompany.aem.core.services.impl.ExtractionResult;
+import com.mycompany.aem.core.services.impl.FieldSpec;
+import com.mycompany.aem.core.services.impl.XmlFieldExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the draft field extraction used by {@code DraftEnrichmentServiceImpl}.
+ * <p>
+ * The service reads draft data either from a String property ({@code data}) or from a binary
+ * ({@code jcr:data}), and either discovers where a field is or looks it up at the element
+ * path an earlier draft of the same form reported. Each of those paths is measured per
+ * payload size and field position. Run with {@code -prof gc} (the default of
+ * {@link BenchmarkRunner}) to get the allocation rate next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class DraftFieldExtractionBenchmark {
+
+    private static final FieldSpec FIELD = FieldSpec.parse(DraftPayloads.FIELD_NAME);
+    private static final Collection<FieldSpec> FIELDS = Collections.singletonList(FIELD);
+
+    @Param({ "1KB", "64KB", "1MB", "50MB" })
+    public String payloadSize;
+
+    @Param({ "START", "MIDDLE", "END", "ABSENT" })
+    public DraftPayloads.Position fieldPosition;
+
+    private String xml;
+    private byte[] bytes;
+    private Map<FieldSpec, String> elementPaths;
+
+    @Setup(Level.Trial)
+    public void setUp() throws XMLStreamException {
+        xml = DraftPayloads.generate(payloadSize, fieldPosition);
+        bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+        // The plan the service would have cached after enriching another draft of the same form
+        elementPaths = XmlFieldExtractor.extractFields(
+            new StringReader(DraftPayloads.generate("1KB", DraftPayloads.Position.START)),
+            FIELDS, Collections.emptyMap()).getElementPaths();
+
+        boolean found = stringDiscover().getValues().containsKey(FIELD);
+        if (found == (fieldPosition == DraftPayloads.Position.ABSENT)) {
+            throw new IllegalStateException("Unexpected payload for " + FIELD + " at " + fieldPosition);
+        }
+    }
+
+    @Benchmark
+    public ExtractionResult stringDiscover() throws XMLStreamException {
+        return XmlFieldExtractor.extractFields(new StringReader(xml), FIELDS, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public ExtractionResult stringPlanned() throws XMLStreamException {
+        return XmlFieldExtractor.extractFields(new StringReader(xml), FIELDS, elementPaths);
+    }
+
+    @Benchmark
+    public ExtractionResult streamDiscover() throws XMLStreamException {
+        return XmlFieldExtractor.extractFields(new ByteArrayInputStream(bytes), FIELDS, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public ExtractionResult streamPlanned() throws XMLStreamException {
+        return XmlFieldExtractor.extractFields(new ByteArrayInputStream(bytes), FIELDS, elementPaths);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.benchmarks;
+
+import com.mycompany.aem.core.services.impl.DraftDataFormat;
+import com.mycompany.aem.core.services.impl.DraftEnrichmentServiceImpl;
+import com.mycompany.aem.core.services.impl.ExtractionResult;
+import com.mycompany.aem.core.services.impl.FieldSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the extraction {@code DraftEnrichmentServiceImpl} runs on the draft data, from
+ * the stream to the extraction result.
+ * <p>
+ * Unlike {@link DraftFieldExtractionBenchmark}, which calls the XML extractor directly, this
+ * goes through the service: the parse budget, the format detection on the first bytes, the
+ * byte counting, and the XML or JSON extractor. The service has its default configuration,
+ * so payloads over the default maximum payload size (10 MB) are scanned in degraded mode,
+ * as they would be on an instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class DraftPayloadExtractionBenchmark {
+
+    private static final FieldSpec FIELD = FieldSpec.parse(DraftPayloads.FIELD_NAME);
+    private static final Collection<FieldSpec> FIELDS = Collections.singletonList(FIELD);
+
+    @Param({ "1KB", "64KB", "1MB", "50MB" })
+    public String payloadSize;
+
+    @Param({ "START", "MIDDLE", "END", "ABSENT" })
+    public DraftPayloads.Position fieldPosition;
+
+    @Param({ "XML", "JSON" })
+    public DraftDataFormat format;
+
+    private DraftEnrichmentServiceImpl service;
+    private byte[] bytes;
+    private Map<FieldSpec, String> elementPaths;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        service = new DraftEnrichmentServiceImpl();
+        bytes = DraftPayloads.generate(payloadSize, fieldPosition, format).getBytes(StandardCharsets.UTF_8);
+
+        // The plan the service would have cached after enriching another draft of the same form
+        byte[] other = DraftPayloads.generate("1KB", DraftPayloads.Position.START, format)
+            .getBytes(StandardCharsets.UTF_8);
+        elementPaths = service.extractFields(new ByteArrayInputStream(other), other.length, FIELDS,
+            Collections.emptyMap()).getElementPaths();
+
+        // Only a field at the start is found for sure, past the scan limit of a degraded payload it is not
+        boolean found = discover().getValues().containsKey(FIELD);
+        if (found ? fieldPosition == DraftPayloads.Position.ABSENT : fieldPosition == DraftPayloads.Position.START) {
+            throw new IllegalStateException("Unexpected " + format + " payload for " + FIELD + " at " + fieldPosition);
+        }
+    }
+
+    @Benchmark
+    public ExtractionResult discover() throws IOException, InterruptedException {
+        return service.extractFields(new ByteArrayInputStream(bytes), bytes.length, FIELDS, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public ExtractionResult planned() throws IOException, InterruptedException {
+        return service.extractFields(new ByteArrayInputStream(bytes), bytes.length, FIELDS, elementPaths);
+    }
+}
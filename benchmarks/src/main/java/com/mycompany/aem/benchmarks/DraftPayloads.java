@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.benchmarks;
+
+import com.mycompany.aem.core.services.impl.DraftDataFormat;
+
+/**
+ * Generates synthetic draft data payloads shaped like the afData XML AEM Forms stores for
+ * foundation based forms, or like the JSON of core component based ones.
+ * <p>
+ * The bound data consists of a repeated panel of filler fields; the field the benchmarks
+ * extract is placed at the requested position, or left out altogether.
+ */
+final class DraftPayloads {
+
+    static final String FIELD_NAME = "myCustomDraftName";
+    static final String FIELD_VALUE = "Benchmark Draft";
+
+    private static final String PREFIX = "<afData><afUnboundData><data/></afUnboundData><afBoundData>"
+        + "<data xmlns:xfa=\"http://www.xfa.org/schema/xfa-data/1.0/\">";
+    private static final String SUFFIX = "</data></afBoundData><fileAttachments/></afData>";
+    private static final String FIELD = "<" + FIELD_NAME + ">" + FIELD_VALUE + "</" + FIELD_NAME + ">";
+
+    private static final String JSON_PREFIX = "{\"afData\":{\"afBoundData\":{\"data\":{\"traveller\":[";
+    private static final String JSON_SUFFIX = "]}}}}";
+    private static final String JSON_FIELD = "{\"" + FIELD_NAME + "\":\"" + FIELD_VALUE + "\"}";
+
+    enum Position {
+        START, MIDDLE, END, ABSENT
+    }
+
+    private DraftPayloads() {
+    }
+
+    /**
+     * @param size The approximate payload size, e.g. {@code 64KB}
+     * @param position Where the extracted field is placed
+     * @return The XML payload
+     */
+    static String generate(String size, Position position) {
+        return generate(size, position, DraftDataFormat.XML);
+    }
+
+    /**
+     * @param size The approximate payload size, e.g. {@code 64KB}
+     * @param position Where the extracted field is placed
+     * @param format The format of the payload; in JSON the panels and the field are the
+     *               elements of one array
+     * @return The payload
+     */
+    static String generate(String size, Position position, DraftDataFormat format) {
+        boolean json = format == DraftDataFormat.JSON;
+        String prefix = json ? JSON_PREFIX : PREFIX;
+        String suffix = json ? JSON_SUFFIX : SUFFIX;
+        String field = json ? JSON_FIELD : FIELD;
+        String separator = json ? "," : "";
+
+        long target = parseSize(size);
+        StringBuilder data = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, target + 1024));
+        data.append(prefix);
+        if (position == Position.START) {
+            data.append(field);
+        }
+        long middle = target / 2;
+        boolean placed = position != Position.MIDDLE;
+        int panel = 0;
+        while (data.length() + suffix.length() + field.length() < target) {
+            if (!placed && data.length() >= middle) {
+                data.append(separator).append(field);
+                placed = true;
+            }
+            if (data.length() > prefix.length()) {
+                data.append(separator);
+            }
+            if (json) {
+                appendJsonPanel(data, panel++);
+            } else {
+                appendPanel(data, panel++);
+            }
+        }
+        if (!placed || position == Position.END) {
+            if (data.length() > prefix.length()) {
+                data.append(separator);
+            }
+            data.append(field);
+        }
+        return data.append(suffix).toString();
+    }
+
+    private static void appendPanel(StringBuilder xml, int index) {
+        xml.append("<traveller><name>Traveller ").append(index).append("</name>")
+            .append("<city>City ").append(index % 97).append("</city>")
+            .append("<remarks>Lorem ipsum dolor sit amet, consectetur adipiscing elit</remarks>")
+            .append("</traveller>");
+    }
+
+    private static void appendJsonPanel(StringBuilder json, int index) {
+        json.append("{\"name\":\"Traveller ").append(index).append('"')
+            .append(",\"city\":\"City ").append(index % 97).append('"')
+            .append(",\"remarks\":\"Lorem ipsum dolor sit amet, consectetur adipiscing elit\"}");
+    }
+
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        if (value.endsWith("MB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) * 1024 * 1024;
+        }
+        if (value.endsWith("KB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) * 1024;
+        }
+        return Long.parseLong(value);
+    }
+}
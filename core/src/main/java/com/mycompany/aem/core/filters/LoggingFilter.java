@@ -23,9 +23,16 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics;
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.engine.EngineConstants;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.component.propertytypes.ServiceDescription;
 import org.osgi.service.component.propertytypes.ServiceRanking;
 import org.osgi.service.component.propertytypes.ServiceVendor;
@@ -33,29 +40,60 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple servlet filter component that logs incoming requests.
+ * Servlet filter component that logs incoming requests and times them per resource type,
+ * selectors and extension in {@link RequestLatencyMetrics}.
  */
 @Component(service = Filter.class,
            property = {
                    EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
            })
-@ServiceDescription("Demo to filter incoming requests")
+@ServiceDescription("Logs and times incoming requests")
 @ServiceRanking(-700)
 @ServiceVendor("Adobe")
 public class LoggingFilter implements Filter {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private volatile RequestLatencyMetrics metrics;
+
     @Override
     public void doFilter(final ServletRequest request, final ServletResponse response,
                          final FilterChain filterChain) throws IOException, ServletException {
 
         final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
-        logger.debug("request for {}, with selector {}", slingRequest
-                .getRequestPathInfo().getResourcePath(), slingRequest
-                .getRequestPathInfo().getSelectorString());
+        if (logger.isDebugEnabled()) {
+            logger.debug("request for {}, with selector {}", slingRequest
+                    .getRequestPathInfo().getResourcePath(), slingRequest
+                    .getRequestPathInfo().getSelectorString());
+        }
+
+        final long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            final RequestLatencyMetrics current = metrics;
+            if (current != null) {
+                final RequestPathInfo pathInfo = slingRequest.getRequestPathInfo();
+                final Resource resource = slingRequest.getResource();
+                current.record(resource != null ? resource.getResourceType() : null,
+                        pathInfo.getSelectorString(), pathInfo.getExtension(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindMetrics(RequestLatencyMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        filterChain.doFilter(request, response);
+    protected void unbindMetrics(RequestLatencyMetrics metrics) {
+        if (this.metrics == metrics) {
+            this.metrics = null;
+        }
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+/**
+ * A request captured by {@link SlowRequestTracer} because it took longer than the threshold.
+ */
+public final class SlowRequest {
+
+    private final long sequence;
+    private final long timestamp;
+    private final String method;
+    private final String path;
+    private final String selectors;
+    private final String extension;
+    private final String resourceType;
+    private final int status;
+    private final long durationNanos;
+    private final long cpuTimeNanos;
+
+    SlowRequest(long sequence, long timestamp, String method, String path, String selectors, String extension,
+            String resourceType, int status, long durationNanos, long cpuTimeNanos) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.method = method;
+        this.path = path;
+        this.selectors = selectors;
+        this.extension = extension;
+        this.resourceType = resourceType;
+        this.status = status;
+        this.durationNanos = durationNanos;
+        this.cpuTimeNanos = cpuTimeNanos;
+    }
+
+    /**
+     * @return Number of the capture, increasing in the order requests completed
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Time the request completed, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The resource path of the request
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The selector string, or null
+     */
+    public String getSelectors() {
+        return selectors;
+    }
+
+    /**
+     * @return The extension, or null
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return The type of the resource the request was resolved to, or null
+     */
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return The response status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Time spent in the rest of the filter chain, in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return CPU time of the request thread in the rest of the filter chain, in nanoseconds,
+     *         or -1 if the JVM does not measure thread CPU time
+     */
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent slow requests in a fixed-size ring buffer and the slowest ones seen
+ * since the last reset.
+ * <p>
+ * Both structures are lock-free: a capture claims the next ring slot with an atomic counter
+ * and overwrites the oldest capture, and the slowest captures are kept in a skip list that
+ * is trimmed back to its size after each insert.
+ */
+final class SlowRequestLog {
+
+    private static final Comparator<SlowRequest> BY_DURATION = Comparator
+        .comparingLong(SlowRequest::getDurationNanos)
+        .thenComparingLong(SlowRequest::getSequence);
+
+    private final AtomicReferenceArray<SlowRequest> ring;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentSkipListSet<SlowRequest> slowest = new ConcurrentSkipListSet<>(BY_DURATION);
+    private final int slowestSize;
+
+    /**
+     * @param capacity Number of recent captures kept
+     * @param slowestSize Number of slowest captures kept
+     */
+    SlowRequestLog(int capacity, int slowestSize) {
+        this.ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+        this.slowestSize = Math.max(0, slowestSize);
+    }
+
+    /**
+     * @return The sequence number for the next capture
+     */
+    long nextSequence() {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * Adds a capture whose sequence number was taken from {@link #nextSequence()}.
+     */
+    void add(SlowRequest request) {
+        ring.set((int) (request.getSequence() % ring.length()), request);
+        if (slowestSize == 0) {
+            return;
+        }
+        SlowRequest fastest = getFastestKept();
+        if (fastest == null || BY_DURATION.compare(request, fastest) > 0) {
+            slowest.add(request);
+            while (slowest.size() > slowestSize) {
+                slowest.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * @return The fastest of the slowest captures, or null while fewer than their size are kept
+     */
+    private SlowRequest getFastestKept() {
+        if (slowest.size() < slowestSize) {
+            return null;
+        }
+        try {
+            return slowest.first();
+        } catch (NoSuchElementException e) {
+            // Emptied by a reset or other captures' trimming since the size was read
+            return null;
+        }
+    }
+
+    /**
+     * @return The captures in the ring buffer, most recent first
+     */
+    List<SlowRequest> getRecent() {
+        List<SlowRequest> recent = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            SlowRequest request = ring.get(i);
+            if (request != null) {
+                recent.add(request);
+            }
+        }
+        recent.sort(Comparator.comparingLong(SlowRequest::getSequence).reversed());
+        return recent;
+    }
+
+    /**
+     * @return The slowest captures, slowest first
+     */
+    List<SlowRequest> getSlowest() {
+        List<SlowRequest> result = new ArrayList<>(slowest.descendingSet());
+        return result.size() > slowestSize ? result.subList(0, slowestSize) : result;
+    }
+
+    /**
+     * @return Number of captures since the log was created
+     */
+    long getCaptureCount() {
+        return sequence.get();
+    }
+
+    /**
+     * Forgets the slowest captures, so that they reflect the requests from now on.
+     */
+    void resetSlowest() {
+        slowest.clear();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.component.propertytypes.ServiceRanking;
+import org.osgi.service.component.propertytypes.ServiceVendor;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet filter component that captures requests taking longer than a threshold, keeping
+ * the most recent captures and the slowest ones for inspection.
+ * <p>
+ * Requests under the threshold only cost two clock reads and, if enabled, two reads of the
+ * thread CPU time; nothing is allocated or locked for them.
+ */
+@Component(service = { Filter.class, SlowRequestTracer.class },
+           property = {
+                   EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
+           })
+@ServiceDescription("Captures slow requests")
+@ServiceRanking(-650)
+@ServiceVendor("Adobe")
+@Designate(ocd = SlowRequestTracer.Config.class)
+public class SlowRequestTracer implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowRequestTracer.class);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @ObjectClassDefinition(name = "My65site Slow Request Tracer",
+                           description = "Captures requests taking longer than a threshold")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Threshold (ms)",
+                             description = "Requests taking at least this long are captured")
+        long threshold_ms() default 1000;
+
+        @AttributeDefinition(name = "Capacity",
+                             description = "Number of most recent slow requests kept")
+        int capacity() default 256;
+
+        @AttributeDefinition(name = "Slowest requests",
+                             description = "Number of slowest requests kept until reset")
+        int slowest_size() default 20;
+
+        @AttributeDefinition(name = "Measure CPU time",
+                             description = "Whether to measure the CPU time of the request thread")
+        boolean cpu_time() default true;
+    }
+
+    private volatile long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile boolean cpuTime;
+    private volatile SlowRequestLog log = new SlowRequestLog(256, 20);
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.threshold_ms()));
+        cpuTime = config.cpu_time() && THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        log = new SlowRequestLog(config.capacity(), config.slowest_size());
+        LOG.info("Capturing requests of {} ms or more, keeping {} recent and {} slowest, CPU time {}",
+            config.threshold_ms(), config.capacity(), config.slowest_size(), cpuTime ? "measured" : "not measured");
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain filterChain) throws IOException, ServletException {
+        final boolean measureCpu = cpuTime;
+        final long startCpu = measureCpu ? THREADS.getCurrentThreadCpuTime() : -1;
+        final long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            final long duration = System.nanoTime() - start;
+            if (duration >= thresholdNanos) {
+                final long cpu = measureCpu ? THREADS.getCurrentThreadCpuTime() - startCpu : -1;
+                capture((SlingHttpServletRequest) request, response, duration, cpu);
+            }
+        }
+    }
+
+    private void capture(SlingHttpServletRequest request, ServletResponse response, long duration, long cpu) {
+        final SlowRequestLog current = log;
+        final RequestPathInfo pathInfo = request.getRequestPathInfo();
+        final Resource resource = request.getResource();
+        final int status = response instanceof HttpServletResponse ? ((HttpServletResponse) response).getStatus() : 0;
+        current.add(new SlowRequest(current.nextSequence(), System.currentTimeMillis(), request.getMethod(),
+            pathInfo.getResourcePath(), pathInfo.getSelectorString(), pathInfo.getExtension(),
+            resource != null ? resource.getResourceType() : null, status, duration, cpu));
+    }
+
+    /**
+     * @return The most recent slow requests, most recent first
+     */
+    public List<SlowRequest> getRecent() {
+        return log.getRecent();
+    }
+
+    /**
+     * @return The slowest requests since activation or the last reset, slowest first
+     */
+    public List<SlowRequest> getSlowest() {
+        return log.getSlowest();
+    }
+
+    /**
+     * @return Number of requests captured since activation
+     */
+    public long getCaptureCount() {
+        return log.getCaptureCount();
+    }
+
+    /**
+     * @return The capture threshold in milliseconds
+     */
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * Forgets the slowest requests; the recent ones are kept.
+     */
+    public void resetSlowest() {
+        log.resetSlowest();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue that coalesces draft paths and hands each of them to a handler on a
+ * worker thread once no further change arrived for the quiet window.
+ * <p>
+ * A path submitted again while it is waiting restarts its quiet window, so a burst of
+ * autosave events results in a single handler call. A path submitted while it is being
+ * handled is handled again after the running call returns. When the queue is full the
+ * submitting thread handles the path itself, so changes are never dropped.
+ */
+public final class DraftEnrichmentQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftEnrichmentQueue.class);
+
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Consumer<String> handler;
+    private final long quietWindowNanos;
+    private final int capacity;
+
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final DelayQueue<Ticket> due = new DelayQueue<>();
+    private final ExecutorService workers;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    /**
+     * @param handler Called with each path once its quiet window has passed
+     * @param quietWindowMillis Time without further submissions before a path is handled
+     * @param workerCount Number of worker threads
+     * @param capacity Maximum number of waiting paths
+     */
+    public DraftEnrichmentQueue(Consumer<String> handler, long quietWindowMillis, int workerCount, int capacity) {
+        this.handler = handler;
+        this.quietWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietWindowMillis));
+        this.capacity = Math.max(1, capacity);
+        int threads = Math.max(1, workerCount);
+        this.workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Queues a path, or restarts its quiet window if it is already waiting.
+     *
+     * @param path The draft path
+     */
+    public void submit(String path) {
+        submitted.increment();
+        long deadline = System.nanoTime() + quietWindowNanos;
+        boolean[] added = new boolean[1];
+        Entry entry = pending.compute(path, (key, existing) -> {
+            if (existing != null) {
+                existing.deadline = deadline;
+                return existing;
+            }
+            if (pending.size() >= capacity) {
+                return null;
+            }
+            added[0] = true;
+            return new Entry(key, deadline);
+        });
+        if (entry == null) {
+            callerRuns.increment();
+            LOG.warn("Draft enrichment queue is full ({} paths), handling {} on the calling thread", capacity, path);
+            handle(path);
+        } else if (added[0]) {
+            due.put(new Ticket(entry, deadline));
+        } else {
+            coalesced.increment();
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Entry entry;
+            try {
+                entry = due.take().entry;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Only take the path off the queue if its window was not restarted in the meantime
+            // and no other worker is handling it
+            long now = System.nanoTime();
+            boolean[] taken = new boolean[1];
+            pending.computeIfPresent(entry.path, (key, current) -> {
+                if (current != entry || current.deadline - now > 0 || !inFlight.add(key)) {
+                    return current;
+                }
+                taken[0] = true;
+                return null;
+            });
+            if (taken[0]) {
+                try {
+                    handle(entry.path);
+                } finally {
+                    inFlight.remove(entry.path);
+                }
+            } else if (pending.get(entry.path) == entry) {
+                long deadline = entry.deadline;
+                due.put(new Ticket(entry, deadline - now > 0 ? deadline : now + RETRY_NANOS));
+            }
+        }
+    }
+
+    private void handle(String path) {
+        try {
+            handler.accept(path);
+        } catch (RuntimeException e) {
+            LOG.error("Error handling queued draft {}", path, e);
+        } finally {
+            handled.increment();
+        }
+    }
+
+    /**
+     * Stops the workers. Paths still waiting are discarded.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Draft enrichment workers did not stop within 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.isEmpty()) {
+            LOG.warn("Discarding {} queued draft(s) on shutdown", pending.size());
+            pending.clear();
+        }
+        due.clear();
+    }
+
+    /**
+     * @return Number of paths waiting for their quiet window to pass
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * @return Number of paths submitted
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * @return Number of submissions merged into a path that was already waiting
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of handler calls, including those on the calling thread
+     */
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    /**
+     * @return Number of paths handled on the calling thread because the queue was full
+     */
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * @return Share of submissions that were coalesced, between 0 and 1
+     */
+    public double getCoalesceRatio() {
+        long total = submitted.sum();
+        return total == 0 ? 0.0 : (double) coalesced.sum() / total;
+    }
+
+    private static final class Entry {
+
+        private final String path;
+        private volatile long deadline;
+
+        Entry(String path, long deadline) {
+            this.path = path;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Schedules a look at a waiting entry. The entry's deadline moves when its window
+     * restarts, the ticket's does not, so that the delay queue stays ordered.
+     */
+    private static final class Ticket implements Delayed {
+
+        private final Entry entry;
+        private final long at;
+
+        Ticket(Entry entry, long at) {
+            this.entry = entry;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "draft-enrichment-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
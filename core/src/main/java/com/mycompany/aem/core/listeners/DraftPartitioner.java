@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import com.mycompany.aem.core.utils.Fnv1a;
+import org.apache.sling.discovery.InstanceDescription;
+import org.apache.sling.discovery.TopologyEvent;
+import org.apache.sling.discovery.TopologyEventListener;
+import org.apache.sling.discovery.TopologyView;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Assigns every draft to exactly one instance of the local cluster, so that a draft
+ * saved on one instance is not enriched by all instances that see the change.
+ * <p>
+ * The owner of a draft is found by consistent hashing of its path on a ring with a number
+ * of virtual nodes per instance. When an instance joins or leaves, only the drafts of the
+ * ring segments it takes over or gives up move to another instance. The ring is built
+ * from the cluster view that Sling Discovery reports for the local instance. While the
+ * topology is unknown or changing, every instance is responsible for the changes it made
+ * itself and for no external changes, which is how drafts were handled without partitioning.
+ */
+@Component(
+    service = { DraftPartitioner.class, TopologyEventListener.class },
+    immediate = true
+)
+@ServiceDescription("Partitions draft processing between the instances of the cluster")
+@Designate(ocd = DraftPartitioner.Config.class)
+public class DraftPartitioner implements TopologyEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftPartitioner.class);
+
+    @ObjectClassDefinition(name = "My65site Draft Partitioner",
+                           description = "Assigns each draft to one instance of the cluster by consistent hashing")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Virtual nodes",
+                             description = "Points on the hash ring per instance; more points spread drafts "
+                                 + "more evenly")
+        int virtual_nodes() default 64;
+    }
+
+    private volatile int virtualNodes = 64;
+    private volatile TopologyView view;
+    private volatile Ring ring;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        virtualNodes = Math.max(1, config.virtual_nodes());
+        TopologyView current = view;
+        if (current != null) {
+            ring = Ring.of(current, virtualNodes);
+        }
+    }
+
+    @Override
+    public void handleTopologyEvent(TopologyEvent event) {
+        switch (event.getType()) {
+            case TOPOLOGY_CHANGING:
+                LOG.info("Topology changing, processing local draft changes only");
+                view = null;
+                ring = null;
+                break;
+            case TOPOLOGY_INIT:
+            case TOPOLOGY_CHANGED:
+            case PROPERTIES_CHANGED:
+                TopologyView newView = event.getNewView();
+                Ring newRing = newView != null ? Ring.of(newView, virtualNodes) : null;
+                view = newView;
+                ring = newRing;
+                if (newRing != null) {
+                    LOG.info("Partitioning drafts between {} instance(s), local instance {}",
+                        newRing.getInstanceCount(), newRing.localSlingId);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Decides whether the local instance handles a change to a draft.
+     *
+     * @param path The draft path
+     * @param external true if the change was made on another instance
+     * @return true if the local instance owns the draft, or, while the topology is unknown,
+     *         if the change was made locally
+     */
+    public boolean isResponsible(String path, boolean external) {
+        Ring current = ring;
+        if (current == null) {
+            return !external;
+        }
+        return current.localSlingId.equals(current.ownerOf(path));
+    }
+
+    /**
+     * @param path The draft path
+     * @return The Sling ID of the instance owning the draft, or null while the topology is unknown
+     */
+    public String getOwner(String path) {
+        Ring current = ring;
+        return current != null ? current.ownerOf(path) : null;
+    }
+
+    /**
+     * @return Number of instances drafts are partitioned between, or 0 while the topology is unknown
+     */
+    public int getInstanceCount() {
+        Ring current = ring;
+        return current != null ? current.getInstanceCount() : 0;
+    }
+
+    static long hash(String key) {
+        // FNV-1a, followed by the MurmurHash3 finalizer to spread similar paths over the ring
+        long h = Fnv1a.hash(key);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Immutable hash ring of the instances of one cluster view.
+     */
+    static final class Ring {
+
+        private final String localSlingId;
+        private final long[] points;
+        private final String[] owners;
+        private final int instanceCount;
+
+        private Ring(String localSlingId, long[] points, String[] owners, int instanceCount) {
+            this.localSlingId = localSlingId;
+            this.points = points;
+            this.owners = owners;
+            this.instanceCount = instanceCount;
+        }
+
+        static Ring of(TopologyView view, int virtualNodes) {
+            InstanceDescription local = view.getLocalInstance();
+            // Only the instances of the local cluster share the repository the drafts are in
+            TreeSet<String> slingIds = new TreeSet<>();
+            for (InstanceDescription instance : local.getClusterView().getInstances()) {
+                slingIds.add(instance.getSlingId());
+            }
+            return of(local.getSlingId(), new ArrayList<>(slingIds), virtualNodes);
+        }
+
+        static Ring of(String localSlingId, List<String> slingIds, int virtualNodes) {
+            int size = slingIds.size() * virtualNodes;
+            long[] hashes = new long[size];
+            String[] ids = new String[size];
+            Integer[] order = new Integer[size];
+            int n = 0;
+            for (String slingId : slingIds) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    hashes[n] = hash(slingId + '#' + i);
+                    ids[n] = slingId;
+                    order[n] = n;
+                    n++;
+                }
+            }
+            // Sort by hash; ties, which are practically impossible, go to the smaller Sling ID
+            Arrays.sort(order, (a, b) -> hashes[a] != hashes[b]
+                ? Long.compare(hashes[a], hashes[b]) : ids[a].compareTo(ids[b]));
+            long[] points = new long[size];
+            String[] owners = new String[size];
+            for (int i = 0; i < size; i++) {
+                points[i] = hashes[order[i]];
+                owners[i] = ids[order[i]];
+            }
+            return new Ring(localSlingId, points, owners, slingIds.size());
+        }
+
+        /**
+         * @return The instance at the first point at or after the hash of the path, wrapping around
+         */
+        String ownerOf(String path) {
+            if (points.length == 0) {
+                return null;
+            }
+            int index = Arrays.binarySearch(points, hash(path));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index < points.length ? index : 0];
+        }
+
+        int getInstanceCount() {
+            return instanceCount;
+        }
+    }
+}
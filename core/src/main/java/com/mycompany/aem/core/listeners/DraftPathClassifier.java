@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+/**
+ * Matches paths against a fixed sequence of path segments, segment by segment and
+ * without allocating. A {@code *} segment matches any single non-empty segment.
+ */
+public final class DraftPathClassifier {
+
+    /** Pattern of draft metadata nodes, one per user and draft. */
+    public static final String DRAFT_METADATA_PATTERN = "/content/forms/fp/*/drafts/metadata/*";
+
+    /** Classifier for {@link #DRAFT_METADATA_PATTERN}. */
+    public static final DraftPathClassifier DRAFT_METADATA = new DraftPathClassifier(DRAFT_METADATA_PATTERN);
+
+    private static final String WILDCARD = "*";
+
+    private final String[] segments;
+
+    /**
+     * @param pattern Absolute path whose segments are literal names or {@code *}
+     * @throws IllegalArgumentException if the pattern is not absolute or has empty segments
+     */
+    public DraftPathClassifier(String pattern) {
+        if (pattern == null || !pattern.startsWith("/") || pattern.length() == 1) {
+            throw new IllegalArgumentException("Invalid path pattern: " + pattern);
+        }
+        segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].isEmpty()) {
+                throw new IllegalArgumentException("Invalid path pattern: " + pattern);
+            }
+            if (WILDCARD.equals(segments[i])) {
+                segments[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @param path The path to classify
+     * @return true if the path has exactly the pattern's segments
+     */
+    public boolean matches(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return false;
+        }
+        int length = path.length();
+        int start = 1;
+        for (String segment : segments) {
+            if (start > length) {
+                return false;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            int segmentLength = end - start;
+            if (segmentLength == 0) {
+                return false;
+            }
+            if (segment != null
+                    && (segment.length() != segmentLength || !path.regionMatches(start, segment, 0, segmentLength))) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return start == length + 1;
+    }
+}
@@ -15,90 +15,312 @@
  */
 package com.mycompany.aem.core.listeners;
 
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Outcome;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Stage;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Statistic;
 import com.mycompany.aem.core.services.DraftEnrichmentService;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Resource change listener that monitors draft metadata nodes and enriches them
  * with custom properties when they are created or modified.
+ * <p>
+ * The listener is only registered for paths of draft metadata nodes, and paths that do
+ * not have that shape are dropped by a {@link DraftPathClassifier} before the repository
+ * is accessed. Changes are coalesced per path in a {@link DraftEnrichmentQueue} and
+ * enriched on its worker threads, keeping the observation thread free during autosave bursts.
+ * <p>
+ * The listener also receives the changes made on other instances of the cluster. A
+ * {@link DraftPartitioner} decides which instance enriches a draft, so that each draft is
+ * parsed and written by one instance only.
  */
 @Component(
-    service = ResourceChangeListener.class,
+    service = { ResourceChangeListener.class, ExternalResourceChangeListener.class },
     enabled = true,  // Re-enabled - this is the reliable approach
     immediate = true,
     property = {
         ResourceChangeListener.CHANGES + "=ADDED",
         ResourceChangeListener.CHANGES + "=CHANGED",
-        ResourceChangeListener.PATHS + "=/content/forms/fp"
+        ResourceChangeListener.PATHS + "=glob:" + DraftPathClassifier.DRAFT_METADATA_PATTERN
     }
 )
 @ServiceDescription("Listener for draft save events to add custom properties")
-public class DraftSaveListener implements ResourceChangeListener {
+@Designate(ocd = DraftSaveListener.Config.class)
+public class DraftSaveListener implements ResourceChangeListener, ExternalResourceChangeListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(DraftSaveListener.class);
 
+    private static final String SUBSERVICE = "draftEnrichmentService";
+    private static final String QUEUE_BACKLOG = "listenerQueue";
+
+    // The user the subservice is mapped to, whose changes are always enrichment writes
+    private static final String SERVICE_USER_ID = "draftEnrichmentService";
+
+    @ObjectClassDefinition(name = "My65site Draft Save Listener",
+                           description = "Queues draft changes and enriches each draft once per burst of saves")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Quiet window (ms)",
+                             description = "Time without further changes to a draft before it is enriched")
+        long quiet_window_ms() default 3000;
+
+        @AttributeDefinition(name = "Worker count",
+                             description = "Number of threads enriching drafts")
+        int worker_count() default 2;
+
+        @AttributeDefinition(name = "Queue capacity",
+                             description = "Maximum number of drafts waiting; when full, drafts are enriched "
+                                 + "on the observation thread")
+        int queue_capacity() default 1000;
+    }
+
     @Reference
     private DraftEnrichmentService draftEnrichmentService;
 
     @Reference
     private ResourceResolverFactory resolverFactory;
 
+    @Reference
+    private DraftPartitioner partitioner;
+
+    private volatile DraftEnrichmentQueue queue;
+    private volatile DraftEnrichmentMetrics metrics;
+
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder delegated = new LongAdder();
+
+    @Activate
+    protected void activate(final Config config) {
+        queue = new DraftEnrichmentQueue(this::processDraft, config.quiet_window_ms(),
+            config.worker_count(), config.queue_capacity());
+        LOG.info("Draft save listener with a quiet window of {} ms, {} worker(s) and capacity {}",
+            config.quiet_window_ms(), config.worker_count(), config.queue_capacity());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (queue != null) {
+            LOG.info("Draft save listener stopping: {} change(s), {} enrichment(s), coalesce ratio {}, "
+                + "{} own change(s) ignored, {} change(s) left to other instances", queue.getSubmittedCount(),
+                queue.getHandledCount(), queue.getCoalesceRatio(), suppressed.sum(), delegated.sum());
+            queue.shutdown();
+            queue = null;
+        }
+    }
+
     @Override
     public void onChange(List<ResourceChange> changes) {
+        DraftEnrichmentQueue current = queue;
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (!DraftPathClassifier.DRAFT_METADATA.matches(path)) {
+                // Data nodes, attachments and children of drafts, never resolved
+                continue;
+            }
+            LOG.debug("Draft resource change detected: {} at path: {}", 
+                change.getType(), path);
+            if (isOwnChange(change)) {
+                suppressed.increment();
+                LOG.debug("Ignoring change caused by enrichment at path: {}", path);
+                continue;
+            }
+            if (!partitioner.isResponsible(path, change.isExternal())) {
+                delegated.increment();
+                LOG.debug("Leaving {} change at path {} to instance {}",
+                    change.isExternal() ? "external" : "local", path, partitioner.getOwner(path));
+                continue;
+            }
+            if (current != null) {
+                current.submit(path);
+            } else {
+                processDraft(path);
+            }
+        }
+    }
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.registerBacklog(QUEUE_BACKLOG, this::getQueueDepth);
+        metrics.registerStatistic(Statistic.COALESCE_RATIO, this::getCoalesceRatio);
+        metrics.registerStatistic(Statistic.SUPPRESSED_CHANGES, this::getSuppressedCount);
+        metrics.registerStatistic(Statistic.DELEGATED_CHANGES, this::getDelegatedCount);
+        this.metrics = metrics;
+    }
+
+    protected void unbindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.unregisterBacklog(QUEUE_BACKLOG);
+        metrics.unregisterStatistic(Statistic.COALESCE_RATIO);
+        metrics.unregisterStatistic(Statistic.SUPPRESSED_CHANGES);
+        metrics.unregisterStatistic(Statistic.DELEGATED_CHANGES);
+        if (this.metrics == metrics) {
+            this.metrics = null;
+        }
+    }
+
+    private int getQueueDepth() {
+        DraftEnrichmentQueue current = queue;
+        return current != null ? current.getQueueDepth() : 0;
+    }
+
+    private double getCoalesceRatio() {
+        DraftEnrichmentQueue current = queue;
+        return current != null ? current.getCoalesceRatio() : 0.0;
+    }
+
+    private void recordOutcome(Outcome outcome) {
+        DraftEnrichmentMetrics current = metrics;
+        if (current != null) {
+            current.recordOutcome(outcome);
+        }
+    }
+
+    private void recordLatency(Stage stage, long start) {
+        DraftEnrichmentMetrics current = metrics;
+        if (current != null) {
+            current.recordLatency(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Recognises the change events of enrichment writes, without reading the draft.
+     * 
+     * @param change The change
+     * @return true if the change was made by the enrichment service
+     */
+    private boolean isOwnChange(ResourceChange change) {
+        if (change.getType() != ResourceChange.ChangeType.CHANGED) {
+            return false;
+        }
+        // Always let the service match the change, so that it forgets the write it recorded
+        boolean recorded = draftEnrichmentService.isOwnChange(change.getPath(), getPropertyNames(change));
+        return recorded || SERVICE_USER_ID.equals(change.getUserId());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Set<String> getPropertyNames(ResourceChange change) {
+        Set<String> added = change.getAddedPropertyNames();
+        Set<String> changed = change.getChangedPropertyNames();
+        Set<String> removed = change.getRemovedPropertyNames();
+        if (added == null && changed == null && removed == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<>();
+        if (added != null) {
+            names.addAll(added);
+        }
+        if (changed != null) {
+            names.addAll(changed);
+        }
+        if (removed != null) {
+            names.addAll(removed);
+        }
+        return names;
+    }
+
+    /**
+     * @return Number of change events dropped because enrichment caused them
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    /**
+     * @return Number of change events left to the instance owning the draft
+     */
+    public long getDelegatedCount() {
+        return delegated.sum();
+    }
+
+    /**
+     * @return The enrichment queue, for its depth and coalesce ratio, or null while inactive
+     */
+    public DraftEnrichmentQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Enriches the draft at a path, if it is one, with a service resource resolver.
+     * 
+     * @param path The changed resource path
+     */
+    void processDraft(String path) {
         ResourceResolver resolver = null;
         
         try {
             // Get a service resource resolver
             Map<String, Object> authInfo = new HashMap<>();
-            authInfo.put(ResourceResolverFactory.SUBSERVICE, "draftEnrichmentService");
+            authInfo.put(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
             resolver = resolverFactory.getServiceResourceResolver(authInfo);
 
-            for (ResourceChange change : changes) {
-                String path = change.getPath();
-                LOG.debug("Draft resource change detected: {} at path: {}", 
-                    change.getType(), path);
-
-                // Get the resource
-                Resource resource = resolver.getResource(path);
-                
-                if (resource == null) {
-                    LOG.warn("Resource not found at path: {}", path);
-                    continue;
-                }
-
-                // Check if this is a draft node
-                if (draftEnrichmentService.isDraftNode(resource)) {
-                    LOG.info("Processing draft save event for: {}", path);
-                    
-                    // Enrich the draft with custom properties
-                    boolean success = draftEnrichmentService.enrichDraft(resource);
-                    
-                    if (success) {
-                        LOG.info("Successfully enriched draft at: {}", path);
-                    } else {
-                        LOG.error("Failed to enrich draft at: {}", path);
-                    }
-                }
+            // Get the resource
+            long start = System.nanoTime();
+            Resource resource = resolver.getResource(path);
+            
+            if (resource == null) {
+                LOG.warn("Resource not found at path: {}", path);
+                recordOutcome(Outcome.NOT_A_DRAFT);
+                return;
+            }
+
+            // Check if this is a draft node
+            boolean isDraft = draftEnrichmentService.isDraftNode(resource);
+            recordLatency(Stage.RESOLVE, start);
+            if (!isDraft) {
+                recordOutcome(Outcome.NOT_A_DRAFT);
+                return;
+            }
+            LOG.info("Processing draft save event for: {}", path);
+
+            // Enrich the draft with custom properties
+            Map<String, Object> changes = draftEnrichmentService.computeEnrichment(resource);
+            if (changes != null && changes.isEmpty()) {
+                LOG.debug("Draft at {} is already enriched", path);
+                recordOutcome(Outcome.UNCHANGED);
+            } else if (changes != null && draftEnrichmentService.applyEnrichment(resource, changes)) {
+                LOG.info("Successfully enriched draft at: {}", path);
+                recordOutcome(Outcome.ENRICHED);
+            } else {
+                LOG.error("Failed to enrich draft at: {}", path);
+                recordOutcome(Outcome.FAILED);
             }
 
         } catch (LoginException e) {
             LOG.error("Failed to get service resource resolver. Make sure the service user is configured.", e);
+            recordOutcome(Outcome.FAILED);
         } catch (Exception e) {
             LOG.error("Error processing draft change event", e);
+            recordOutcome(Outcome.FAILED);
         } finally {
             if (resolver != null && resolver.isLive()) {
                 resolver.close();
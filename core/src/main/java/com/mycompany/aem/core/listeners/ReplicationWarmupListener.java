@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import com.day.cq.replication.ReplicationAction;
+import com.day.cq.replication.ReplicationActionType;
+import com.mycompany.aem.core.services.CacheWarmer;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event handler that queues replicated pages for dispatcher cache warming.
+ * <p>
+ * Runs on publish instances whose dispatcher flush agent is triggered on receive. There the
+ * event fires once the replicated content has been received, and the flush agent invalidates
+ * the dispatcher asynchronously after that, so the warmer holds each page back for its flush
+ * delay before fetching it. On author the event fires when replication starts, before
+ * publish has the content, which is why the warmer must stay disabled there.
+ * <p>
+ * Activated pages are warmed together with their ancestors, whose navigation shows them.
+ * For deactivated and deleted pages only the ancestors are warmed. The handler only
+ * queues paths, so it returns quickly on the event thread.
+ */
+@Component(
+    service = EventHandler.class,
+    immediate = true,
+    property = {
+        EventConstants.EVENT_TOPIC + "=" + ReplicationAction.EVENT_TOPIC
+    }
+)
+@ServiceDescription("Queues replicated pages for dispatcher cache warming")
+public class ReplicationWarmupListener implements EventHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationWarmupListener.class);
+
+    @Reference
+    private CacheWarmer cacheWarmer;
+
+    @Override
+    public void handleEvent(Event event) {
+        ReplicationAction action = ReplicationAction.fromEvent(event);
+        if (action == null || action.getPaths() == null) {
+            return;
+        }
+        ReplicationActionType type = action.getType();
+        boolean includePage;
+        if (type == ReplicationActionType.ACTIVATE) {
+            includePage = true;
+        } else if (type == ReplicationActionType.DEACTIVATE || type == ReplicationActionType.DELETE) {
+            includePage = false;
+        } else {
+            return;
+        }
+        int queued = 0;
+        for (String path : action.getPaths()) {
+            queued += cacheWarmer.warm(path, includePage);
+        }
+        if (queued > 0) {
+            LOG.debug("Queued {} page(s) for warming after {} of {} path(s)", queued, type, action.getPaths().length);
+        }
+    }
+}
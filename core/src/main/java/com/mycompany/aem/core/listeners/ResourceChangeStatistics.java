@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts resource changes per subtree, change type and origin, with a rolling rate per subtree.
+ * <p>
+ * A subtree is the path prefix of a fixed number of segments, so {@code /content/forms/fp}
+ * for changes below it at depth 3. Counts are {@link LongAdder}s, which stripe updates across
+ * cells under contention. The rate is kept in one-second slots of the last
+ * {@link #WINDOW_SECONDS} seconds. The number of subtrees is capped; changes in new subtrees
+ * beyond the cap are counted under {@link #OVERFLOW_SUBTREE}.
+ */
+final class ResourceChangeStatistics {
+
+    /** Number of seconds rates are computed over. */
+    static final int WINDOW_SECONDS = 60;
+
+    /** Subtree under which changes are counted once the cap is reached. */
+    static final String OVERFLOW_SUBTREE = "(other)";
+
+    private static final int TYPES = ChangeType.values().length;
+
+    private final int depth;
+    private final int maxSubtrees;
+    private final Map<String, Subtree> subtrees = new ConcurrentHashMap<>();
+
+    /**
+     * @param depth Number of path segments identifying a subtree
+     * @param maxSubtrees Maximum number of subtrees counted separately
+     */
+    ResourceChangeStatistics(int depth, int maxSubtrees) {
+        this.depth = Math.max(1, depth);
+        this.maxSubtrees = Math.max(1, maxSubtrees);
+    }
+
+    /**
+     * Counts a change.
+     *
+     * @param path The changed path
+     * @param type The type of the change
+     * @param external true if the change was made on another instance
+     * @param now The current time in milliseconds
+     */
+    void record(String path, ChangeType type, boolean external, long now) {
+        String prefix = prefix(path);
+        Subtree subtree = subtrees.get(prefix);
+        if (subtree == null) {
+            if (subtrees.size() >= maxSubtrees) {
+                prefix = OVERFLOW_SUBTREE;
+            }
+            subtree = subtrees.computeIfAbsent(prefix, Subtree::new);
+        }
+        subtree.record(type, external, now / 1000);
+    }
+
+    /**
+     * @param count Maximum number of subtrees returned
+     * @param now The current time in milliseconds
+     * @return The subtrees with the highest current rate, then the highest count, first
+     */
+    List<Subtree> getHottest(int count, long now) {
+        long second = now / 1000;
+        List<Subtree> hottest = new ArrayList<>(subtrees.values());
+        hottest.sort(Comparator.comparingLong((Subtree s) -> s.getWindowCount(second))
+            .thenComparingLong(Subtree::getTotal).reversed());
+        return hottest.size() > count ? new ArrayList<>(hottest.subList(0, Math.max(0, count))) : hottest;
+    }
+
+    /**
+     * @return The subtree with a prefix, or null if no change was counted for it
+     */
+    Subtree getSubtree(String prefix) {
+        return subtrees.get(prefix);
+    }
+
+    int getSubtreeCount() {
+        return subtrees.size();
+    }
+
+    /**
+     * Forgets all subtrees and counts.
+     */
+    void reset() {
+        subtrees.clear();
+    }
+
+    String prefix(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return String.valueOf(path);
+        }
+        int end = 0;
+        for (int i = 0; i < depth; i++) {
+            end = path.indexOf('/', end + 1);
+            if (end < 0) {
+                return path;
+            }
+        }
+        return path.substring(0, end);
+    }
+
+    /**
+     * Counts of the changes below one path prefix.
+     */
+    static final class Subtree {
+
+        private final String prefix;
+        private final LongAdder[] counts = new LongAdder[TYPES * 2];
+        private final AtomicLongArray slotSeconds = new AtomicLongArray(WINDOW_SECONDS);
+        private final AtomicLongArray slotCounts = new AtomicLongArray(WINDOW_SECONDS);
+
+        Subtree(String prefix) {
+            this.prefix = prefix;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                slotSeconds.set(i, -1);
+            }
+        }
+
+        void record(ChangeType type, boolean external, long second) {
+            counts[type.ordinal() * 2 + (external ? 1 : 0)].increment();
+            int slot = (int) (second % WINDOW_SECONDS);
+            long slotSecond = slotSeconds.get(slot);
+            if (slotSecond != second && slotSeconds.compareAndSet(slot, slotSecond, second)) {
+                // First change in this second; a concurrent increment may be lost, which a rate tolerates
+                slotCounts.set(slot, 0);
+            }
+            slotCounts.incrementAndGet(slot);
+        }
+
+        String getPrefix() {
+            return prefix;
+        }
+
+        long getCount(ChangeType type, boolean external) {
+            return counts[type.ordinal() * 2 + (external ? 1 : 0)].sum();
+        }
+
+        long getCount(ChangeType type) {
+            return getCount(type, false) + getCount(type, true);
+        }
+
+        long getExternalCount() {
+            long external = 0;
+            for (int i = 1; i < counts.length; i += 2) {
+                external += counts[i].sum();
+            }
+            return external;
+        }
+
+        long getTotal() {
+            long total = 0;
+            for (LongAdder count : counts) {
+                total += count.sum();
+            }
+            return total;
+        }
+
+        /**
+         * @param now The current time in milliseconds
+         * @return Changes per second over the last {@link #WINDOW_SECONDS} full seconds
+         */
+        double getRate(long now) {
+            return getWindowCount(now / 1000) / (double) WINDOW_SECONDS;
+        }
+
+        private long getWindowCount(long second) {
+            long count = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                long slotSecond = slotSeconds.get(i);
+                if (slotSecond < second && slotSecond >= second - WINDOW_SECONDS) {
+                    count += slotCounts.get(i);
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -16,34 +16,149 @@
 package com.mycompany.aem.core.listeners;
 
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A service to demonstrate how changes in the resource tree
- * can be listened for. 
- * Please note, that apart from EventHandler services,
- * the immediate flag should not be set on a service.
+ * Counts the changes in the resource tree per subtree, change type and origin, to show
+ * which parts of the repository generate the observation load.
+ * <p>
+ * Nothing is logged per change; the hottest subtrees and their rates are reported over JMX.
  */
-@Component(service = ResourceChangeListener.class,
-           immediate = true
+@Component(service = { ResourceChangeListener.class, ExternalResourceChangeListener.class,
+                       SimpleResourceListenerMBean.class },
+           immediate = true,
+           property = {
+               "jmx.objectname=com.mycompany.aem:type=ResourceChangeStatistics"
+           }
 )
-@ServiceDescription("Demo to listen on changes in the resource tree")
-public class SimpleResourceListener implements ResourceChangeListener {
+@ServiceDescription("Counts changes in the resource tree per subtree")
+@Designate(ocd = SimpleResourceListener.Config.class)
+public class SimpleResourceListener implements ResourceChangeListener, ExternalResourceChangeListener,
+        SimpleResourceListenerMBean {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final String[] ITEMS = { "subtree", "changesPerSecond", "total", "added", "changed",
+        "removed", "external" };
+
+    @ObjectClassDefinition(name = "My65site Resource Change Statistics",
+                           description = "Counts changes in the resource tree per subtree")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Subtree depth",
+                             description = "Number of path segments identifying a subtree, 3 for /content/forms/fp")
+        int subtree_depth() default 3;
+
+        @AttributeDefinition(name = "Maximum subtrees",
+                             description = "Number of subtrees counted separately; changes in further subtrees "
+                                 + "are counted together")
+        int max_subtrees() default 1000;
+
+        @AttributeDefinition(name = "Hottest subtrees",
+                             description = "Number of subtrees reported over JMX")
+        int hottest_count() default 20;
+    }
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder external = new LongAdder();
+
+    private volatile ResourceChangeStatistics statistics = new ResourceChangeStatistics(3, 1000);
+    private volatile int hottestCount = 20;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        statistics = new ResourceChangeStatistics(config.subtree_depth(), config.max_subtrees());
+        hottestCount = config.hottest_count();
+        logger.info("Counting resource changes per subtree of depth {}", config.subtree_depth());
+    }
+
     @Override
     public void onChange(List<ResourceChange> changes) {
-        changes.forEach(change -> {
-            logger.debug("Resource event: {} at: {} isExternal", change.getType(), change.getPath(), change.isExternal());
-        });
-        
+        final ResourceChangeStatistics current = statistics;
+        final long now = System.currentTimeMillis();
+        for (ResourceChange change : changes) {
+            current.record(change.getPath(), change.getType(), change.isExternal(), now);
+            if (change.isExternal()) {
+                external.increment();
+            }
+        }
+        total.add(changes.size());
+    }
+
+    ResourceChangeStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public TabularData getHottestSubtrees() throws OpenDataException {
+        CompositeType rowType = new CompositeType("SubtreeChanges", "Changes below a path prefix", ITEMS, ITEMS,
+            new OpenType<?>[] { SimpleType.STRING, SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG });
+        TabularDataSupport table = new TabularDataSupport(
+            new TabularType("HottestSubtrees", "Subtrees with the most changes", rowType, new String[] { "subtree" }));
+        long now = System.currentTimeMillis();
+        for (ResourceChangeStatistics.Subtree subtree : statistics.getHottest(hottestCount, now)) {
+            table.put(new CompositeDataSupport(rowType, ITEMS, new Object[] {
+                subtree.getPrefix(), subtree.getRate(now), subtree.getTotal(),
+                subtree.getCount(ChangeType.ADDED), subtree.getCount(ChangeType.CHANGED),
+                subtree.getCount(ChangeType.REMOVED), subtree.getExternalCount() }));
+        }
+        return table;
+    }
+
+    @Override
+    public long getChangeCount() {
+        return total.sum();
+    }
+
+    @Override
+    public long getExternalChangeCount() {
+        return external.sum();
+    }
+
+    @Override
+    public double getChangeRate() {
+        long now = System.currentTimeMillis();
+        double rate = 0;
+        for (ResourceChangeStatistics.Subtree subtree : statistics.getHottest(Integer.MAX_VALUE, now)) {
+            rate += subtree.getRate(now);
+        }
+        return rate;
+    }
+
+    @Override
+    public int getSubtreeCount() {
+        return statistics.getSubtreeCount();
     }
-}
 
+    @Override
+    public void resetStatistics() {
+        statistics.reset();
+        total.reset();
+        external.reset();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX view of the resource change statistics of {@link SimpleResourceListener}.
+ * Rates are changes per second over the last minute.
+ */
+public interface SimpleResourceListenerMBean {
+
+    /**
+     * @return Counts and rate of the subtrees with the most changes in the last minute
+     */
+    TabularData getHottestSubtrees() throws OpenDataException;
+
+    long getChangeCount();
+
+    long getExternalChangeCount();
+
+    double getChangeRate();
+
+    int getSubtreeCount();
+
+    /**
+     * Clears all counts.
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,452 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Gauge;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Instrumentation of draft enrichment: event outcomes, stage latencies, bytes parsed, the
+ * backlog of the queues feeding it and the statistics its components keep themselves.
+ * <p>
+ * Registered as an MBean through the JMX whiteboard. Outcome and byte counts are also
+ * published as Sling metrics counters when the metrics service is available. Stage latencies
+ * are kept only in lock-free {@link LatencyHistogram}s; their count, percentiles and maximum
+ * are published as gauges, like the backlog and component statistics, which are read only
+ * when the metrics are reported. Recording only updates counters and does not allocate.
+ */
+@Component(
+    service = { DraftEnrichmentMetrics.class, DraftEnrichmentMetricsMBean.class },
+    property = {
+        "jmx.objectname=com.mycompany.aem:type=DraftEnrichmentMetrics"
+    }
+)
+public class DraftEnrichmentMetrics implements DraftEnrichmentMetricsMBean {
+
+    /** Outcome of a draft change event. */
+    public enum Outcome {
+        NOT_A_DRAFT, ENRICHED, UNCHANGED, FAILED
+    }
+
+    /** Timed stage of enriching a draft. */
+    public enum Stage {
+        /** Resolving the changed resource and checking it is a draft. */
+        RESOLVE,
+        /** Locating the draft data and opening it. */
+        READ,
+        /** Extracting fields from the draft data. */
+        PARSE,
+        /** Committing enrichment changes. */
+        COMMIT
+    }
+
+    /** Statistic kept by a component of draft enrichment and read when reported. */
+    public enum Statistic {
+        /** Drafts extracted using the remembered plan of their form. */
+        PLAN_CACHE_HITS("planCache.hits"),
+        /** Drafts of a form without a matching plan. */
+        PLAN_CACHE_MISSES("planCache.misses"),
+        /** Share of submitted changes merged into one already queued, between 0 and 1. */
+        COALESCE_RATIO("queue.coalesceRatio"),
+        /** Change events dropped because enrichment caused them. */
+        SUPPRESSED_CHANGES("events.suppressed"),
+        /** Change events left to the instance owning the draft. */
+        DELEGATED_CHANGES("events.delegated"),
+        /** Share of enrichments that skipped reading unchanged draft data, between 0 and 1. */
+        PAYLOAD_SKIP_RATE("payload.skipRate"),
+        /** Oversized payloads scanned in degraded mode. */
+        DEGRADED_PARSES("parse.degraded"),
+        /** Bytes of draft data currently being parsed. */
+        IN_FLIGHT_PARSE_BYTES("parse.inFlightBytes"),
+        /** Milliseconds since drafts were last known to be reconciled, -1 before the first run. */
+        RECONCILIATION_LAG("reconciliation.lagMillis"),
+        /** Drafts per second checked by the last reconciliation run. */
+        RECONCILIATION_CATCH_UP_RATE("reconciliation.catchUpRate");
+
+        private final String metricName;
+
+        Statistic(String metricName) {
+            this.metricName = metricName;
+        }
+
+        /**
+         * @return The name of the gauge, without the common prefix
+         */
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private static final String METRIC_PREFIX = "my65site.draftEnrichment.";
+    private static final Long NO_VALUE = 0L;
+
+    private final LongAdder[] outcomes = newAdders(Outcome.values().length);
+    private final LatencyHistogram[] latencies = newHistograms(Stage.values().length);
+    private final LongAdder bytesParsed = new LongAdder();
+    private final Map<String, IntSupplier> backlogs = new ConcurrentHashMap<>();
+    private final Map<Statistic, Supplier<? extends Number>> statistics = new ConcurrentHashMap<>();
+    private final List<ServiceRegistration<Gauge>> gauges = new ArrayList<>();
+
+    private volatile Counter[] outcomeCounters;
+    private volatile Counter bytesCounter;
+
+    @Activate
+    protected void activate(BundleContext bundleContext) {
+        registerGauge(bundleContext, "backlog", this::getBacklog);
+        for (Statistic statistic : Statistic.values()) {
+            registerGauge(bundleContext, statistic.getMetricName(), () -> getStatistic(statistic));
+        }
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = getLatency(stage);
+            String prefix = "latency." + stage.name() + ".";
+            registerGauge(bundleContext, prefix + "count", latency::getCount);
+            registerGauge(bundleContext, prefix + "p50Micros", () -> latency.getPercentileMicros(50));
+            registerGauge(bundleContext, prefix + "p99Micros", () -> latency.getPercentileMicros(99));
+            registerGauge(bundleContext, prefix + "maxMicros", latency::getMaxMicros);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        for (ServiceRegistration<Gauge> gauge : gauges) {
+            gauge.unregister();
+        }
+        gauges.clear();
+    }
+
+    private void registerGauge(BundleContext bundleContext, String name, Gauge<? extends Number> gauge) {
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Gauge.NAME, METRIC_PREFIX + name);
+        gauges.add(bundleContext.registerService(Gauge.class, gauge, properties));
+    }
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindMetricsService(MetricsService metricsService) {
+        Counter[] counters = new Counter[Outcome.values().length];
+        for (Outcome outcome : Outcome.values()) {
+            counters[outcome.ordinal()] = metricsService.counter(METRIC_PREFIX + "events." + outcome.name());
+        }
+        bytesCounter = metricsService.counter(METRIC_PREFIX + "bytesParsed");
+        outcomeCounters = counters;
+    }
+
+    protected void unbindMetricsService(MetricsService metricsService) {
+        outcomeCounters = null;
+        bytesCounter = null;
+    }
+
+    /**
+     * Counts the outcome of a draft change event.
+     */
+    public void recordOutcome(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+        Counter[] counters = outcomeCounters;
+        if (counters != null) {
+            counters[outcome.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param stage The stage
+     * @param nanos The time taken, in nanoseconds
+     */
+    public void recordLatency(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts draft data consumed by the parser; characters for string data.
+     */
+    public void recordBytesParsed(long bytes) {
+        bytesParsed.add(bytes);
+        Counter counter = bytesCounter;
+        if (counter != null) {
+            counter.increment(bytes);
+        }
+    }
+
+    /**
+     * Adds a source to the reported backlog, replacing any source of the same name.
+     *
+     * @param name The name of the queue
+     * @param depth Supplies the current number of waiting items
+     */
+    public void registerBacklog(String name, IntSupplier depth) {
+        backlogs.put(name, depth);
+    }
+
+    /**
+     * Removes a source from the reported backlog.
+     */
+    public void unregisterBacklog(String name) {
+        backlogs.remove(name);
+    }
+
+    /**
+     * Adds the source of a statistic, replacing any previous source.
+     *
+     * @param statistic The statistic
+     * @param value Supplies the current value
+     */
+    public void registerStatistic(Statistic statistic, Supplier<? extends Number> value) {
+        statistics.put(statistic, value);
+    }
+
+    /**
+     * Removes the source of a statistic, which then reads as zero.
+     */
+    public void unregisterStatistic(Statistic statistic) {
+        statistics.remove(statistic);
+    }
+
+    /**
+     * @return The current value of a statistic, zero if it has no source
+     */
+    public Number getStatistic(Statistic statistic) {
+        Supplier<? extends Number> value = statistics.get(statistic);
+        return value != null ? value.get() : NO_VALUE;
+    }
+
+    /**
+     * @return The latency histogram of a stage
+     */
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    /**
+     * @return The number of events with an outcome
+     */
+    public long getCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    @Override
+    public long getNotADraftCount() {
+        return getCount(Outcome.NOT_A_DRAFT);
+    }
+
+    @Override
+    public long getEnrichedCount() {
+        return getCount(Outcome.ENRICHED);
+    }
+
+    @Override
+    public long getUnchangedCount() {
+        return getCount(Outcome.UNCHANGED);
+    }
+
+    @Override
+    public long getFailedCount() {
+        return getCount(Outcome.FAILED);
+    }
+
+    @Override
+    public long getBytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    @Override
+    public int getBacklog() {
+        int backlog = 0;
+        for (IntSupplier depth : backlogs.values()) {
+            backlog += depth.getAsInt();
+        }
+        return backlog;
+    }
+
+    @Override
+    public long getPlanCacheHitCount() {
+        return getStatistic(Statistic.PLAN_CACHE_HITS).longValue();
+    }
+
+    @Override
+    public long getPlanCacheMissCount() {
+        return getStatistic(Statistic.PLAN_CACHE_MISSES).longValue();
+    }
+
+    @Override
+    public double getCoalesceRatio() {
+        return getStatistic(Statistic.COALESCE_RATIO).doubleValue();
+    }
+
+    @Override
+    public long getSuppressedChangeCount() {
+        return getStatistic(Statistic.SUPPRESSED_CHANGES).longValue();
+    }
+
+    @Override
+    public long getDelegatedChangeCount() {
+        return getStatistic(Statistic.DELEGATED_CHANGES).longValue();
+    }
+
+    @Override
+    public double getPayloadSkipRate() {
+        return getStatistic(Statistic.PAYLOAD_SKIP_RATE).doubleValue();
+    }
+
+    @Override
+    public long getDegradedParseCount() {
+        return getStatistic(Statistic.DEGRADED_PARSES).longValue();
+    }
+
+    @Override
+    public long getInFlightParseBytes() {
+        return getStatistic(Statistic.IN_FLIGHT_PARSE_BYTES).longValue();
+    }
+
+    @Override
+    public long getReconciliationLagMillis() {
+        return getStatistic(Statistic.RECONCILIATION_LAG).longValue();
+    }
+
+    @Override
+    public double getReconciliationCatchUpRate() {
+        return getStatistic(Statistic.RECONCILIATION_CATCH_UP_RATE).doubleValue();
+    }
+
+    @Override
+    public long getResolveCount() {
+        return getLatency(Stage.RESOLVE).getCount();
+    }
+
+    @Override
+    public long getResolveLatencyP50() {
+        return getLatency(Stage.RESOLVE).getPercentileMicros(50);
+    }
+
+    @Override
+    public long getResolveLatencyP99() {
+        return getLatency(Stage.RESOLVE).getPercentileMicros(99);
+    }
+
+    @Override
+    public long getResolveLatencyMax() {
+        return getLatency(Stage.RESOLVE).getMaxMicros();
+    }
+
+    @Override
+    public long getReadCount() {
+        return getLatency(Stage.READ).getCount();
+    }
+
+    @Override
+    public long getReadLatencyP50() {
+        return getLatency(Stage.READ).getPercentileMicros(50);
+    }
+
+    @Override
+    public long getReadLatencyP99() {
+        return getLatency(Stage.READ).getPercentileMicros(99);
+    }
+
+    @Override
+    public long getReadLatencyMax() {
+        return getLatency(Stage.READ).getMaxMicros();
+    }
+
+    @Override
+    public long getParseCount() {
+        return getLatency(Stage.PARSE).getCount();
+    }
+
+    @Override
+    public long getParseLatencyP50() {
+        return getLatency(Stage.PARSE).getPercentileMicros(50);
+    }
+
+    @Override
+    public long getParseLatencyP99() {
+        return getLatency(Stage.PARSE).getPercentileMicros(99);
+    }
+
+    @Override
+    public long getParseLatencyMax() {
+        return getLatency(Stage.PARSE).getMaxMicros();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return getLatency(Stage.COMMIT).getCount();
+    }
+
+    @Override
+    public long getCommitLatencyP50() {
+        return getLatency(Stage.COMMIT).getPercentileMicros(50);
+    }
+
+    @Override
+    public long getCommitLatencyP99() {
+        return getLatency(Stage.COMMIT).getPercentileMicros(99);
+    }
+
+    @Override
+    public long getCommitLatencyMax() {
+        return getLatency(Stage.COMMIT).getMaxMicros();
+    }
+
+    @Override
+    public void resetStatistics() {
+        for (LongAdder outcome : outcomes) {
+            outcome.reset();
+        }
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        bytesParsed.reset();
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static LatencyHistogram[] newHistograms(int size) {
+        LatencyHistogram[] histograms = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
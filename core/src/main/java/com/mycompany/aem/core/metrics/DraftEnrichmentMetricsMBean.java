@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+/**
+ * JMX view of {@link DraftEnrichmentMetrics}. Latencies are in microseconds.
+ */
+public interface DraftEnrichmentMetricsMBean {
+
+    long getNotADraftCount();
+
+    long getEnrichedCount();
+
+    long getUnchangedCount();
+
+    long getFailedCount();
+
+    long getBytesParsed();
+
+    int getBacklog();
+
+    long getPlanCacheHitCount();
+
+    long getPlanCacheMissCount();
+
+    double getCoalesceRatio();
+
+    long getSuppressedChangeCount();
+
+    long getDelegatedChangeCount();
+
+    double getPayloadSkipRate();
+
+    long getDegradedParseCount();
+
+    long getInFlightParseBytes();
+
+    long getReconciliationLagMillis();
+
+    double getReconciliationCatchUpRate();
+
+    long getResolveCount();
+
+    long getResolveLatencyP50();
+
+    long getResolveLatencyP99();
+
+    long getResolveLatencyMax();
+
+    long getReadCount();
+
+    long getReadLatencyP50();
+
+    long getReadLatencyP99();
+
+    long getReadLatencyMax();
+
+    long getParseCount();
+
+    long getParseLatencyP50();
+
+    long getParseLatencyP99();
+
+    long getParseLatencyMax();
+
+    long getCommitCount();
+
+    long getCommitLatencyP50();
+
+    long getCommitLatencyP99();
+
+    long getCommitLatencyMax();
+
+    /**
+     * Clears the outcome counts, bytes parsed and latencies. The statistics kept by other
+     * components are not reset.
+     */
+    void resetStatistics();
+}
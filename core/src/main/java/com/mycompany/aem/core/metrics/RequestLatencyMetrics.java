@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request latencies per resource type, selectors and extension, recorded by the request
+ * filter and reported as percentiles.
+ * <p>
+ * Each request type has its own {@link LatencyHistogram}, so recording is lock-free and
+ * the memory per type is fixed. The histogram of a known type is looked up with a probe
+ * reused per thread, so recording does not allocate either. Selectors come from the request URL, so the number of
+ * types is capped. Requests of new types beyond the cap are recorded under
+ * {@link #OVERFLOW_TYPE}.
+ */
+@Component(
+    service = { RequestLatencyMetrics.class, RequestLatencyMetricsMBean.class },
+    property = {
+        "jmx.objectname=com.mycompany.aem:type=RequestLatencyMetrics"
+    }
+)
+@Designate(ocd = RequestLatencyMetrics.Config.class)
+public class RequestLatencyMetrics implements RequestLatencyMetricsMBean {
+
+    /** Request type under which requests are recorded once the cap is reached. */
+    public static final RequestType OVERFLOW_TYPE = new RequestType("(other)", null, null);
+
+    private static final String[] ITEMS = { "type", "count", "meanMicros", "p50", "p95", "p99", "max" };
+
+    @ObjectClassDefinition(name = "My65site Request Latency Metrics",
+                           description = "Request latency histograms per resource type, selectors and extension")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Maximum request types",
+                             description = "Number of distinct request types tracked; further types are "
+                                 + "recorded together")
+        int max_request_types() default 500;
+    }
+
+    private final Map<RequestType, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final LongAdder overflow = new LongAdder();
+    private final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+
+    private volatile int maxRequestTypes = 500;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxRequestTypes = Math.max(1, config.max_request_types());
+    }
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param resourceType The type of the resource the request was resolved to, or null
+     * @param selectors The selector string, or null
+     * @param extension The extension, or null
+     * @param nanos The time taken, in nanoseconds
+     */
+    public void record(String resourceType, String selectors, String extension, long nanos) {
+        Probe probe = probes.get().set(resourceType, selectors, extension);
+        LatencyHistogram histogram = histograms.get(probe);
+        probe.set(null, null, null);
+        if (histogram == null) {
+            // Only a type that gets its own histogram is worth a key of its own
+            RequestType type = OVERFLOW_TYPE;
+            if (histograms.size() < maxRequestTypes) {
+                type = new RequestType(resourceType, selectors, extension);
+            } else {
+                overflow.increment();
+            }
+            histogram = histograms.computeIfAbsent(type, t -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @return Latencies per request type, most frequent first
+     */
+    public List<Map.Entry<RequestType, LatencyHistogram>> getHistograms() {
+        List<Map.Entry<RequestType, LatencyHistogram>> entries = new ArrayList<>(histograms.entrySet());
+        entries.sort(Comparator.comparingLong(
+            (Map.Entry<RequestType, LatencyHistogram> e) -> e.getValue().getCount()).reversed());
+        return entries;
+    }
+
+    /**
+     * @return The latency histogram of a request type, or null if none was recorded
+     */
+    public LatencyHistogram getHistogram(RequestType type) {
+        return histograms.get(type);
+    }
+
+    @Override
+    public TabularData getLatencies() throws OpenDataException {
+        CompositeType rowType = new CompositeType("RequestLatency", "Latency of a request type", ITEMS, ITEMS,
+            new OpenType<?>[] { SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG });
+        TabularDataSupport table = new TabularDataSupport(
+            new TabularType("RequestLatencies", "Latency per request type", rowType, new String[] { "type" }));
+        for (Map.Entry<RequestType, LatencyHistogram> entry : getHistograms()) {
+            LatencyHistogram histogram = entry.getValue();
+            table.put(new CompositeDataSupport(rowType, ITEMS, new Object[] {
+                entry.getKey().toString(), histogram.getCount(), histogram.getMeanMicros(),
+                histogram.getPercentileMicros(50), histogram.getPercentileMicros(95),
+                histogram.getPercentileMicros(99), histogram.getMaxMicros() }));
+        }
+        return table;
+    }
+
+    @Override
+    public int getRequestTypeCount() {
+        return histograms.size();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflow.sum();
+    }
+
+    @Override
+    public void resetStatistics() {
+        histograms.clear();
+        overflow.reset();
+    }
+
+    /**
+     * Resource type, selectors and extension of a request.
+     */
+    public static final class RequestType {
+
+        private final String resourceType;
+        private final String selectors;
+        private final String extension;
+
+        public RequestType(String resourceType, String selectors, String extension) {
+            this.resourceType = resourceType;
+            this.selectors = selectors;
+            this.extension = extension;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public String getSelectors() {
+            return selectors;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RequestType)) {
+                return false;
+            }
+            RequestType other = (RequestType) o;
+            return Objects.equals(resourceType, other.resourceType) && Objects.equals(selectors, other.selectors)
+                && Objects.equals(extension, other.extension);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(resourceType, selectors, extension);
+        }
+
+        static int hash(String resourceType, String selectors, String extension) {
+            // Objects.hash would allocate an array on every request
+            return 31 * (31 * Objects.hashCode(resourceType) + Objects.hashCode(selectors))
+                + Objects.hashCode(extension);
+        }
+
+        /**
+         * @return The resource type followed by the selectors and extension, such as
+         *         {@code my65site/components/page:print.html}
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(resourceType != null ? resourceType : "(none)");
+            if (selectors != null || extension != null) {
+                text.append(':');
+                if (selectors != null) {
+                    text.append(selectors);
+                    if (extension != null) {
+                        text.append('.');
+                    }
+                }
+                if (extension != null) {
+                    text.append(extension);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Mutable stand-in for a {@link RequestType} when looking up a histogram. It hashes like
+     * the request type and equals one with the same fields, which is all that
+     * {@link ConcurrentHashMap#get} needs; it is never stored in the map.
+     */
+    private static final class Probe {
+
+        private String resourceType;
+        private String selectors;
+        private String extension;
+
+        Probe set(String resourceType, String selectors, String extension) {
+            this.resourceType = resourceType;
+            this.selectors = selectors;
+            this.extension = extension;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestType)) {
+                return false;
+            }
+            RequestType other = (RequestType) o;
+            return Objects.equals(resourceType, other.getResourceType())
+                && Objects.equals(selectors, other.getSelectors())
+                && Objects.equals(extension, other.getExtension());
+        }
+
+        @Override
+        public int hashCode() {
+            return RequestType.hash(resourceType, selectors, extension);
+        }
+    }
+}
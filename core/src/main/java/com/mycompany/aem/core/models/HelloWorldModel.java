@@ -17,10 +17,7 @@ package com.mycompany.aem.core.models;
 
 import static org.apache.sling.api.resource.ResourceResolver.PROPERTY_RESOURCE_TYPE;
 
-import javax.annotation.PostConstruct;
-
 import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.annotations.Default;
 import org.apache.sling.models.annotations.Model;
 import org.apache.sling.models.annotations.injectorspecific.InjectionStrategy;
@@ -29,7 +26,7 @@ import org.apache.sling.models.annotations.injectorspecific.SlingObject;
 import org.apache.sling.models.annotations.injectorspecific.ValueMapValue;
 
 import com.day.cq.wcm.api.Page;
-import com.day.cq.wcm.api.PageManager;
+import com.mycompany.aem.core.services.PageContextCache;
 
 import java.util.Optional;
 
@@ -42,16 +39,17 @@ public class HelloWorldModel {
 
     @SlingObject
     private Resource currentResource;
-    @SlingObject
-    private ResourceResolver resourceResolver;
+    @OSGiService
+    private PageContextCache pageContextCache;
 
     private String message;
 
-    @PostConstruct
+    /**
+     * Builds the message. Called on first access rather than on construction, so that
+     * models whose output is not rendered do not look up their page.
+     */
     protected void init() {
-        PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
-        String currentPagePath = Optional.ofNullable(pageManager)
-                .map(pm -> pm.getContainingPage(currentResource))
+        String currentPagePath = Optional.ofNullable(pageContextCache.getContainingPage(currentResource))
                 .map(Page::getPath).orElse("");
 
         message = "Hello World!\n"
@@ -60,6 +58,9 @@ public class HelloWorldModel {
     }
 
     public String getMessage() {
+        if (message == null) {
+            init();
+        }
         return message;
     }
 
@@ -0,0 +1,395 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import com.mycompany.aem.core.services.DraftEnrichmentService;
+import com.mycompany.aem.core.utils.RateLimiter;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enriches drafts saved before the enrichment listener was installed.
+ * <p>
+ * Each run walks the draft metadata nodes in name order, a page at a time, and enriches
+ * every page in parallel. Each worker thread has its own service resource resolver. After
+ * a page completes, the path of its last draft is stored as the cursor in the repository,
+ * so an interrupted backfill resumes after that draft on the next run. The paths of drafts
+ * that failed are stored with the cursor and retried first by the next run. Once all drafts
+ * are visited and none of them failed, the backfill is marked completed and later runs do
+ * nothing; delete the checkpoint node to start over.
+ */
+@Designate(ocd = DraftBackfillJob.Config.class)
+@Component(service = Runnable.class)
+public class DraftBackfillJob implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftBackfillJob.class);
+
+    private static final String SUBSERVICE = "draftEnrichmentService";
+    private static final String DRAFTS_ROOT = "/content/forms/fp";
+
+    static final String CURSOR_PROPERTY = "cursor";
+    static final String COMPLETED_PROPERTY = "completed";
+    static final String FAILED_PROPERTY = "failed";
+
+    // Failed drafts remembered for retry; a run stops rather than forget more
+    static final int MAX_FAILED_DRAFTS = 1000;
+
+    @ObjectClassDefinition(name = "My65site Draft Backfill",
+                           description = "Enriches existing drafts, resuming from a checkpoint")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Enabled",
+                             description = "Whether scheduled runs do anything")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Cron-job expression")
+        String scheduler_expression() default "0 0 2 * * ?";
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+
+        @AttributeDefinition(name = "Run on",
+                             description = "Cluster instances to run on, LEADER to run on one instance only")
+        String scheduler_runOn() default "LEADER";
+
+        @AttributeDefinition(name = "Worker count",
+                             description = "Number of threads enriching drafts in parallel")
+        int worker_count() default 4;
+
+        @AttributeDefinition(name = "Page size",
+                             description = "Number of drafts enriched between two checkpoints")
+        int page_size() default 200;
+
+        @AttributeDefinition(name = "Max commits per second",
+                             description = "Upper bound on enrichment commits of all workers, 0 for no limit")
+        double max_commits_per_second() default 20;
+
+        @AttributeDefinition(name = "Dry run",
+                             description = "Only determine what would be enriched and report the throughput, "
+                                 + "without writing drafts or the checkpoint")
+        boolean dry_run() default false;
+
+        @AttributeDefinition(name = "Checkpoint path",
+                             description = "Node storing the cursor of the backfill")
+        String checkpoint_path() default "/var/my65site/draft-backfill";
+    }
+
+    @Reference
+    private DraftEnrichmentService draftEnrichmentService;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private Config config;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    private final LongAdder visited = new LongAdder();
+    private final LongAdder enriched = new LongAdder();
+    private final LongAdder upToDate = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Activate
+    protected void activate(final Config config) {
+        this.config = config;
+        stopped = false;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        if (!config.enabled()) {
+            LOG.debug("Draft backfill is disabled");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            LOG.info("Draft backfill is already running");
+            return;
+        }
+        try (ResourceResolver resolver = getServiceResolver()) {
+            backfill(resolver);
+        } catch (LoginException e) {
+            LOG.error("Failed to get service resource resolver. Make sure the service user is configured.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Draft backfill interrupted");
+        } catch (Exception e) {
+            LOG.error("Error during draft backfill", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void backfill(ResourceResolver resolver) throws InterruptedException, PersistenceException {
+        boolean dryRun = config.dry_run();
+        Resource checkpoint = resolver.getResource(config.checkpoint_path());
+        if (checkpoint != null && checkpoint.getValueMap().get(COMPLETED_PROPERTY, false)) {
+            LOG.debug("Draft backfill already completed, see {}", config.checkpoint_path());
+            return;
+        }
+        String cursor = checkpoint != null ? checkpoint.getValueMap().get(CURSOR_PROPERTY, String.class) : null;
+        List<String> retry = checkpoint != null
+            ? Arrays.asList(checkpoint.getValueMap().get(FAILED_PROPERTY, new String[0]))
+            : Collections.emptyList();
+        LOG.info("Draft backfill {}starting after {}, retrying {} failed draft(s)", dryRun ? "dry run " : "",
+            cursor != null ? cursor : "the beginning", retry.size());
+
+        int workers = Math.max(1, config.worker_count());
+        int pageSize = Math.max(1, config.page_size());
+        RateLimiter throttle = new RateLimiter(config.max_commits_per_second());
+        Queue<ResourceResolver> resolvers = new ConcurrentLinkedQueue<>();
+        ThreadLocal<ResourceResolver> workerResolver = new ThreadLocal<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "draft-backfill-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        long startVisited = visited.sum();
+        Set<String> failures = new LinkedHashSet<>(retry);
+        boolean aborted = false;
+        try {
+            // Drafts that failed in earlier runs come first; they stay failed until they succeed
+            for (int from = 0; from < retry.size() && !stopped; from += pageSize) {
+                List<String> paths = retry.subList(from, Math.min(retry.size(), from + pageSize));
+                List<String> failedAgain = enrichPage(pool, paths, workerResolver, resolvers, throttle, dryRun);
+                failures.removeAll(paths);
+                failures.addAll(failedAgain);
+                if (!dryRun) {
+                    saveCheckpoint(resolver, cursor, failures, false);
+                }
+            }
+
+            DraftTraversal drafts = new DraftTraversal(resolver, DRAFTS_ROOT, cursor);
+            List<String> paths = new ArrayList<>(pageSize);
+            while (!stopped && drafts.hasNext()) {
+                paths.clear();
+                while (paths.size() < pageSize && drafts.hasNext()) {
+                    paths.add(drafts.next());
+                }
+                List<String> failed = enrichPage(pool, paths, workerResolver, resolvers, throttle, dryRun);
+                if (failures.size() + failed.size() > MAX_FAILED_DRAFTS) {
+                    // The cursor stays before this page, so that none of its failures are lost
+                    LOG.error("Draft backfill stopped after {}: more than {} drafts failed, see the log above",
+                        cursor, MAX_FAILED_DRAFTS);
+                    aborted = true;
+                    break;
+                }
+                failures.addAll(failed);
+                cursor = paths.get(paths.size() - 1);
+                if (!dryRun) {
+                    saveCheckpoint(resolver, cursor, failures, false);
+                }
+                logProgress(start, startVisited, cursor);
+            }
+            if (!stopped && !aborted && !dryRun) {
+                saveCheckpoint(resolver, cursor, failures, failures.isEmpty());
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+            for (ResourceResolver worker = resolvers.poll(); worker != null; worker = resolvers.poll()) {
+                worker.close();
+            }
+        }
+        LOG.info("Draft backfill {}{}: {} visited, {} {}, {} up to date, {} failed, {} to retry",
+            dryRun ? "dry run " : "", stopped || aborted ? "stopped" : "finished", visited.sum() - startVisited,
+            enriched.sum(), dryRun ? "to enrich" : "enriched", upToDate.sum(), failed.sum(), failures.size());
+    }
+
+    /**
+     * Enriches a page of drafts in parallel.
+     *
+     * @return The paths of the drafts that failed
+     */
+    private List<String> enrichPage(ExecutorService pool, List<String> paths,
+                                    ThreadLocal<ResourceResolver> workerResolver, Queue<ResourceResolver> resolvers,
+                                    RateLimiter throttle, boolean dryRun) throws InterruptedException {
+        List<Callable<Boolean>> page = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            page.add(() -> enrich(path, workerResolver, resolvers, throttle, dryRun));
+        }
+        List<Future<Boolean>> results = pool.invokeAll(page);
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (!awaitDraft(results.get(i), paths.get(i))) {
+                failures.add(paths.get(i));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Waits for the enrichment of a draft, counting and logging it as failed if it threw.
+     *
+     * @return false if the draft failed
+     */
+    private boolean awaitDraft(Future<Boolean> done, String path) throws InterruptedException {
+        try {
+            return done.get();
+        } catch (CancellationException e) {
+            throw new InterruptedException("Draft backfill page cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            failed.increment();
+            LOG.error("Draft backfill failed to enrich {}", path, e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the draft failed, true if it is enriched, up to date or no draft
+     */
+    private boolean enrich(String path, ThreadLocal<ResourceResolver> workerResolver, Queue<ResourceResolver> resolvers,
+                           RateLimiter throttle, boolean dryRun) throws InterruptedException {
+        visited.increment();
+        try {
+            ResourceResolver resolver = workerResolver.get();
+            if (resolver == null) {
+                resolver = getServiceResolver();
+                workerResolver.set(resolver);
+                resolvers.add(resolver);
+            } else {
+                resolver.refresh();
+            }
+            Resource resource = resolver.getResource(path);
+            if (resource == null || !draftEnrichmentService.isDraftNode(resource)) {
+                return true;
+            }
+            Map<String, Object> changes = draftEnrichmentService.computeEnrichment(resource);
+            if (changes == null) {
+                failed.increment();
+                return false;
+            } else if (changes.isEmpty()) {
+                upToDate.increment();
+            } else if (dryRun) {
+                enriched.increment();
+                LOG.debug("Draft backfill would enrich {} with {}", path, changes.keySet());
+            } else {
+                throttle.acquire();
+                if (draftEnrichmentService.applyEnrichment(resource, changes)) {
+                    enriched.increment();
+                } else {
+                    failed.increment();
+                    resolver.revert();
+                    return false;
+                }
+            }
+            return true;
+        } catch (LoginException e) {
+            failed.increment();
+            LOG.error("Failed to get service resource resolver for draft backfill of {}", path, e);
+            return false;
+        }
+    }
+
+    private void saveCheckpoint(ResourceResolver resolver, String cursor, Set<String> failures, boolean completed)
+            throws PersistenceException {
+        Resource checkpoint = ResourceUtil.getOrCreateResource(resolver, config.checkpoint_path(),
+            Collections.singletonMap("jcr:primaryType", (Object) "nt:unstructured"), "sling:Folder", false);
+        ModifiableValueMap properties = checkpoint.adaptTo(ModifiableValueMap.class);
+        if (cursor != null) {
+            properties.put(CURSOR_PROPERTY, cursor);
+        }
+        properties.put(FAILED_PROPERTY, failures.toArray(new String[0]));
+        properties.put(COMPLETED_PROPERTY, completed);
+        properties.put("lastModified", Calendar.getInstance());
+        resolver.commit();
+    }
+
+    private void logProgress(long start, long startVisited, String cursor) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        LOG.info("Draft backfill at {}: {} drafts in {} s ({} per second)", cursor,
+            visited.sum() - startVisited, Math.round(seconds), Math.round((visited.sum() - startVisited) / seconds));
+    }
+
+    private ResourceResolver getServiceResolver() throws LoginException {
+        return resolverFactory.getServiceResourceResolver(
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+
+    /**
+     * @return Number of drafts visited by all runs
+     */
+    public long getVisitedCount() {
+        return visited.sum();
+    }
+
+    /**
+     * @return Number of drafts enriched, or found to need enrichment in dry runs
+     */
+    public long getEnrichedCount() {
+        return enriched.sum();
+    }
+
+    /**
+     * @return Number of drafts that were already enriched
+     */
+    public long getUpToDateCount() {
+        return upToDate.sum();
+    }
+
+    /**
+     * @return Number of drafts that could not be enriched
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+}
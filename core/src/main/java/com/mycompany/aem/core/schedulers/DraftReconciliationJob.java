@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Statistic;
+import com.mycompany.aem.core.services.DraftEnrichmentService;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enriches drafts whose change events were missed, for instance because the observation
+ * queue overflowed, the bundle was restarting or the change was made on another cluster node.
+ * <p>
+ * Each run queries the drafts modified since the high-water mark of the previous run, in
+ * modification and then path order, so its cost depends on the number of recently saved
+ * drafts only. Drafts that are already enriched are recognised from their data digest
+ * without parsing. The high-water mark advances to the modification date and path of the
+ * last draft processed and is stored in the repository; a run that hits the per-run limit
+ * is continued by the next one, after that draft.
+ */
+@Designate(ocd = DraftReconciliationJob.Config.class)
+@Component(service = Runnable.class)
+public class DraftReconciliationJob implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftReconciliationJob.class);
+
+    private static final String SUBSERVICE = "draftEnrichmentService";
+    private static final String DRAFTS_ROOT = "/content/forms/fp";
+    private static final String LAST_MODIFIED = "jcr:lastModified";
+    private static final String PATH = "jcr:path";
+    private static final DateTimeFormatter JCR_DATE =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    static final String HIGH_WATER_MARK_PROPERTY = "highWaterMark";
+    static final String HIGH_WATER_MARK_PATH_PROPERTY = "highWaterMarkPath";
+    static final String CAUGHT_UP_PROPERTY = "caughtUp";
+
+    @ObjectClassDefinition(name = "My65site Draft Reconciliation",
+                           description = "Periodically enriches drafts modified since the last run")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Cron-job expression")
+        String scheduler_expression() default "0 */5 * * * ?";
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+
+        @AttributeDefinition(name = "Run on",
+                             description = "Cluster instances to run on, LEADER to run on one instance only")
+        String scheduler_runOn() default "LEADER";
+
+        @AttributeDefinition(name = "Overlap (ms)",
+                             description = "How far before the high-water mark each query starts, to cover "
+                                 + "changes that became visible late")
+        long overlap_ms() default 60000;
+
+        @AttributeDefinition(name = "Initial lookback (ms)",
+                             description = "How far back the first run looks; older drafts are left to the backfill")
+        long initial_lookback_ms() default 86400000;
+
+        @AttributeDefinition(name = "Max drafts per run",
+                             description = "The next run continues where a run hitting this limit stopped")
+        int max_drafts_per_run() default 1000;
+
+        @AttributeDefinition(name = "State path",
+                             description = "Node storing the high-water mark")
+        String state_path() default "/var/my65site/draft-reconciliation";
+    }
+
+    @Reference
+    private DraftEnrichmentService draftEnrichmentService;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private Config config;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder enriched = new LongAdder();
+    private volatile long reconciledUntil = -1;
+    private volatile long lastRunCount;
+    private volatile long lastRunNanos;
+
+    @Activate
+    protected void activate(final Config config) {
+        this.config = config;
+    }
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.registerStatistic(Statistic.RECONCILIATION_LAG, this::getLagMillis);
+        metrics.registerStatistic(Statistic.RECONCILIATION_CATCH_UP_RATE, this::getCatchUpRate);
+    }
+
+    protected void unbindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.unregisterStatistic(Statistic.RECONCILIATION_LAG);
+        metrics.unregisterStatistic(Statistic.RECONCILIATION_CATCH_UP_RATE);
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            LOG.info("Draft reconciliation is already running");
+            return;
+        }
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            reconcile(resolver);
+        } catch (LoginException e) {
+            LOG.error("Failed to get service resource resolver. Make sure the service user is configured.", e);
+        } catch (Exception e) {
+            LOG.error("Error during draft reconciliation", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void reconcile(ResourceResolver resolver) throws PersistenceException {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Resource state = resolver.getResource(config.state_path());
+        Calendar stored = state != null ? state.getValueMap().get(HIGH_WATER_MARK_PROPERTY, Calendar.class) : null;
+        long mark = stored != null ? stored.getTimeInMillis() : now - config.initial_lookback_ms();
+        String markPath = stored != null
+            ? state.getValueMap().get(HIGH_WATER_MARK_PATH_PROPERTY, String.class)
+            : null;
+        // Continue right at the mark after a run that hit the limit, so that a burst larger than
+        // the limit within the overlap cannot hold the mark back. Drafts modified at the mark
+        // itself may not all have been checked, so they are queried again and the ones up to the
+        // path of the mark are passed over; otherwise more drafts modified within the same
+        // millisecond than the limit would be read again by every run
+        boolean caughtUp = state == null || state.getValueMap().get(CAUGHT_UP_PROPERTY, true);
+        long since = caughtUp ? mark - Math.max(0, config.overlap_ms()) : mark;
+        String after = caughtUp ? null : markPath;
+
+        int limit = Math.max(1, config.max_drafts_per_run());
+        int count = 0;
+        int enrichedCount = 0;
+        Iterator<Resource> drafts = resolver.findResources(buildQuery(since, !caughtUp), "JCR-SQL2");
+        while (count < limit && drafts.hasNext()) {
+            Resource draft = drafts.next();
+            Calendar lastModified = draft.getValueMap().get(LAST_MODIFIED, Calendar.class);
+            long modified = lastModified != null ? lastModified.getTimeInMillis() : Long.MIN_VALUE;
+            if (after != null && modified == since && draft.getPath().compareTo(after) <= 0) {
+                continue;
+            }
+            count++;
+            checked.increment();
+            if (modified >= mark) {
+                mark = modified;
+                markPath = draft.getPath();
+            }
+            if (!draftEnrichmentService.isDraftNode(draft)) {
+                continue;
+            }
+            Map<String, Object> changes = draftEnrichmentService.computeEnrichment(draft);
+            if (changes != null && !changes.isEmpty() && draftEnrichmentService.applyEnrichment(draft, changes)) {
+                enriched.increment();
+                enrichedCount++;
+                LOG.info("Reconciled draft that missed enrichment: {}", draft.getPath());
+            }
+        }
+        if (count == 0 && stored == null) {
+            mark = now;
+            markPath = null;
+        }
+        boolean caughtUpNow = count < limit;
+        saveHighWaterMark(resolver, mark, markPath, caughtUpNow);
+
+        // A run that did not hit the limit has seen every draft modified before it started,
+        // even if the mark did not move because none was
+        reconciledUntil = caughtUpNow ? now : mark;
+        lastRunCount = count;
+        lastRunNanos = System.nanoTime() - start;
+        LOG.info("Draft reconciliation checked {} draft(s) modified since {}, enriched {}, lag {} ms",
+            count, formatDate(since), enrichedCount, getLagMillis());
+    }
+
+    /**
+     * @param since Start of the modification window, in epoch milliseconds
+     * @param inclusive Whether drafts modified at the start itself are included
+     * @return The query for drafts modified after the given time, oldest first and by path
+     *         within the same time
+     */
+    static String buildQuery(long since, boolean inclusive) {
+        return "SELECT * FROM [nt:unstructured] AS draft"
+            + " WHERE ISDESCENDANTNODE(draft, '" + DRAFTS_ROOT + "')"
+            + " AND draft.[nodeType] = 'fp:Draft'"
+            + " AND draft.[" + LAST_MODIFIED + "] " + (inclusive ? ">=" : ">")
+            + " CAST('" + formatDate(since) + "' AS DATE)"
+            + " ORDER BY draft.[" + LAST_MODIFIED + "], draft.[" + PATH + "]";
+    }
+
+    private static String formatDate(long millis) {
+        return JCR_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    private void saveHighWaterMark(ResourceResolver resolver, long mark, String markPath, boolean caughtUp)
+            throws PersistenceException {
+        Resource state = ResourceUtil.getOrCreateResource(resolver, config.state_path(),
+            Collections.singletonMap("jcr:primaryType", (Object) "nt:unstructured"), "sling:Folder", false);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mark);
+        ModifiableValueMap properties = state.adaptTo(ModifiableValueMap.class);
+        properties.put(HIGH_WATER_MARK_PROPERTY, calendar);
+        if (markPath != null) {
+            properties.put(HIGH_WATER_MARK_PATH_PROPERTY, markPath);
+        } else {
+            properties.remove(HIGH_WATER_MARK_PATH_PROPERTY);
+        }
+        properties.put(CAUGHT_UP_PROPERTY, caughtUp);
+        resolver.commit();
+    }
+
+    /**
+     * @return Milliseconds since the drafts were last known to be reconciled, or -1 before the
+     *         first run: since the start of the last run if it caught up, otherwise since its
+     *         high-water mark
+     */
+    public long getLagMillis() {
+        long until = reconciledUntil;
+        return until < 0 ? -1 : Math.max(0, System.currentTimeMillis() - until);
+    }
+
+    /**
+     * @return Drafts checked per second by the last run
+     */
+    public double getCatchUpRate() {
+        long nanos = lastRunNanos;
+        return nanos == 0 ? 0.0 : lastRunCount * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /**
+     * @return Number of drafts checked by all runs
+     */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /**
+     * @return Number of drafts that had missed enrichment
+     */
+    public long getEnrichedCount() {
+        return enriched.sum();
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import com.mycompany.aem.core.utils.RateLimiter;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes drafts that have not been saved for longer than their retention period.
+ * <p>
+ * Each run walks the draft metadata nodes in name order, like the backfill, and deletes an
+ * expired draft's metadata node together with its data node ({@code userdataID}) and the
+ * attachments listed in its {@code attachmentList} property, given as node names below the
+ * user's {@code drafts/attachments} folder or as paths. Apart from the metadata node, only
+ * nodes strictly below the {@code drafts/data} and {@code drafts/attachments} folders of the
+ * draft's user are deleted, never the folders themselves. Changes are committed every batch of drafts, paced to a
+ * maximum commit rate, together with the path of the last draft checked as the cursor, so
+ * an interrupted purge resumes after that draft. Once all drafts are checked the cursor is
+ * cleared and the next run starts over.
+ * <p>
+ * Runs do nothing during the pause windows, and a run reaching a pause window discards its
+ * uncommitted batch and stops.
+ * <p>
+ * The job logs in as its own service user, which may only remove nodes below
+ * {@code /content/forms/fp}.
+ */
+@Designate(ocd = DraftRetentionJob.Config.class)
+@Component(service = Runnable.class)
+public class DraftRetentionJob implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftRetentionJob.class);
+
+    private static final String SUBSERVICE = "draftRetention";
+    private static final String DRAFTS_ROOT = "/content/forms/fp";
+    private static final String METADATA_SEGMENT = "/drafts/metadata/";
+    private static final String DATA = "data/";
+    private static final String ATTACHMENTS = "attachments/";
+    private static final String LAST_MODIFIED = "jcr:lastModified";
+    private static final String FORM_PATH_PROPERTY = "formPath";
+    private static final String USER_DATA_ID_PROPERTY = "userdataID";
+    private static final String ATTACHMENT_LIST_PROPERTY = "attachmentList";
+
+    static final String CURSOR_PROPERTY = "cursor";
+    static final String LAST_COMPLETED_PROPERTY = "lastCompleted";
+
+    @ObjectClassDefinition(name = "My65site Draft Retention",
+                           description = "Deletes drafts that have not been saved for a configurable time")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Enabled",
+                             description = "Whether scheduled runs do anything")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Cron-job expression")
+        String scheduler_expression() default "0 0 * * * ?";
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+
+        @AttributeDefinition(name = "Run on",
+                             description = "Cluster instances to run on, LEADER to run on one instance only")
+        String scheduler_runOn() default "LEADER";
+
+        @AttributeDefinition(name = "Max age (days)",
+                             description = "Drafts not saved for longer than this are deleted, 0 to keep them")
+        int max_age_days() default 90;
+
+        @AttributeDefinition(name = "Form retention",
+                             description = "Entries of the form <form path>=<max age in days> for the drafts of "
+                                 + "the forms below a path, the longest matching path wins; 0 keeps the drafts")
+        String[] form_retention() default {};
+
+        @AttributeDefinition(name = "Batch size",
+                             description = "Number of drafts checked, and at most deleted, per commit")
+        int batch_size() default 50;
+
+        @AttributeDefinition(name = "Max commits per second",
+                             description = "Upper bound on purge commits, 0 for no limit")
+        double max_commits_per_second() default 2;
+
+        @AttributeDefinition(name = "Max drafts per run",
+                             description = "The next run continues where a run hitting this limit stopped")
+        int max_drafts_per_run() default 10000;
+
+        @AttributeDefinition(name = "Pause windows",
+                             description = "Local times of day as HH:mm-HH:mm during which no drafts are deleted")
+        String[] pause_windows() default { "07:00-20:00" };
+
+        @AttributeDefinition(name = "Dry run",
+                             description = "Only count the drafts that would be deleted, without deleting them "
+                                 + "or writing the cursor")
+        boolean dry_run() default false;
+
+        @AttributeDefinition(name = "Checkpoint path",
+                             description = "Node storing the cursor of the purge")
+        String checkpoint_path() default "/var/my65site/draft-retention";
+    }
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private Config config;
+    private List<Retention> retentions = Collections.emptyList();
+    private long defaultMaxAgeMillis;
+    private List<PauseWindow> pauseWindows = Collections.emptyList();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder purged = new LongAdder();
+    private final LongAdder deletedNodes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Activate
+    protected void activate(final Config config) {
+        this.config = config;
+        defaultMaxAgeMillis = toMillis(config.max_age_days());
+
+        List<Retention> entries = new ArrayList<>();
+        for (String entry : nullToEmpty(config.form_retention())) {
+            int separator = entry.lastIndexOf('=');
+            try {
+                String formPath = entry.substring(0, Math.max(0, separator)).trim();
+                if (formPath.isEmpty()) {
+                    throw new IllegalArgumentException("missing form path");
+                }
+                entries.add(new Retention(formPath, toMillis(Integer.parseInt(entry.substring(separator + 1).trim()))));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Ignoring form retention '{}', expected <form path>=<max age in days>: {}",
+                    entry, e.getMessage());
+            }
+        }
+        entries.sort(Comparator.comparingInt((Retention retention) -> retention.formPath.length()).reversed());
+        retentions = entries;
+
+        List<PauseWindow> windows = new ArrayList<>();
+        for (String window : nullToEmpty(config.pause_windows())) {
+            if (window.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                windows.add(PauseWindow.parse(window));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Ignoring pause window '{}': {}", window, e.getMessage());
+            }
+        }
+        pauseWindows = windows;
+        stopped = false;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        if (!config.enabled()) {
+            LOG.debug("Draft retention is disabled");
+            return;
+        }
+        if (isPaused()) {
+            LOG.debug("Draft retention is paused until the end of {}", pauseWindows);
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            LOG.info("Draft retention is already running");
+            return;
+        }
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            purge(resolver);
+        } catch (LoginException e) {
+            LOG.error("Failed to get service resource resolver. Make sure the service user is configured.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Draft retention interrupted");
+        } catch (Exception e) {
+            LOG.error("Error during draft retention", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void purge(ResourceResolver resolver) throws InterruptedException, PersistenceException {
+        boolean dryRun = config.dry_run();
+        Resource checkpoint = resolver.getResource(config.checkpoint_path());
+        String cursor = checkpoint != null ? checkpoint.getValueMap().get(CURSOR_PROPERTY, String.class) : null;
+        LOG.info("Draft retention {}starting after {}", dryRun ? "dry run " : "",
+            cursor != null ? cursor : "the beginning");
+
+        int batchSize = Math.max(1, config.batch_size());
+        int limit = Math.max(1, config.max_drafts_per_run());
+        RateLimiter throttle = new RateLimiter(config.max_commits_per_second());
+        long now = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long startChecked = checked.sum();
+        long startPurged = purged.sum();
+        int count = 0;
+        int batch = 0;
+        int batchPurged = 0;
+        int batchNodes = 0;
+        String last = null;
+        String outcome = "stopped";
+
+        DraftTraversal drafts = new DraftTraversal(resolver, DRAFTS_ROOT, cursor);
+        while (true) {
+            if (stopped || isPaused()) {
+                // Never commit within a pause window, the next run redoes the batch
+                resolver.revert();
+                outcome = stopped ? "stopped" : "paused";
+                break;
+            }
+            boolean hasNext = count < limit && drafts.hasNext();
+            boolean completed = !hasNext && count < limit;
+            if (batch == batchSize || (!hasNext && (batch > 0 || completed))) {
+                if (!dryRun) {
+                    throttle.acquire();
+                    if (!commit(resolver, completed ? null : last, completed)) {
+                        failed.add(batchPurged);
+                        outcome = "failed";
+                        break;
+                    }
+                    deletedNodes.add(batchNodes);
+                }
+                purged.add(batchPurged);
+                batch = 0;
+                batchPurged = 0;
+                batchNodes = 0;
+            }
+            if (!hasNext) {
+                outcome = completed ? "completed" : "limited";
+                break;
+            }
+
+            last = drafts.next();
+            count++;
+            batch++;
+            checked.increment();
+            Resource draft = resolver.getResource(last);
+            if (draft != null && isExpired(draft.getValueMap(), now)) {
+                Set<String> paths = getDraftPaths(resolver, draft);
+                if (dryRun) {
+                    LOG.debug("Draft retention would delete {}", paths);
+                } else {
+                    for (String path : paths) {
+                        Resource resource = resolver.getResource(path);
+                        if (resource != null) {
+                            resolver.delete(resource);
+                            batchNodes++;
+                        }
+                    }
+                    LOG.debug("Deleting expired draft {}", paths);
+                }
+                batchPurged++;
+            }
+        }
+
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        LOG.info("Draft retention {}{} after {}: {} checked, {} {} in {} s", dryRun ? "dry run " : "", outcome,
+            last != null ? last : "the beginning", checked.sum() - startChecked, purged.sum() - startPurged,
+            dryRun ? "to delete" : "deleted", Math.round(seconds));
+    }
+
+    /**
+     * Commits the pending deletions together with the cursor.
+     *
+     * @param cursor The last draft checked, or null if all drafts were checked
+     * @return false if the commit failed and the changes were reverted
+     */
+    private boolean commit(ResourceResolver resolver, String cursor, boolean completed) {
+        try {
+            Resource checkpoint = ResourceUtil.getOrCreateResource(resolver, config.checkpoint_path(),
+                Collections.singletonMap("jcr:primaryType", (Object) "nt:unstructured"), "sling:Folder", false);
+            ModifiableValueMap properties = checkpoint.adaptTo(ModifiableValueMap.class);
+            if (cursor != null) {
+                properties.put(CURSOR_PROPERTY, cursor);
+            } else {
+                properties.remove(CURSOR_PROPERTY);
+            }
+            if (completed) {
+                properties.put(LAST_COMPLETED_PROPERTY, Calendar.getInstance());
+            }
+            resolver.commit();
+            return true;
+        } catch (PersistenceException e) {
+            LOG.error("Failed to commit draft retention batch up to {}", cursor, e);
+            resolver.revert();
+            return false;
+        }
+    }
+
+    private boolean isExpired(ValueMap properties, long now) {
+        Calendar lastModified = properties.get(LAST_MODIFIED, Calendar.class);
+        if (lastModified == null) {
+            return false;
+        }
+        long maxAge = getMaxAgeMillis(properties.get(FORM_PATH_PROPERTY, String.class));
+        return maxAge > 0 && now - lastModified.getTimeInMillis() > maxAge;
+    }
+
+    /**
+     * @param formPath The form a draft was saved from, or null
+     * @return The retention of the draft in milliseconds, 0 to keep it
+     */
+    long getMaxAgeMillis(String formPath) {
+        if (formPath != null) {
+            for (Retention retention : retentions) {
+                if (formPath.startsWith(retention.formPath) && (formPath.length() == retention.formPath.length()
+                        || formPath.charAt(retention.formPath.length()) == '/')) {
+                    return retention.maxAgeMillis;
+                }
+            }
+        }
+        return defaultMaxAgeMillis;
+    }
+
+    /**
+     * @return The paths of the metadata node, the data node and the attachments of a draft that
+     *         are below the data and attachments folders of its user
+     */
+    private static Set<String> getDraftPaths(ResourceResolver resolver, Resource draft) {
+        String path = draft.getPath();
+        String draftsFolder = path.substring(0, path.indexOf(METADATA_SEGMENT) + "/drafts/".length());
+        Set<String> paths = new LinkedHashSet<>();
+        paths.add(path);
+
+        ValueMap properties = draft.getValueMap();
+        addPath(paths, draftsFolder, properties.get(USER_DATA_ID_PROPERTY, String.class), path);
+        for (String attachments : properties.get(ATTACHMENT_LIST_PROPERTY, new String[0])) {
+            for (String attachment : attachments.split(",")) {
+                String id = attachment.trim();
+                if (!id.isEmpty()) {
+                    addPath(paths, draftsFolder, id.startsWith("/") ? id : draftsFolder + ATTACHMENTS + id, path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static void addPath(Set<String> paths, String draftsFolder, String path, String draft) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        // Resolve . and .. first, the resolver would do so when looking the path up
+        String normalized = ResourceUtil.normalize(path);
+        if (normalized == null
+                || !(isBelow(normalized, draftsFolder + DATA) || isBelow(normalized, draftsFolder + ATTACHMENTS))) {
+            LOG.warn("Not deleting {} of draft {}, it is not below {}{} or {}{}", path, draft,
+                draftsFolder, DATA, draftsFolder, ATTACHMENTS);
+            return;
+        }
+        paths.add(normalized);
+    }
+
+    /**
+     * @param folder A folder path ending with a slash
+     * @return true if the path names a node strictly below the folder
+     */
+    private static boolean isBelow(String path, String folder) {
+        if (!path.startsWith(folder)) {
+            return false;
+        }
+        String relative = path.substring(folder.length());
+        return !relative.isEmpty() && !relative.startsWith("/") && !relative.endsWith("/") && !relative.contains("//");
+    }
+
+    private boolean isPaused() {
+        LocalTime now = LocalTime.now();
+        for (PauseWindow window : pauseWindows) {
+            if (window.contains(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long toMillis(int days) {
+        return days > 0 ? TimeUnit.DAYS.toMillis(days) : 0;
+    }
+
+    private static String[] nullToEmpty(String[] values) {
+        return values != null ? values : new String[0];
+    }
+
+    /**
+     * @return Number of drafts checked by all runs
+     */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /**
+     * @return Number of drafts deleted, or found to be expired in dry runs
+     */
+    public long getPurgedCount() {
+        return purged.sum();
+    }
+
+    /**
+     * @return Number of metadata, data and attachment nodes deleted
+     */
+    public long getDeletedNodeCount() {
+        return deletedNodes.sum();
+    }
+
+    /**
+     * @return Number of expired drafts whose deletion could not be committed
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    private static final class Retention {
+
+        final String formPath;
+        final long maxAgeMillis;
+
+        Retention(String formPath, long maxAgeMillis) {
+            this.formPath = formPath;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+    }
+}
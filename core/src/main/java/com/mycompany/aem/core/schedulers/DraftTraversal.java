@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the paths of draft metadata nodes ({@code <root>/<user>/drafts/metadata/<draft>})
+ * in user and draft name order, starting after a cursor path.
+ * <p>
+ * The order only depends on node names, so a traversal resumed from the last path it
+ * returned continues exactly where it stopped, no matter how many drafts were added or
+ * removed before that point.
+ */
+final class DraftTraversal implements Iterator<String> {
+
+    private static final String METADATA = "drafts/metadata";
+
+    private final ResourceResolver resolver;
+    private final String root;
+    private final Iterator<String> users;
+    private String cursorUser;
+    private String cursorDraft;
+
+    private String user;
+    private Iterator<String> drafts = Collections.emptyIterator();
+
+    /**
+     * @param resolver The resolver to list nodes with
+     * @param root The forms portal root, such as {@code /content/forms/fp}
+     * @param after Path of the last draft processed, or null to start at the beginning
+     */
+    DraftTraversal(ResourceResolver resolver, String root, String after) {
+        this.resolver = resolver;
+        this.root = root;
+        if (after != null && after.startsWith(root + "/")) {
+            String[] segments = after.substring(root.length() + 1).split("/");
+            if (segments.length == 4) {
+                cursorUser = segments[0];
+                cursorDraft = segments[3];
+            }
+        }
+        List<String> userNames = sortedChildNames(root);
+        if (cursorUser != null) {
+            int start = Collections.binarySearch(userNames, cursorUser);
+            userNames = userNames.subList(start >= 0 ? start : -start - 1, userNames.size());
+        }
+        this.users = userNames.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!drafts.hasNext()) {
+            if (!users.hasNext()) {
+                return false;
+            }
+            user = users.next();
+            List<String> draftNames = sortedChildNames(root + "/" + user + "/" + METADATA);
+            if (user.equals(cursorUser)) {
+                int start = Collections.binarySearch(draftNames, cursorDraft);
+                draftNames = draftNames.subList(start >= 0 ? start + 1 : -start - 1, draftNames.size());
+            }
+            drafts = draftNames.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return root + "/" + user + "/" + METADATA + "/" + drafts.next();
+    }
+
+    private List<String> sortedChildNames(String path) {
+        Resource parent = resolver.getResource(path);
+        if (parent == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        for (Resource child : parent.getChildren()) {
+            names.add(child.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A daily period of local time, such as {@code 08:00-20:00}. A window whose end is before
+ * its start spans midnight, and one whose start equals its end covers the whole day.
+ */
+final class PauseWindow {
+
+    private final LocalTime start;
+    private final LocalTime end;
+
+    private PauseWindow(LocalTime start, LocalTime end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param window The window as {@code HH:mm-HH:mm}
+     * @return The window
+     * @throws IllegalArgumentException if the window cannot be parsed
+     */
+    static PauseWindow parse(String window) {
+        String[] times = window.trim().split("\\s*-\\s*");
+        if (times.length != 2) {
+            throw new IllegalArgumentException("Expected HH:mm-HH:mm: " + window);
+        }
+        try {
+            return new PauseWindow(LocalTime.parse(times[0]), LocalTime.parse(times[1]));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Expected HH:mm-HH:mm: " + window, e);
+        }
+    }
+
+    /**
+     * @param time A local time
+     * @return true if the time is within the window, which includes its start and excludes its end
+     */
+    boolean contains(LocalTime time) {
+        if (start.equals(end)) {
+            return true;
+        }
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
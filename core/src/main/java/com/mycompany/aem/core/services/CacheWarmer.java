@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+/**
+ * Service interface for warming the dispatcher cache: pages are queued and fetched through
+ * the dispatcher, so that visitors do not have to wait for the publish instance to render
+ * them after the cache was invalidated.
+ */
+public interface CacheWarmer {
+
+    /**
+     * Queues a page, followed by its ancestors up to the content root, which render its
+     * title in their navigation.
+     *
+     * @param pagePath The path of the page, or of a resource of its content
+     * @param includePage false to queue only the ancestors, for a page that was removed
+     * @return Number of pages queued; pages already waiting in the queue are not queued again
+     */
+    int warm(String pagePath, boolean includePage);
+
+    /**
+     * @return Number of pages waiting or being fetched
+     */
+    int getQueueSize();
+
+    /**
+     * @return The statistics of the last completed run, or null if no run completed yet
+     */
+    WarmupRun getLastRun();
+}
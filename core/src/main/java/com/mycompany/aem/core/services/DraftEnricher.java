@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+import org.apache.sling.api.resource.Resource;
+
+import java.util.Map;
+
+/**
+ * Service interface for computing draft metadata properties from the draft data.
+ * <p>
+ * The draft enrichment service parses the data of a draft once and streams it to the
+ * handlers of all registered enrichers, together with the extraction of the mapped form
+ * fields. The properties the handlers report are merged with the mapped fields and written
+ * to the draft metadata in one commit. Properties written by the enrichment service itself
+ * or by a field mapping are never overwritten by an enricher; when two enrichers report the
+ * same property, the first one wins.
+ * <p>
+ * Like the field mappings, enrichers only run when the draft data has changed since the
+ * last enrichment, or when the set of enrichers or their names changed.
+ */
+public interface DraftEnricher {
+
+    /**
+     * @return A name identifying the enricher and the configuration of its output; drafts are
+     *         enriched again when it changes
+     */
+    String getName();
+
+    /**
+     * Called before the data of a draft is parsed.
+     *
+     * @param draftResource The draft metadata resource
+     * @return The handler receiving the data of this draft, or null to skip the draft
+     */
+    Handler newHandler(Resource draftResource);
+
+    /**
+     * Receives the data of one draft while it is parsed. Handlers are used by one thread only.
+     * Element names are qualified names as they appear in the data, and depths start with 0
+     * for the root element.
+     */
+    interface Handler {
+
+        /**
+         * @param name The element name
+         * @param depth The depth of the element
+         */
+        default void startElement(String name, int depth) {
+        }
+
+        /**
+         * Text of the innermost open element, possibly in several parts. The characters are
+         * only valid during the call.
+         *
+         * @param chars The characters
+         * @param start The start of the text
+         * @param length The length of the text
+         */
+        default void text(char[] chars, int start, int length) {
+        }
+
+        /**
+         * @param name The element name
+         * @param depth The depth of the element
+         */
+        default void endElement(String name, int depth) {
+        }
+
+        /**
+         * Called once the data has been parsed. Not called if the data cannot be parsed.
+         *
+         * @param payloadLength The size of the draft data in bytes, or -1 if unknown
+         * @param complete false if only the start of an oversized payload was scanned, or if the
+         *                 data became unreadable part way through
+         * @return The metadata properties to set, empty for none
+         */
+        Map<String, Object> endDocument(long payloadLength, boolean complete);
+    }
+}
@@ -16,10 +16,16 @@
 package com.mycompany.aem.core.services;
 
 import org.apache.sling.api.resource.Resource;
+import org.osgi.annotation.versioning.ProviderType;
+
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Service interface for enriching draft metadata with custom properties.
+ * Consumers call this service; only this bundle implements it.
  */
+@ProviderType
 public interface DraftEnrichmentService {
 
     /**
@@ -30,6 +36,34 @@ public interface DraftEnrichmentService {
      */
     boolean enrichDraft(Resource draftResource);
 
+    /**
+     * Determines the properties enrichment would write to a draft node, without modifying it.
+     * 
+     * @param draftResource The draft resource to inspect
+     * @return The properties whose values would change, empty if the draft is up to date,
+     *         or null if the draft could not be inspected
+     */
+    Map<String, Object> computeEnrichment(Resource draftResource);
+
+    /**
+     * Writes properties determined by {@link #computeEnrichment(Resource)} to a draft node.
+     * 
+     * @param draftResource The draft resource to enrich
+     * @param changes The properties to write
+     * @return true if the properties were written or queued for writing, false otherwise
+     */
+    boolean applyEnrichment(Resource draftResource, Map<String, Object> changes);
+
+    /**
+     * Checks whether a change to a draft was caused by this service's own enrichment
+     * write, and if so forgets that write, so that it is recognised only once.
+     * 
+     * @param path The changed path
+     * @param changedPropertyNames The added, changed and removed property names, or null if unknown
+     * @return true if the change was caused by an enrichment write
+     */
+    boolean isOwnChange(String path, Set<String> changedPropertyNames);
+
     /**
      * Checks if a resource is a draft metadata node.
      * 
@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+import org.apache.sling.api.resource.Resource;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of drafts found by {@link DraftQueryService}.
+ */
+public final class DraftPage {
+
+    private final List<Resource> drafts;
+    private final String nextCursor;
+
+    public DraftPage(List<Resource> drafts, String nextCursor) {
+        this.drafts = Collections.unmodifiableList(drafts);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return The draft metadata resources, most recently modified first
+     */
+    public List<Resource> getDrafts() {
+        return drafts;
+    }
+
+    /**
+     * @return The cursor to request the next page with, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+import java.util.Calendar;
+
+/**
+ * Criteria and page position of a {@link DraftQueryService} lookup. All criteria are
+ * optional and combined with AND.
+ */
+public final class DraftQuery {
+
+    private final String gatheredName;
+    private final String owner;
+    private final Calendar modifiedFrom;
+    private final Calendar modifiedTo;
+    private final String cursor;
+    private final int limit;
+
+    private DraftQuery(Builder builder) {
+        this.gatheredName = builder.gatheredName;
+        this.owner = builder.owner;
+        this.modifiedFrom = builder.modifiedFrom;
+        this.modifiedTo = builder.modifiedTo;
+        this.cursor = builder.cursor;
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The draft name gathered from the form data, or null
+     */
+    public String getGatheredName() {
+        return gatheredName;
+    }
+
+    /**
+     * @return The user owning the drafts, or null
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return The earliest modification date, inclusive, or null
+     */
+    public Calendar getModifiedFrom() {
+        return modifiedFrom;
+    }
+
+    /**
+     * @return The latest modification date, exclusive, or null
+     */
+    public Calendar getModifiedTo() {
+        return modifiedTo;
+    }
+
+    /**
+     * @return The cursor of the previous page, or null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return The requested page size, 0 for the service's default
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Builder for {@link DraftQuery}.
+     */
+    public static final class Builder {
+
+        private String gatheredName;
+        private String owner;
+        private Calendar modifiedFrom;
+        private Calendar modifiedTo;
+        private String cursor;
+        private int limit;
+
+        private Builder() {
+        }
+
+        public Builder gatheredName(String gatheredName) {
+            this.gatheredName = gatheredName;
+            return this;
+        }
+
+        public Builder owner(String owner) {
+            this.owner = owner;
+            return this;
+        }
+
+        public Builder modifiedFrom(Calendar modifiedFrom) {
+            this.modifiedFrom = modifiedFrom;
+            return this;
+        }
+
+        public Builder modifiedTo(Calendar modifiedTo) {
+            this.modifiedTo = modifiedTo;
+            return this;
+        }
+
+        /**
+         * @param cursor The {@link DraftPage#getNextCursor() next cursor} of the previous page
+         * @return This builder
+         */
+        public Builder after(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public DraftQuery build() {
+            return new DraftQuery(this);
+        }
+    }
+}
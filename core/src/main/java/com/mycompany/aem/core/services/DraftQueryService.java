@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * Service interface for finding drafts by their enrichment properties, owner and
+ * modification date. Every query selects the draft metadata index by its tag and only uses
+ * the properties it indexes, so that it is answered from the index rather than by
+ * traversing the drafts tree.
+ */
+public interface DraftQueryService {
+
+    /**
+     * Finds one page of drafts, most recently modified first.
+     * 
+     * @param resolver The resource resolver to query with, whose access rights apply
+     * @param query The criteria, page size and position
+     * @return The page of drafts
+     * @throws IllegalArgumentException if the query's cursor is not one returned by this service
+     */
+    DraftPage findDrafts(ResourceResolver resolver, DraftQuery query);
+}
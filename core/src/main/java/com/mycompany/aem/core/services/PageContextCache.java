@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+import com.day.cq.wcm.api.Page;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * Service interface for looking up the page containing a resource, memoized for the
+ * duration of a request.
+ * <p>
+ * Every component on a page asks for the same containing page. While a scope is open on
+ * the current thread, each page is looked up once and later lookups of the same page are
+ * answered from the scope. Lookups outside of a scope, or with another resource resolver
+ * than the one the scope was opened for, are not memoized.
+ */
+public interface PageContextCache {
+
+    /**
+     * @param resource The resource
+     * @return The page containing the resource, or null if it is not part of a page
+     */
+    Page getContainingPage(Resource resource);
+
+    /**
+     * @param resource The resource
+     * @return The properties of the page containing the resource, empty if it is not part of a page
+     */
+    ValueMap getPageProperties(Resource resource);
+
+    /**
+     * Opens a scope on the current thread, which has to be closed on the same thread. If a
+     * scope is already open, the returned scope does nothing.
+     *
+     * @param resolver The resource resolver of the request
+     * @return The scope
+     */
+    Scope openScope(ResourceResolver resolver);
+
+    /**
+     * @return Number of lookups answered from a scope
+     */
+    long getHitCount();
+
+    /**
+     * @return Number of lookups that went to the repository
+     */
+    long getMissCount();
+
+    /**
+     * Memoized lookups of one request.
+     */
+    interface Scope extends AutoCloseable {
+
+        /**
+         * Forgets the memoized lookups and closes the scope.
+         */
+        @Override
+        void close();
+    }
+}
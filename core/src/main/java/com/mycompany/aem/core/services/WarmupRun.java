@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services;
+
+/**
+ * Statistics of one run of a {@link CacheWarmer}: from the first page queued while the
+ * warmer was idle until the queue is empty again.
+ */
+public final class WarmupRun {
+
+    private final long startTime;
+    private final long durationMillis;
+    private final int fetched;
+    private final int filled;
+    private final int alreadyCached;
+    private final int failed;
+
+    public WarmupRun(long startTime, long durationMillis, int fetched, int filled, int alreadyCached, int failed) {
+        this.startTime = startTime;
+        this.durationMillis = durationMillis;
+        this.fetched = fetched;
+        this.filled = filled;
+        this.alreadyCached = alreadyCached;
+        this.failed = failed;
+    }
+
+    /**
+     * @return Start of the run, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Time from the first page queued until the last one was fetched
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return Number of pages requested from the dispatcher
+     */
+    public int getFetched() {
+        return fetched;
+    }
+
+    /**
+     * @return Number of pages rendered by the publish instance and so filled into the cache
+     */
+    public int getFilled() {
+        return filled;
+    }
+
+    /**
+     * @return Number of pages the dispatcher served from its cache
+     */
+    public int getAlreadyCached() {
+        return alreadyCached;
+    }
+
+    /**
+     * @return Number of pages that could not be fetched or did not return 2xx
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return fetched + " page(s) in " + durationMillis + " ms: " + filled + " filled, " + alreadyCached
+            + " already cached, " + failed + " failed";
+    }
+}
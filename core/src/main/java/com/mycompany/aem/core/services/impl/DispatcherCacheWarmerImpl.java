@@ -0,0 +1,393 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.CacheWarmer;
+import com.mycompany.aem.core.services.WarmupRun;
+import com.mycompany.aem.core.utils.RateLimiter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link CacheWarmer} that fetches pages through the dispatcher.
+ * <p>
+ * Pages are queued when their replication is received, while the dispatcher flush it
+ * triggers is still on its way, so every page waits for a configurable flush delay before
+ * it is fetched; fetched any earlier, the stale page would be served from the cache and
+ * invalidated right after. Pages wait in a bounded queue, and a page that is already
+ * waiting is not queued again.
+ * A fixed number of worker threads fetch them, so that at most that many connections to
+ * the dispatcher are open, and a {@link RateLimiter} paces the requests of all workers
+ * to a maximum rate. The statistics of each run are logged when the last page queued has
+ * been fetched.
+ */
+@Component(service = CacheWarmer.class)
+@Designate(ocd = DispatcherCacheWarmerImpl.Config.class)
+public class DispatcherCacheWarmerImpl implements CacheWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DispatcherCacheWarmerImpl.class);
+
+    private static final String CONTENT_SEGMENT = "/jcr:content";
+
+    @ObjectClassDefinition(name = "My65site Dispatcher Cache Warmer",
+                           description = "Fetches activated pages and their ancestors through the dispatcher")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Enabled",
+                             description = "Whether pages are warmed; enable it on the publish instances "
+                                 + "whose dispatcher should be warmed, never on author")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Dispatcher URL",
+                             description = "Scheme, host and port of the dispatcher to fetch pages from")
+        String dispatcher_url() default "http://localhost:80";
+
+        @AttributeDefinition(name = "Content roots",
+                             description = "Pages below these paths are warmed, up to the root itself")
+        String[] content_roots() default { "/content/my65site" };
+
+        @AttributeDefinition(name = "Extension",
+                             description = "Extension of the page URLs to fetch")
+        String extension() default "html";
+
+        @AttributeDefinition(name = "Maximum connections",
+                             description = "Number of pages fetched at the same time")
+        int max_connections() default 4;
+
+        @AttributeDefinition(name = "Requests per second",
+                             description = "Maximum rate of requests to the dispatcher, 0 for no limit")
+        double requests_per_second() default 10;
+
+        @AttributeDefinition(name = "Flush delay (ms)",
+                             description = "Time a page waits before it is fetched, for the dispatcher flush "
+                                 + "triggered by the same replication to invalidate it first")
+        long flush_delay_ms() default 5000;
+
+        @AttributeDefinition(name = "Queue capacity",
+                             description = "Maximum number of pages waiting; further pages are dropped")
+        int queue_capacity() default 10000;
+
+        @AttributeDefinition(name = "Request timeout (ms)",
+                             description = "Time to wait for the connection and for each response")
+        long request_timeout_ms() default 30000;
+
+        @AttributeDefinition(name = "Cache info header",
+                             description = "Response header the dispatcher reports cache hits in; a value "
+                                 + "containing 'cached' counts as already cached")
+        String cache_info_header() default "X-Cache-Info";
+    }
+
+    private volatile List<String> contentRoots = new ArrayList<>();
+    private volatile Crawl crawl;
+    private volatile WarmupRun lastRun;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        deactivate();
+        List<String> roots = new ArrayList<>();
+        for (String root : config.content_roots()) {
+            String trimmed = root.trim();
+            if (trimmed.startsWith("/")) {
+                roots.add(trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed);
+            }
+        }
+        contentRoots = roots;
+        if (config.enabled()) {
+            crawl = new Crawl(config);
+        }
+        LOG.info("Dispatcher cache warmer {} for {} via {} with {} connection(s) at {} request(s) per second",
+            config.enabled() ? "enabled" : "disabled", contentRoots, config.dispatcher_url(),
+            config.max_connections(), config.requests_per_second());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        Crawl current = crawl;
+        crawl = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    @Override
+    public int warm(String pagePath, boolean includePage) {
+        Crawl current = crawl;
+        if (current == null || pagePath == null) {
+            return 0;
+        }
+        String path = getPagePath(pagePath);
+        String root = getContentRoot(path);
+        if (root == null) {
+            return 0;
+        }
+        int queued = 0;
+        if (includePage && current.enqueue(path)) {
+            queued++;
+        }
+        for (int end = path.lastIndexOf('/'); end >= root.length(); end = path.lastIndexOf('/', end - 1)) {
+            if (current.enqueue(path.substring(0, end))) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    @Override
+    public int getQueueSize() {
+        Crawl current = crawl;
+        return current != null ? current.getOutstanding() : 0;
+    }
+
+    @Override
+    public WarmupRun getLastRun() {
+        return lastRun;
+    }
+
+    private String getContentRoot(String path) {
+        for (String root : contentRoots) {
+            if (path.equals(root) || path.startsWith(root + "/")) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The path of the page a path of its content belongs to
+     */
+    static String getPagePath(String path) {
+        int content = path.indexOf(CONTENT_SEGMENT);
+        boolean isContent = content > 0 && (path.length() == content + CONTENT_SEGMENT.length()
+            || path.charAt(content + CONTENT_SEGMENT.length()) == '/');
+        return isContent ? path.substring(0, content) : path;
+    }
+
+    /**
+     * Queue, workers and HTTP client of one activation.
+     */
+    private final class Crawl {
+
+        private final String dispatcherUrl;
+        private final String extension;
+        private final String cacheInfoHeader;
+        private final Duration timeout;
+        private final long flushDelayNanos;
+        private final int capacity;
+        private final RateLimiter throttle;
+        private final HttpClient client;
+        private final DelayQueue<QueuedPage> queue = new DelayQueue<>();
+        private final Set<String> pending = ConcurrentHashMap.newKeySet();
+        private final ExecutorService workers;
+
+        // Guarded by this
+        private RunStatistics currentRun;
+        private int outstanding;
+
+        Crawl(Config config) {
+            String url = config.dispatcher_url();
+            dispatcherUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            extension = config.extension();
+            cacheInfoHeader = config.cache_info_header();
+            timeout = Duration.ofMillis(config.request_timeout_ms());
+            flushDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.flush_delay_ms()));
+            capacity = Math.max(1, config.queue_capacity());
+            throttle = new RateLimiter(config.requests_per_second());
+            // Pinned so that the client does not attempt an HTTP/2 upgrade with the web server
+            client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+            int connections = Math.max(1, config.max_connections());
+            AtomicInteger threadCount = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(connections, runnable -> {
+                Thread thread = new Thread(runnable, "dispatcher-cache-warmer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < connections; i++) {
+                workers.execute(this::fetchPages);
+            }
+        }
+
+        void stop() {
+            workers.shutdownNow();
+            synchronized (this) {
+                if (currentRun != null) {
+                    LOG.info("Dispatcher cache warm-up stopped with {} page(s) left", outstanding);
+                }
+            }
+        }
+
+        synchronized int getOutstanding() {
+            return outstanding;
+        }
+
+        boolean enqueue(String path) {
+            if (!pending.add(path)) {
+                return false;
+            }
+            synchronized (this) {
+                if (queue.size() >= capacity) {
+                    LOG.warn("Dispatcher cache warm-up queue is full, dropping {}", path);
+                    pending.remove(path);
+                    return false;
+                }
+                if (currentRun == null) {
+                    currentRun = new RunStatistics();
+                }
+                outstanding++;
+                queue.add(new QueuedPage(path, System.nanoTime() + flushDelayNanos));
+            }
+            return true;
+        }
+
+        private void fetchPages() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    String path = queue.take().path;
+                    // A page activated again while it is fetched is fetched again
+                    pending.remove(path);
+                    Outcome outcome = null;
+                    try {
+                        throttle.acquire();
+                        outcome = fetch(path);
+                    } finally {
+                        completed(outcome);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Outcome fetch(String path) throws InterruptedException {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(dispatcherUrl + path + "." + extension))
+                    .timeout(timeout)
+                    .GET()
+                    .build();
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 != 2) {
+                    LOG.debug("Warming {} returned {}", path, response.statusCode());
+                    return Outcome.FAILED;
+                }
+                return isCacheHit(response) ? Outcome.CACHED : Outcome.FILLED;
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.debug("Warming {} failed: {}", path, e.getMessage());
+                return Outcome.FAILED;
+            }
+        }
+
+        private boolean isCacheHit(HttpResponse<?> response) {
+            if (cacheInfoHeader == null || cacheInfoHeader.isEmpty()) {
+                return false;
+            }
+            return response.headers().firstValue(cacheInfoHeader)
+                .map(value -> value.toLowerCase().contains("cached"))
+                .orElse(false);
+        }
+
+        private synchronized void completed(Outcome outcome) {
+            if (currentRun == null) {
+                return;
+            }
+            if (outcome != null) {
+                currentRun.record(outcome);
+            }
+            if (--outstanding == 0) {
+                lastRun = currentRun.finish();
+                currentRun = null;
+                LOG.info("Dispatcher cache warmed: {}", lastRun);
+            }
+        }
+    }
+
+    /**
+     * A page waiting for the dispatcher flush before it is fetched.
+     */
+    private static final class QueuedPage implements Delayed {
+
+        private final String path;
+        private final long at;
+
+        QueuedPage(String path, long at) {
+            this.path = path;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private enum Outcome {
+        FILLED, CACHED, FAILED
+    }
+
+    /**
+     * Counts of the run in progress.
+     */
+    private static final class RunStatistics {
+
+        private final long startTime = System.currentTimeMillis();
+        private final long start = System.nanoTime();
+        private final int[] counts = new int[Outcome.values().length];
+
+        void record(Outcome outcome) {
+            counts[outcome.ordinal()]++;
+        }
+
+        WarmupRun finish() {
+            int filled = counts[Outcome.FILLED.ordinal()];
+            int cached = counts[Outcome.CACHED.ordinal()];
+            int failed = counts[Outcome.FAILED.ordinal()];
+            return new WarmupRun(startTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                filled + cached + failed, filled, cached, failed);
+        }
+    }
+}
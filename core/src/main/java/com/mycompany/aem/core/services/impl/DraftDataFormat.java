@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+
+/**
+ * The format of draft data: afData XML of foundation based adaptive forms or the JSON of
+ * core component based ones.
+ */
+public enum DraftDataFormat {
+
+    XML,
+
+    JSON;
+
+    /**
+     * Number of bytes {@link #sniff(PushbackInputStream)} may have to push back.
+     */
+    static final int SNIFF_LENGTH = 64;
+
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    /**
+     * Detects the format from the first bytes of the data, which are pushed back. Data that
+     * starts with an object or array, after an optional UTF-8 byte order mark and whitespace,
+     * is JSON; anything else is left to the XML parser.
+     *
+     * @param in The data, with room to push back {@link #SNIFF_LENGTH} bytes
+     * @return The format
+     * @throws IOException if the data cannot be read
+     */
+    static DraftDataFormat sniff(PushbackInputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+        DraftDataFormat format = null;
+        while (format == null && length < head.length) {
+            int read = in.read(head, length, head.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            format = detect(head, length);
+        }
+        if (length > 0) {
+            in.unread(head, 0, length);
+        }
+        return format != null ? format : XML;
+    }
+
+    /**
+     * @return The format, or null if the bytes are all whitespace so far
+     */
+    private static DraftDataFormat detect(byte[] head, int length) {
+        int start = 0;
+        if (length >= UTF8_BOM.length && head[0] == UTF8_BOM[0] && head[1] == UTF8_BOM[1] && head[2] == UTF8_BOM[2]) {
+            start = UTF8_BOM.length;
+        } else if (length < UTF8_BOM.length && (head[0] & 0xFF) == 0xEF) {
+            return null;
+        }
+        for (int i = start; i < length; i++) {
+            switch (head[i]) {
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    continue;
+                case '{':
+                case '[':
+                    return JSON;
+                default:
+                    return XML;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+/**
+ * Where a draft data node keeps the form data, in the order they are probed.
+ */
+public enum DraftDataLayout {
+
+    /** XML or JSON string in the {@code data} property of the data node. */
+    DATA_PROPERTY(null, "data"),
+
+    /** Binary {@code jcr:data} property of the data node. */
+    JCR_DATA(null, "jcr:data"),
+
+    /** Binary {@code jcr:data} property of the {@code jcr:content} child of the data node. */
+    JCR_CONTENT_JCR_DATA("jcr:content", "jcr:data");
+
+    private final String childName;
+    private final String propertyName;
+
+    DraftDataLayout(String childName, String propertyName) {
+        this.childName = childName;
+        this.propertyName = propertyName;
+    }
+
+    /**
+     * @return The child of the data node holding the property, or null for the data node itself
+     */
+    public String getChildName() {
+        return childName;
+    }
+
+    /**
+     * @return The name of the property holding the form data
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    @Override
+    public String toString() {
+        return childName != null ? childName + "/" + propertyName : propertyName;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+import org.apache.sling.api.resource.Resource;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draft enricher that records the number of filled form fields and the size of the draft data.
+ * <p>
+ * A filled field is an element without child elements and with non-blank text inside of a
+ * {@code data} element, which covers the bound and the unbound data of adaptive forms. The
+ * count is only reported for drafts whose data was read completely.
+ */
+@Component(service = DraftEnricher.class)
+@Designate(ocd = DraftDataStatisticsEnricher.Config.class)
+public class DraftDataStatisticsEnricher implements DraftEnricher {
+
+    private static final String DATA = "data";
+
+    @ObjectClassDefinition(name = "My65site Draft Enrichment - Data Statistics",
+                           description = "Adds the number of filled form fields and the draft data size to draft metadata")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Filled fields property",
+                             description = "Metadata property for the number of filled form fields, empty to omit it")
+        String filled_fields_property() default "myCustomDraftFilledFields";
+
+        @AttributeDefinition(name = "Data size property",
+                             description = "Metadata property for the size of the draft data in bytes, empty to omit it")
+        String data_size_property() default "myCustomDraftDataSize";
+    }
+
+    private volatile String filledFieldsProperty;
+    private volatile String dataSizeProperty;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        filledFieldsProperty = emptyToNull(config.filled_fields_property());
+        dataSizeProperty = emptyToNull(config.data_size_property());
+    }
+
+    @Override
+    public String getName() {
+        return "statistics(" + filledFieldsProperty + "," + dataSizeProperty + ")";
+    }
+
+    @Override
+    public Handler newHandler(Resource draftResource) {
+        String filledFields = filledFieldsProperty;
+        String dataSize = dataSizeProperty;
+        return filledFields != null || dataSize != null ? new StatisticsHandler(filledFields, dataSize) : null;
+    }
+
+    private static String emptyToNull(String value) {
+        return value != null && !value.trim().isEmpty() ? value.trim() : null;
+    }
+
+    private static boolean isData(String name) {
+        return name.equals(DATA) || name.endsWith(":" + DATA);
+    }
+
+    /**
+     * Counts the filled fields of one draft.
+     */
+    static final class StatisticsHandler implements Handler {
+
+        private final String filledFieldsProperty;
+        private final String dataSizeProperty;
+
+        // Depths of the open elements that have child elements
+        private final BitSet hasChildren = new BitSet();
+        private int dataDepth = -1;
+        private boolean hasText;
+        private long filledFields;
+
+        StatisticsHandler(String filledFieldsProperty, String dataSizeProperty) {
+            this.filledFieldsProperty = filledFieldsProperty;
+            this.dataSizeProperty = dataSizeProperty;
+        }
+
+        @Override
+        public void startElement(String name, int depth) {
+            if (depth > 0) {
+                hasChildren.set(depth - 1);
+            }
+            hasChildren.clear(depth);
+            hasText = false;
+            if (dataDepth < 0 && isData(name)) {
+                dataDepth = depth;
+            }
+        }
+
+        @Override
+        public void text(char[] chars, int start, int length) {
+            if (hasText) {
+                return;
+            }
+            for (int i = start; i < start + length; i++) {
+                if (!Character.isWhitespace(chars[i])) {
+                    hasText = true;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String name, int depth) {
+            // Text after an element belongs to its parent, which has children and is no field
+            if (dataDepth >= 0 && depth > dataDepth && hasText && !hasChildren.get(depth)) {
+                filledFields++;
+            }
+            hasText = false;
+            if (depth == dataDepth) {
+                dataDepth = -1;
+            }
+        }
+
+        @Override
+        public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+            Map<String, Object> properties = new LinkedHashMap<>();
+            if (filledFieldsProperty != null && complete) {
+                properties.put(filledFieldsProperty, filledFields);
+            }
+            if (dataSizeProperty != null && payloadLength >= 0) {
+                properties.put(dataSizeProperty, payloadLength);
+            }
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+import org.apache.sling.api.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams the data of one draft to the handlers of all enrichers.
+ * <p>
+ * A handler that throws is dropped for the rest of the draft so that it cannot break the
+ * field extraction or the other enrichers. The properties of the remaining handlers are
+ * merged in enricher order, the first handler reporting a property wins.
+ */
+final class DraftEnricherDispatcher implements DraftEnricher.Handler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftEnricherDispatcher.class);
+
+    private final String draftPath;
+    private final String[] names;
+    private final DraftEnricher.Handler[] handlers;
+
+    private DraftEnricherDispatcher(String draftPath, String[] names, DraftEnricher.Handler[] handlers) {
+        this.draftPath = draftPath;
+        this.names = names;
+        this.handlers = handlers;
+    }
+
+    /**
+     * @param enrichers The enrichers
+     * @param draftResource The draft metadata resource
+     * @return The dispatcher, or null if no enricher handles the draft
+     */
+    static DraftEnricherDispatcher create(Collection<DraftEnricher> enrichers, Resource draftResource) {
+        String[] names = new String[enrichers.size()];
+        DraftEnricher.Handler[] handlers = new DraftEnricher.Handler[enrichers.size()];
+        int count = 0;
+        for (DraftEnricher enricher : enrichers) {
+            try {
+                DraftEnricher.Handler handler = enricher.newHandler(draftResource);
+                if (handler != null) {
+                    names[count] = enricher.getName();
+                    handlers[count++] = handler;
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Draft enricher {} failed for draft {}", enricher.getName(), draftResource.getPath(), e);
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new DraftEnricherDispatcher(draftResource.getPath(), names, handlers);
+    }
+
+    @Override
+    public void startElement(String name, int depth) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] != null) {
+                try {
+                    handlers[i].startElement(name, depth);
+                } catch (RuntimeException e) {
+                    drop(i, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void text(char[] chars, int start, int length) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] != null) {
+                try {
+                    handlers[i].text(chars, start, length);
+                } catch (RuntimeException e) {
+                    drop(i, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String name, int depth) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] != null) {
+                try {
+                    handlers[i].endElement(name, depth);
+                } catch (RuntimeException e) {
+                    drop(i, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] == null) {
+                continue;
+            }
+            Map<String, Object> reported;
+            try {
+                reported = handlers[i].endDocument(payloadLength, complete);
+            } catch (RuntimeException e) {
+                drop(i, e);
+                continue;
+            }
+            if (reported == null) {
+                continue;
+            }
+            for (Map.Entry<String, Object> property : reported.entrySet()) {
+                if (property.getValue() == null) {
+                    continue;
+                }
+                if (properties.putIfAbsent(property.getKey(), property.getValue()) != null) {
+                    LOG.debug("Ignoring property {} of draft enricher {}, it is already set by another enricher",
+                        property.getKey(), names[i]);
+                }
+            }
+        }
+        return properties;
+    }
+
+    private void drop(int index, RuntimeException e) {
+        LOG.warn("Draft enricher {} failed for draft {}", names[index], draftPath, e);
+        handlers[index] = null;
+    }
+}
@@ -15,26 +15,49 @@
  */
 package com.mycompany.aem.core.services.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Stage;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Statistic;
+import com.mycompany.aem.core.services.DraftEnricher;
 import com.mycompany.aem.core.services.DraftEnrichmentService;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+
+import javax.jcr.RepositoryException;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implementation of DraftEnrichmentService that adds custom properties to draft metadata.
@@ -43,6 +66,7 @@ import java.io.StringReader;
     service = DraftEnrichmentService.class,
     immediate = true
 )
+@Designate(ocd = DraftEnrichmentServiceImpl.Config.class)
 public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DraftEnrichmentServiceImpl.class);
@@ -57,11 +81,178 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
     private static final String CUSTOM_PROPERTY_NAME = "myCustomPropertyName";
     private static final String CUSTOM_PROPERTY_VALUE = "my cust property value";
     
-    // Form field extraction constants
+    // Form field extraction constants, the default mapping when no DraftFieldMapping applies
     private static final String FORM_FIELD_NAME = "myCustomDraftName";
     private static final String METADATA_PROPERTY_NAME = "myCustomDraftNameGathered";
+    private static final Map<String, FieldSpec> DEFAULT_FIELD_MAPPINGS =
+        Collections.singletonMap(METADATA_PROPERTY_NAME, FieldSpec.parse(FORM_FIELD_NAME));
     private static final String USER_DATA_ID_PROPERTY = "userdataID";
-    private static final String DATA_PROPERTY = "data";
+    private static final String FORM_PATH_PROPERTY = "formPath";
+    private static final String SERVICE_USER_SUBSERVICE = "draftEnrichmentService";
+
+    // Digest of the draft data and field mappings the draft was last enriched from
+    private static final String PAYLOAD_DIGEST_PROPERTY = "myCustomDraftDataDigest";
+
+    private static final String WRITE_BEHIND_BACKLOG = "writeBehind";
+
+    // How long and for how many drafts enrichment writes are remembered to recognise their events
+    private static final long WRITE_TRACKER_TTL_MS = 30000;
+    private static final int WRITE_TRACKER_MAX_SIZE = 10000;
+    private static final ExtractionResult EMPTY_RESULT =
+        new ExtractionResult(Collections.emptyMap(), Collections.emptyMap());
+    private static final ExtractionResult INCOMPLETE_RESULT =
+        new ExtractionResult(Collections.emptyMap(), Collections.emptyMap(), false);
+
+    @ObjectClassDefinition(name = "My65site Draft Enrichment Service",
+                           description = "Adds custom and form field properties to draft metadata")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Extraction plan cache size",
+                             description = "Number of forms whose draft storage layout and field element paths "
+                                 + "are remembered, least recently used forms are evicted first")
+        int extraction_plan_cache_size() default DEFAULT_PLAN_CACHE_SIZE;
+
+        @AttributeDefinition(name = "Write-behind",
+                             description = "Buffer enrichment changes and commit the changes of many drafts "
+                                 + "at once instead of one commit per draft")
+        boolean write_behind_enabled() default false;
+
+        @AttributeDefinition(name = "Write-behind max batch size",
+                             description = "Number of buffered drafts that triggers a commit")
+        int write_behind_max_batch_size() default 50;
+
+        @AttributeDefinition(name = "Write-behind max delay (ms)",
+                             description = "Maximum time an enrichment change stays buffered")
+        long write_behind_max_delay_ms() default 1000;
+
+        @AttributeDefinition(name = "Max payload size (KB)",
+                             description = "Draft data larger than this is scanned in degraded mode: only this "
+                                 + "much of it is read and only fields found there are updated")
+        long max_payload_size_kb() default DEFAULT_MAX_PAYLOAD_SIZE_KB;
+
+        @AttributeDefinition(name = "Max element depth",
+                             description = "Draft data nested deeper than this is not parsed any further")
+        int max_element_depth() default DEFAULT_MAX_ELEMENT_DEPTH;
+
+        @AttributeDefinition(name = "Max in-flight parse size (KB)",
+                             description = "Combined size of the draft data parsed at the same time, further "
+                                 + "drafts wait until earlier ones are done")
+        long max_inflight_parse_kb() default DEFAULT_MAX_INFLIGHT_PARSE_KB;
+    }
+
+    static final int DEFAULT_PLAN_CACHE_SIZE = 500;
+    static final long DEFAULT_MAX_PAYLOAD_SIZE_KB = 10 * 1024;
+    static final int DEFAULT_MAX_ELEMENT_DEPTH = 256;
+    static final long DEFAULT_MAX_INFLIGHT_PARSE_KB = 64 * 1024;
+
+    @Reference(
+        service = DraftFieldMapping.class,
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile List<DraftFieldMapping> fieldMappings = Collections.emptyList();
+
+    @Reference(
+        service = DraftEnricher.class,
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile List<DraftEnricher> enrichers = Collections.emptyList();
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private volatile DraftEnrichmentMetrics metrics;
+
+    private volatile ExtractionPlanCache planCache = new ExtractionPlanCache(DEFAULT_PLAN_CACHE_SIZE);
+    private volatile DraftWriteBehindBuffer writeBehind;
+    private volatile long maxPayloadSize = DEFAULT_MAX_PAYLOAD_SIZE_KB * 1024;
+    private volatile int maxElementDepth = DEFAULT_MAX_ELEMENT_DEPTH;
+    private volatile ParseBudget parseBudget = new ParseBudget(DEFAULT_MAX_INFLIGHT_PARSE_KB * 1024);
+    private final LongAdder payloadSkips = new LongAdder();
+    private final LongAdder payloadReads = new LongAdder();
+    private final LongAdder degradedParses = new LongAdder();
+    private final EnrichmentWriteTracker writeTracker =
+        new EnrichmentWriteTracker(WRITE_TRACKER_TTL_MS, WRITE_TRACKER_MAX_SIZE);
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        planCache = new ExtractionPlanCache(config.extraction_plan_cache_size());
+        maxPayloadSize = config.max_payload_size_kb() > 0 ? config.max_payload_size_kb() * 1024 : Long.MAX_VALUE;
+        maxElementDepth = config.max_element_depth() > 0 ? config.max_element_depth() : XmlFieldExtractor.UNLIMITED_DEPTH;
+        parseBudget = new ParseBudget(config.max_inflight_parse_kb() * 1024);
+        closeWriteBehind();
+        if (config.write_behind_enabled()) {
+            writeBehind = new DraftWriteBehindBuffer(resolverFactory, SERVICE_USER_SUBSERVICE,
+                config.write_behind_max_batch_size(), config.write_behind_max_delay_ms(), writeTracker::forget,
+                this::recordCommitLatency);
+        }
+        LOG.info("Draft enrichment service with an extraction plan cache of {} form(s), write-behind {}, "
+                + "parsing up to {} KB at a time", planCache.getMaxSize(),
+            writeBehind != null ? "enabled" : "disabled", parseBudget.getCapacityBytes() / 1024);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        closeWriteBehind();
+    }
+
+    private void closeWriteBehind() {
+        DraftWriteBehindBuffer buffer = writeBehind;
+        writeBehind = null;
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.registerBacklog(WRITE_BEHIND_BACKLOG, this::getWriteBehindPendingCount);
+        metrics.registerStatistic(Statistic.PLAN_CACHE_HITS, () -> planCache.getHitCount());
+        metrics.registerStatistic(Statistic.PLAN_CACHE_MISSES, () -> planCache.getMissCount());
+        metrics.registerStatistic(Statistic.PAYLOAD_SKIP_RATE, this::getPayloadSkipRate);
+        metrics.registerStatistic(Statistic.DEGRADED_PARSES, this::getDegradedParseCount);
+        metrics.registerStatistic(Statistic.IN_FLIGHT_PARSE_BYTES, this::getInFlightParseBytes);
+        this.metrics = metrics;
+    }
+
+    protected void unbindMetrics(DraftEnrichmentMetrics metrics) {
+        metrics.unregisterBacklog(WRITE_BEHIND_BACKLOG);
+        metrics.unregisterStatistic(Statistic.PLAN_CACHE_HITS);
+        metrics.unregisterStatistic(Statistic.PLAN_CACHE_MISSES);
+        metrics.unregisterStatistic(Statistic.PAYLOAD_SKIP_RATE);
+        metrics.unregisterStatistic(Statistic.DEGRADED_PARSES);
+        metrics.unregisterStatistic(Statistic.IN_FLIGHT_PARSE_BYTES);
+        if (this.metrics == metrics) {
+            this.metrics = null;
+        }
+    }
+
+    private int getWriteBehindPendingCount() {
+        DraftWriteBehindBuffer buffer = writeBehind;
+        return buffer != null ? buffer.getPendingCount() : 0;
+    }
+
+    /**
+     * @return The write-behind buffer, for its statistics, or null if write-behind is disabled
+     */
+    public DraftWriteBehindBuffer getWriteBehindBuffer() {
+        return writeBehind;
+    }
+
+    /**
+     * @return The extraction plan cache, for its statistics
+     */
+    public ExtractionPlanCache getExtractionPlanCache() {
+        return planCache;
+    }
 
     @Override
     public boolean enrichDraft(Resource draftResource) {
@@ -70,6 +261,19 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
             return false;
         }
 
+        Map<String, Object> changes = computeEnrichment(draftResource);
+        if (changes == null) {
+            return false;
+        }
+        if (changes.isEmpty()) {
+            LOG.debug("Draft is already enriched: {}", draftResource.getPath());
+            return true;
+        }
+        return applyEnrichment(draftResource, changes);
+    }
+
+    @Override
+    public boolean applyEnrichment(Resource draftResource, Map<String, Object> changes) {
         try {
             ResourceResolver resolver = draftResource.getResourceResolver();
             
@@ -79,6 +283,15 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
                 return false;
             }
 
+            // Hand the changes to the write-behind buffer, which commits them with other drafts
+            DraftWriteBehindBuffer buffer = writeBehind;
+            if (buffer != null) {
+                writeTracker.record(draftResource.getPath(), changes.keySet());
+                buffer.submit(draftResource.getPath(), changes);
+                LOG.debug("Buffered enrichment {} of draft: {}", changes.keySet(), draftResource.getPath());
+                return true;
+            }
+
             ModifiableValueMap properties = draftResource.adaptTo(ModifiableValueMap.class);
             
             if (properties == null) {
@@ -86,36 +299,20 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
                 return false;
             }
 
-            boolean modified = false;
-
-            // Add the static custom property if it doesn't exist
-            if (!properties.containsKey(CUSTOM_PROPERTY_NAME)) {
-                properties.put(CUSTOM_PROPERTY_NAME, CUSTOM_PROPERTY_VALUE);
-                LOG.info("Added custom property {}={} to draft: {}", 
-                    CUSTOM_PROPERTY_NAME, CUSTOM_PROPERTY_VALUE, draftResource.getPath());
-                modified = true;
-            }
-
-            // Extract form field value and add as metadata property
-            String formFieldValue = extractFormFieldValue(draftResource, resolver);
-            if (formFieldValue != null && !formFieldValue.isEmpty()) {
-                if (!properties.containsKey(METADATA_PROPERTY_NAME) || 
-                    !formFieldValue.equals(properties.get(METADATA_PROPERTY_NAME, String.class))) {
-                    properties.put(METADATA_PROPERTY_NAME, formFieldValue);
-                    LOG.info("Added form field value {}={} to draft: {}", 
-                        METADATA_PROPERTY_NAME, formFieldValue, draftResource.getPath());
-                    modified = true;
-                }
-            } else {
-                LOG.debug("Form field '{}' not found or empty in draft data for: {}", 
-                    FORM_FIELD_NAME, draftResource.getPath());
-            }
-            
-            // Persist changes if modifications were made
-            if (modified) {
+            // Persist the changes
+            // Record the write first, its change event may be delivered as soon as it is committed
+            properties.putAll(changes);
+            writeTracker.record(draftResource.getPath(), changes.keySet());
+            long start = System.nanoTime();
+            try {
                 resolver.commit();
-                LOG.info("Successfully enriched draft: {}", draftResource.getPath());
+            } catch (PersistenceException e) {
+                writeTracker.forget(draftResource.getPath());
+                throw e;
+            } finally {
+                recordLatency(Stage.COMMIT, start);
             }
+            LOG.info("Successfully enriched draft: {} with {}", draftResource.getPath(), changes.keySet());
             
             return true;
 
@@ -128,6 +325,85 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
         }
     }
 
+    @Override
+    public Map<String, Object> computeEnrichment(Resource draftResource) {
+        if (draftResource == null) {
+            return null;
+        }
+
+        try {
+            ResourceResolver resolver = draftResource.getResourceResolver();
+            ValueMap properties = draftResource.getValueMap();
+            Map<String, Object> changes = new LinkedHashMap<>();
+
+            // Add the static custom property if it doesn't exist
+            if (!properties.containsKey(CUSTOM_PROPERTY_NAME)) {
+                changes.put(CUSTOM_PROPERTY_NAME, CUSTOM_PROPERTY_VALUE);
+                LOG.debug("Adding custom property {}={} to draft: {}", 
+                    CUSTOM_PROPERTY_NAME, CUSTOM_PROPERTY_VALUE, draftResource.getPath());
+            }
+
+            // Skip reading the draft data if neither it nor the mappings and enrichers changed since the last enrichment
+            Map<String, FieldSpec> mappings = getFieldMappings(draftResource);
+            List<DraftEnricher> currentEnrichers = enrichers;
+            String digest = computePayloadDigest(draftResource, resolver, mappings, currentEnrichers);
+            if (digest != null && digest.equals(properties.get(PAYLOAD_DIGEST_PROPERTY, String.class))) {
+                payloadSkips.increment();
+                LOG.debug("Draft data unchanged since last enrichment of draft: {}", draftResource.getPath());
+                return changes;
+            }
+            payloadReads.increment();
+
+            // Extract all mapped form fields in one pass, shared with the enrichers, and add them as metadata properties
+            ExtractionResult extraction = extractFormFieldValues(draftResource, resolver,
+                new LinkedHashSet<>(mappings.values()), currentEnrichers);
+            if (extraction == null) {
+                return null;
+            }
+            Map<FieldSpec, List<String>> fieldValues = extraction.getValues();
+            for (Map.Entry<String, FieldSpec> mapping : mappings.entrySet()) {
+                String propertyName = mapping.getKey();
+                FieldSpec field = mapping.getValue();
+                List<String> values = fieldValues.get(field);
+                if (values == null) {
+                    LOG.debug("Form field '{}' not found or empty in draft data for: {}",
+                        field, draftResource.getPath());
+                    continue;
+                }
+                if (addIfChanged(properties, changes, propertyName, field, values)) {
+                    LOG.debug("Adding form field value {}={} to draft: {}",
+                        propertyName, values, draftResource.getPath());
+                }
+            }
+            for (Map.Entry<String, Object> derived : extraction.getDerivedProperties().entrySet()) {
+                String propertyName = derived.getKey();
+                if (isReservedProperty(propertyName, mappings)) {
+                    LOG.debug("Ignoring enricher property {} of draft {}, it is set by the enrichment service",
+                        propertyName, draftResource.getPath());
+                    continue;
+                }
+                if (addIfChanged(properties, changes, propertyName, derived.getValue())) {
+                    LOG.debug("Adding enricher property {}={} to draft: {}",
+                        propertyName, derived.getValue(), draftResource.getPath());
+                }
+            }
+            // A partly read payload is read again next time, e.g. once the size or depth limit is raised
+            if (digest != null && extraction.isComplete()) {
+                changes.put(PAYLOAD_DIGEST_PROPERTY, digest);
+            }
+            return changes;
+
+        } catch (Exception e) {
+            LOG.error("Unexpected error while computing enrichment of draft: {}", draftResource.getPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isOwnChange(String path, Set<String> changedPropertyNames) {
+        return writeTracker.consume(path, changedPropertyNames);
+    }
+
     @Override
     public boolean isDraftNode(Resource resource) {
         if (resource == null) {
@@ -160,13 +436,203 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
     }
 
     /**
-     * Extracts a form field value from the draft data.
+     * Resolves the metadata properties to populate for a draft from the field mappings
+     * that apply to its form.
+     * 
+     * @param draftResource The draft metadata resource
+     * @return Field to extract per metadata property
+     */
+    private Map<String, FieldSpec> getFieldMappings(Resource draftResource) {
+        String formPath = draftResource.getValueMap().get(FORM_PATH_PROPERTY, String.class);
+        List<DraftFieldMapping> applicable = new ArrayList<>();
+        for (DraftFieldMapping mapping : fieldMappings) {
+            if (mapping.getSpecificity(formPath) >= 0) {
+                applicable.add(mapping);
+            }
+        }
+        if (applicable.isEmpty()) {
+            return DEFAULT_FIELD_MAPPINGS;
+        }
+
+        // Apply the least specific first so that mappings for deeper form paths win
+        applicable.sort(Comparator.comparingInt(mapping -> mapping.getSpecificity(formPath)));
+        Map<String, FieldSpec> mappings = new LinkedHashMap<>();
+        for (DraftFieldMapping mapping : applicable) {
+            mappings.putAll(mapping.getMappings());
+        }
+        return mappings;
+    }
+
+    /**
+     * Computes the digest of a draft's data and the mappings applied to it, without parsing the data.
      * 
      * @param draftResource The draft metadata resource
      * @param resolver The resource resolver
-     * @return The form field value, or null if not found
+     * @param mappings The mappings applied to the draft
+     * @param enrichers The enrichers applied to the draft
+     * @return The digest, or null if the data is missing or its identity cannot be determined cheaply
+     */
+    private String computePayloadDigest(Resource draftResource, ResourceResolver resolver,
+                                        Map<String, FieldSpec> mappings, List<DraftEnricher> enrichers) {
+        String dataNodePath = draftResource.getValueMap().get(USER_DATA_ID_PROPERTY, String.class);
+        Resource dataResource = dataNodePath != null && !dataNodePath.isEmpty()
+            ? resolver.getResource(dataNodePath)
+            : null;
+        if (dataResource == null) {
+            return null;
+        }
+
+        // Same order as extraction: 'data' property, 'jcr:data' and 'jcr:content/jcr:data'
+        String source = digestData(dataResource);
+        ValueMap dataProps = dataResource.getValueMap();
+        if (source == null && dataProps.containsKey(DraftDataLayout.JCR_DATA.getPropertyName())) {
+            source = digestBinary(DraftDataLayout.JCR_DATA, dataResource);
+        } else if (source == null) {
+            Resource jcrContent = dataResource.getChild(DraftDataLayout.JCR_CONTENT_JCR_DATA.getChildName());
+            if (jcrContent != null
+                    && jcrContent.getValueMap().containsKey(DraftDataLayout.JCR_CONTENT_JCR_DATA.getPropertyName())) {
+                source = digestBinary(DraftDataLayout.JCR_CONTENT_JCR_DATA, jcrContent);
+            }
+        }
+        return source != null ? source + "/" + PayloadDigest.fingerprint(describe(mappings, enrichers)) : null;
+    }
+
+    /**
+     * @return The configuration the digest depends on: the mappings, followed by the names of the enrichers
+     */
+    private static String describe(Map<String, FieldSpec> mappings, List<DraftEnricher> enrichers) {
+        if (enrichers.isEmpty()) {
+            return mappings.toString();
+        }
+        StringBuilder description = new StringBuilder(mappings.toString());
+        for (DraftEnricher enricher : enrichers) {
+            description.append(' ').append(enricher.getName());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Digests the 'data' property by streaming it, so that it is not held as a string.
      */
-    private String extractFormFieldValue(Resource draftResource, ResourceResolver resolver) {
+    private static String digestData(Resource dataResource) {
+        try (DraftPayload payload = DraftPayload.open(dataResource, DraftDataLayout.DATA_PROPERTY.getPropertyName())) {
+            return payload != null ? DraftDataLayout.DATA_PROPERTY + ":" + PayloadDigest.ofPayload(payload) : null;
+        } catch (RepositoryException | IOException e) {
+            LOG.debug("Cannot digest the data of {}: {}", dataResource.getPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String digestBinary(DraftDataLayout layout, Resource holder) {
+        String digest = PayloadDigest.ofBinary(holder, layout.getPropertyName());
+        return digest != null ? layout + ":" + digest : null;
+    }
+
+    /**
+     * @return Number of enrichments that skipped reading the draft data because it was unchanged
+     */
+    public long getPayloadSkipCount() {
+        return payloadSkips.sum();
+    }
+
+    /**
+     * @return Number of enrichments that read the draft data
+     */
+    public long getPayloadReadCount() {
+        return payloadReads.sum();
+    }
+
+    /**
+     * @return Share of enrichments that skipped reading the draft data, between 0 and 1
+     */
+    public double getPayloadSkipRate() {
+        long skips = payloadSkips.sum();
+        long total = skips + payloadReads.sum();
+        return total == 0 ? 0.0 : (double) skips / total;
+    }
+
+    /**
+     * @return Number of payloads that exceeded the maximum payload size and were only scanned in part
+     */
+    public long getDegradedParseCount() {
+        return degradedParses.sum();
+    }
+
+    /**
+     * @return Combined size of the draft data being parsed, in bytes
+     */
+    public long getInFlightParseBytes() {
+        return parseBudget.getInFlightBytes();
+    }
+
+    /**
+     * Adds extracted values to the changes unless the metadata property already holds them.
+     * 
+     * @return true if the property was added
+     */
+    private boolean addIfChanged(ValueMap properties, Map<String, Object> changes, String propertyName,
+                                 FieldSpec field, List<String> values) {
+        if (field.isMultiValued()) {
+            String[] newValues = values.toArray(new String[0]);
+            if (Arrays.equals(newValues, properties.get(propertyName, String[].class))) {
+                return false;
+            }
+            changes.put(propertyName, newValues);
+            return true;
+        }
+        String newValue = values.get(0);
+        if (properties.containsKey(propertyName)
+                && newValue.equals(properties.get(propertyName, String.class))) {
+            return false;
+        }
+        changes.put(propertyName, newValue);
+        return true;
+    }
+
+    /**
+     * @return true if the property is written by the enrichment service or a field mapping
+     */
+    private static boolean isReservedProperty(String propertyName, Map<String, FieldSpec> mappings) {
+        return mappings.containsKey(propertyName)
+            || CUSTOM_PROPERTY_NAME.equals(propertyName)
+            || PAYLOAD_DIGEST_PROPERTY.equals(propertyName);
+    }
+
+    /**
+     * Adds an enricher property to the changes unless the metadata property already holds its value.
+     *
+     * @return true if the property was added
+     */
+    private static boolean addIfChanged(ValueMap properties, Map<String, Object> changes, String propertyName,
+                                        Object value) {
+        if (Objects.deepEquals(value, properties.get(propertyName, value.getClass()))) {
+            return false;
+        }
+        changes.put(propertyName, value);
+        return true;
+    }
+
+    /**
+     * Extracts form field values from the draft data.
+     * <p>
+     * Drafts of the same form share their storage layout and document structure, so the
+     * layout and element paths that supplied the values are remembered per form path. A
+     * draft of a known form is read from that layout only, with its fields looked up at
+     * the remembered paths. If the layout is missing or a remembered path yields no value,
+     * the draft is read again with full discovery and the plan is replaced.
+     * <p>
+     * The enrichers receive the data of every parse, so a draft that does not match the plan
+     * of its form is streamed to them again; only the results of the last parse are kept.
+     * 
+     * @param draftResource The draft metadata resource
+     * @param resolver The resource resolver
+     * @param fields The fields to extract
+     * @param enrichers The enrichers to stream the data to
+     * @return The values per field found, empty if the draft data is missing or unparseable,
+     *         or null if the draft data could not be read
+     */
+    private ExtractionResult extractFormFieldValues(Resource draftResource, ResourceResolver resolver,
+                                                    Collection<FieldSpec> fields, List<DraftEnricher> enrichers) {
         try {
             ValueMap draftProps = draftResource.getValueMap();
             
@@ -174,147 +640,240 @@ public class DraftEnrichmentServiceImpl implements DraftEnrichmentService {
             String dataNodePath = draftProps.get(USER_DATA_ID_PROPERTY, String.class);
             if (dataNodePath == null || dataNodePath.isEmpty()) {
                 LOG.debug("No userdataID property found on draft: {}", draftResource.getPath());
-                return null;
+                return EMPTY_RESULT;
             }
 
             // Get the data resource
             Resource dataResource = resolver.getResource(dataNodePath);
             if (dataResource == null) {
                 LOG.warn("Data resource not found at path: {}", dataNodePath);
-                return null;
+                return EMPTY_RESULT;
             }
 
-            // Get properties from data resource
-            ValueMap dataProps = dataResource.getValueMap();
-            
-            // Try to get data from the 'data' property (XML string format)
-            String xmlData = dataProps.get(DATA_PROPERTY, String.class);
-            if (xmlData != null && !xmlData.isEmpty()) {
-                LOG.debug("Found XML data in 'data' property for draft: {}", draftResource.getPath());
-                return extractFieldFromXml(xmlData, FORM_FIELD_NAME);
+            ExtractionPlanCache cache = planCache;
+            String formPath = draftProps.get(FORM_PATH_PROPERTY, String.class);
+            ExtractionPlan plan = formPath != null ? cache.get(formPath) : null;
+            if (plan != null) {
+                ExtractionResult result = extractFields(draftResource, dataResource, plan.getLayout(), fields,
+                    plan.getElementPaths(), enrichers);
+                if (result != null && result.getValues().keySet().containsAll(plan.getElementPaths().keySet())) {
+                    cache.recordHit();
+                    LOG.debug("Extracted fields from {} using the plan of form {}", plan.getLayout(), formPath);
+                    return result;
+                }
+                if (result != null && !result.isComplete()) {
+                    // Discovery would not read any further into an oversized payload
+                    return result;
+                }
+                LOG.debug("Extraction plan {} of form {} does not match draft: {}",
+                    plan, formPath, draftResource.getPath());
             }
-
-            // Try to get data from 'jcr:data' directly on the data resource (binary format)
-            Object jcrDataDirect = dataProps.get("jcr:data");
-            if (jcrDataDirect instanceof InputStream) {
-                LOG.debug("Found binary data in 'jcr:data' property for draft: {}", draftResource.getPath());
-                return extractFieldFromInputStream((InputStream) jcrDataDirect, FORM_FIELD_NAME);
+            if (formPath != null) {
+                cache.recordMiss();
             }
 
-            // Try to get data from 'jcr:content/jcr:data' (child node with binary format)
-            Resource jcrContent = dataResource.getChild("jcr:content");
-            if (jcrContent != null) {
-                ValueMap jcrProps = jcrContent.getValueMap();
-                Object jcrData = jcrProps.get("jcr:data");
-                
-                if (jcrData instanceof InputStream) {
-                    LOG.debug("Found binary data in 'jcr:content/jcr:data' for draft: {}", draftResource.getPath());
-                    return extractFieldFromInputStream((InputStream) jcrData, FORM_FIELD_NAME);
+            // Probe the layouts in order: 'data' property (XML or JSON string), 'jcr:data' directly on
+            // the data resource and 'jcr:content/jcr:data' (both binary)
+            for (DraftDataLayout layout : DraftDataLayout.values()) {
+                ExtractionResult result = extractFields(draftResource, dataResource, layout, fields,
+                    Collections.emptyMap(), enrichers);
+                if (result == null) {
+                    continue;
                 }
+                LOG.debug("Found form data in '{}' for draft: {}", layout, draftResource.getPath());
+                if (formPath != null) {
+                    cache.put(formPath, new ExtractionPlan(layout, result.getElementPaths()));
+                }
+                return result;
             }
 
+            if (formPath != null) {
+                cache.invalidate(formPath);
+            }
             LOG.debug("Could not find form data in expected locations for draft: {}. Checked: data property, jcr:data property, jcr:content/jcr:data", 
                 draftResource.getPath());
-            return null;
+            return EMPTY_RESULT;
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting to parse the data of draft: {}", draftResource.getPath());
+            return null;
         } catch (Exception e) {
-            LOG.error("Error extracting form field value from draft: {}", draftResource.getPath(), e);
+            LOG.error("Error extracting form field values from draft: {}", draftResource.getPath(), e);
             return null;
         }
     }
 
     /**
-     * Extracts a field value from XML data using XPath.
+     * Extracts field values from the form data stored in one layout.
+     * <p>
+     * The data is always streamed. Payloads larger than the maximum payload size are scanned
+     * in degraded mode, reading no more than that size, and every parse waits for its share
+     * of the in-flight parse budget first.
      * 
-     * @param xmlData The XML data as string
-     * @param fieldName The field name to extract
-     * @return The field value, or null if not found
+     * @param draftResource The draft metadata resource
+     * @param dataResource The draft data resource
+     * @param layout The layout to read
+     * @param fields The fields to extract
+     * @param elementPaths Known element paths of single-valued fields
+     * @param enrichers The enrichers to stream the data to
+     * @return The extraction result, empty if the data is malformed, incomplete if it is nested too deeply,
+     *         or null if the layout holds no data
+     * @throws RepositoryException if the data cannot be read
+     * @throws IOException if the data cannot be read
+     * @throws InterruptedException if interrupted while waiting for parse budget
      */
-    private String extractFieldFromXml(String xmlData, String fieldName) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(false);
-            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-            
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new InputSource(new StringReader(xmlData)));
+    private ExtractionResult extractFields(Resource draftResource, Resource dataResource, DraftDataLayout layout,
+                                           Collection<FieldSpec> fields, Map<FieldSpec, String> elementPaths,
+                                           List<DraftEnricher> enrichers)
+            throws RepositoryException, IOException, InterruptedException {
+        Resource holder = layout.getChildName() != null ? dataResource.getChild(layout.getChildName()) : dataResource;
+        if (holder == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (DraftPayload payload = DraftPayload.open(holder, layout.getPropertyName())) {
+            if (payload == null) {
+                return null;
+            }
+            recordLatency(Stage.READ, start);
 
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            
-            // Try multiple XPath patterns to find the field
-            String[] xpathPatterns = {
-                "//" + fieldName,
-                "//*[local-name()='" + fieldName + "']",
-                "//afData/afBoundData/data//" + fieldName,
-                "//data//" + fieldName
-            };
-
-            for (String pattern : xpathPatterns) {
-                NodeList nodes = (NodeList) xpath.evaluate(pattern, doc, XPathConstants.NODESET);
-                if (nodes != null && nodes.getLength() > 0) {
-                    String value = nodes.item(0).getTextContent();
-                    if (value != null && !value.trim().isEmpty()) {
-                        LOG.debug("Found field '{}' with value '{}' using pattern: {}", 
-                            fieldName, value, pattern);
-                        return value.trim();
-                    }
-                }
+            if (payload.getLength() > maxPayloadSize) {
+                LOG.warn("Draft data at {} is {} bytes, scanning only the first {} bytes",
+                    holder.getPath(), payload.getLength(), maxPayloadSize);
             }
+            DraftEnricherDispatcher dispatcher =
+                enrichers.isEmpty() ? null : DraftEnricherDispatcher.create(enrichers, draftResource);
+            return extractFields(payload.getStream(), payload.getLength(), fields, elementPaths, dispatcher);
+        }
+    }
 
-            LOG.debug("Field '{}' not found in XML data", fieldName);
-            return null;
+    /**
+     * Extracts field values from a stream of draft data the way enrichment does, e.g. to
+     * measure it: the parse waits for its share of the in-flight parse budget, the format is
+     * detected from the first bytes, and payloads larger than the maximum payload size are
+     * scanned in degraded mode. The stream is not closed.
+     * 
+     * @param inputStream The XML or JSON data
+     * @param payloadLength The size of the payload, or -1 if it is not known
+     * @param fields The fields to extract
+     * @param elementPaths Known element paths of single-valued fields
+     * @return The extraction result, empty if the data is malformed or incomplete if it is nested too deeply
+     * @throws IOException if the data cannot be read
+     * @throws InterruptedException if interrupted while waiting for parse budget
+     */
+    public ExtractionResult extractFields(InputStream inputStream, long payloadLength, Collection<FieldSpec> fields,
+                                          Map<FieldSpec, String> elementPaths)
+            throws IOException, InterruptedException {
+        return extractFields(inputStream, payloadLength, fields, elementPaths, null);
+    }
 
-        } catch (Exception e) {
-            LOG.error("Error parsing XML data to extract field '{}': {}", fieldName, e.getMessage());
-            return null;
+    private ExtractionResult extractFields(InputStream inputStream, long payloadLength, Collection<FieldSpec> fields,
+                                           Map<FieldSpec, String> elementPaths, DraftEnricherDispatcher dispatcher)
+            throws IOException, InterruptedException {
+        long limit = maxPayloadSize;
+        boolean degraded = payloadLength > limit;
+        long size = payloadLength != DraftPayload.UNKNOWN_LENGTH ? payloadLength : limit;
+        if (degraded) {
+            degradedParses.increment();
+        }
+        try (ParseBudget.Permit permit = parseBudget.acquire(Math.min(size, limit))) {
+            return extractFields(inputStream, fields, elementPaths, degraded ? limit : Long.MAX_VALUE,
+                dispatcher, payloadLength);
         }
     }
 
     /**
-     * Extracts a field value from an InputStream containing XML data.
+     * Extracts field values from a stream of XML or JSON data, depending on the first bytes
+     * of the data. The stream is not closed.
      * 
-     * @param inputStream The input stream
-     * @param fieldName The field name to extract
-     * @return The field value, or null if not found
+     * @param inputStream The XML or JSON data
+     * @param fields The fields to extract
+     * @param elementPaths Known element paths of single-valued fields
+     * @param scanLimit The number of bytes to scan, or {@link Long#MAX_VALUE} to parse the whole payload
+     * @param dispatcher The enricher handlers to stream the data to, or null
+     * @param payloadLength The size of the payload, or {@link DraftPayload#UNKNOWN_LENGTH}
+     * @return The values per field found, with the properties reported by the enrichers, empty if
+     *         the data is malformed, or empty and incomplete if it is nested too deeply
+     * @throws IOException if the data cannot be read
      */
-    private String extractFieldFromInputStream(InputStream inputStream, String fieldName) {
+    private ExtractionResult extractFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                           Map<FieldSpec, String> elementPaths, long scanLimit,
+                                           DraftEnricherDispatcher dispatcher, long payloadLength)
+            throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(inputStream, scanLimit);
+        DraftDataFormat format = DraftDataFormat.XML;
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(false);
-            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-            
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(inputStream);
-
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            
-            // Try multiple XPath patterns
-            String[] xpathPatterns = {
-                "//" + fieldName,
-                "//*[local-name()='" + fieldName + "']",
-                "//afData/afBoundData/data//" + fieldName,
-                "//data//" + fieldName
-            };
-
-            for (String pattern : xpathPatterns) {
-                NodeList nodes = (NodeList) xpath.evaluate(pattern, doc, XPathConstants.NODESET);
-                if (nodes != null && nodes.getLength() > 0) {
-                    String value = nodes.item(0).getTextContent();
-                    if (value != null && !value.trim().isEmpty()) {
-                        return value.trim();
-                    }
-                }
+            PushbackInputStream data = new PushbackInputStream(in, DraftDataFormat.SNIFF_LENGTH);
+            format = DraftDataFormat.sniff(data);
+            boolean scan = scanLimit != Long.MAX_VALUE;
+            ExtractionResult result;
+            if (format == DraftDataFormat.JSON) {
+                result = scan
+                    ? JsonFieldExtractor.scanFields(data, fields, maxElementDepth, dispatcher)
+                    : JsonFieldExtractor.extractFields(data, fields, maxElementDepth, dispatcher);
+            } else {
+                result = scan
+                    ? XmlFieldExtractor.scanFields(data, fields, elementPaths, maxElementDepth, dispatcher)
+                    : XmlFieldExtractor.extractFields(data, fields, elementPaths, maxElementDepth, dispatcher);
+            }
+            LOG.debug("Found {} of {} field(s) {} in {} data", result.getValues().size(), fields.size(), fields, format);
+            if (dispatcher == null) {
+                return result;
             }
+            // A stream of unknown length was read to its end when parsed without a limit
+            long length = payloadLength == DraftPayload.UNKNOWN_LENGTH && scanLimit == Long.MAX_VALUE
+                ? in.getCount()
+                : payloadLength;
+            return result.withDerivedProperties(dispatcher.endDocument(length, result.isComplete()));
+
+        } catch (XmlFieldExtractor.DepthLimitException | JsonFieldExtractor.DepthLimitException e) {
+            // Not known to be malformed, so the draft is read again, e.g. once the depth limit is raised
+            LOG.warn("Stopped parsing {} data to extract fields {}: {}", format, fields, e.getMessage());
+            return INCOMPLETE_RESULT;
+        } catch (XMLStreamException e) {
+            IOException cause = readFailure(e);
+            if (cause != null) {
+                throw cause;
+            }
+            LOG.error("Error parsing {} data to extract fields {}: {}", format, fields, e.getMessage());
+            return EMPTY_RESULT;
+        } catch (JsonProcessingException e) {
+            LOG.error("Error parsing {} data to extract fields {}: {}", format, fields, e.getMessage());
+            return EMPTY_RESULT;
+        } finally {
+            recordParse(start, in.getCount());
+        }
+    }
 
-            return null;
+    /**
+     * Returns the read failure a StAX parser reported as a parse error, or null if the data is malformed.
+     */
+    private static IOException readFailure(XMLStreamException e) {
+        Throwable cause = e.getNestedException() != null ? e.getNestedException() : e.getCause();
+        return cause instanceof IOException ? (IOException) cause : null;
+    }
 
-        } catch (Exception e) {
-            LOG.error("Error parsing InputStream to extract field '{}': {}", fieldName, e.getMessage());
-            return null;
+    private void recordLatency(Stage stage, long start) {
+        DraftEnrichmentMetrics current = metrics;
+        if (current != null) {
+            current.recordLatency(stage, System.nanoTime() - start);
+        }
+    }
+
+    private void recordCommitLatency(long nanos) {
+        DraftEnrichmentMetrics current = metrics;
+        if (current != null) {
+            current.recordLatency(Stage.COMMIT, nanos);
+        }
+    }
+
+    private void recordParse(long start, long bytes) {
+        DraftEnrichmentMetrics current = metrics;
+        if (current != null) {
+            current.recordLatency(Stage.PARSE, System.nanoTime() - start);
+            current.recordBytesParsed(bytes);
         }
     }
 }
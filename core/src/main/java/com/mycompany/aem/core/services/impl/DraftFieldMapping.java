@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Factory configuration for {@link DraftEnrichmentServiceImpl} that maps adaptive form
+ * fields to draft metadata properties for the forms below one or more form paths.
+ * <p>
+ * Every configuration applying to a draft's form contributes its mappings; when two
+ * configurations map the same metadata property, the one with the longer form path wins.
+ */
+@Component(
+    service = DraftFieldMapping.class,
+    configurationPolicy = ConfigurationPolicy.REQUIRE
+)
+@Designate(ocd = DraftFieldMapping.Config.class, factory = true)
+public class DraftFieldMapping {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftFieldMapping.class);
+
+    static final String FORMS_ROOT = "/content/forms/af";
+
+    @ObjectClassDefinition(name = "My65site Draft Enrichment - Field Mapping",
+                           description = "Maps adaptive form fields to draft metadata properties")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Form paths",
+                             description = "Adaptive forms under /content/forms/af this mapping applies to, "
+                                 + "including the forms below each path")
+        String[] form_paths() default { FORMS_ROOT };
+
+        @AttributeDefinition(name = "Field mappings",
+                             description = "Entries of the form <field>=<metadata property>. Use panel/field "
+                                 + "or a data-ref such as $.panel.field to address a field inside a (repeated) "
+                                 + "panel and append [] to the field to store all of its values as a "
+                                 + "multi-valued property")
+        String[] field_mappings() default {};
+
+        String webconsole_configurationFactory_nameHint() default "{form.paths}: {field.mappings}";
+    }
+
+    private List<String> formPaths = Collections.emptyList();
+    private Map<String, FieldSpec> mappings = Collections.emptyMap();
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        List<String> paths = new ArrayList<>();
+        for (String formPath : nullToEmpty(config.form_paths())) {
+            String path = trimTrailingSlash(formPath.trim());
+            if (!path.equals(FORMS_ROOT) && !path.startsWith(FORMS_ROOT + "/")) {
+                LOG.warn("Ignoring form path {} outside of {}", path, FORMS_ROOT);
+                continue;
+            }
+            paths.add(path);
+        }
+
+        Map<String, FieldSpec> entries = new LinkedHashMap<>();
+        for (String mapping : nullToEmpty(config.field_mappings())) {
+            int separator = mapping.indexOf('=');
+            String property = separator > 0 ? mapping.substring(separator + 1).trim() : "";
+            if (property.isEmpty()) {
+                LOG.warn("Ignoring field mapping '{}', expected <field>=<metadata property>", mapping);
+                continue;
+            }
+            try {
+                entries.put(property, FieldSpec.parse(mapping.substring(0, separator)));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Ignoring field mapping '{}': {}", mapping, e.getMessage());
+            }
+        }
+
+        formPaths = Collections.unmodifiableList(paths);
+        mappings = Collections.unmodifiableMap(entries);
+        LOG.info("Draft field mapping for {} with {} field(s)", formPaths, mappings.size());
+    }
+
+    /**
+     * @param formPath The path of the form a draft was saved from
+     * @return The length of the longest configured form path covering the form, or -1 if
+     *         this mapping does not apply to it
+     */
+    public int getSpecificity(String formPath) {
+        int specificity = -1;
+        if (formPath == null) {
+            return specificity;
+        }
+        for (String path : formPaths) {
+            boolean covers = formPath.startsWith(path)
+                && (formPath.length() == path.length() || formPath.charAt(path.length()) == '/');
+            if (covers && path.length() > specificity) {
+                specificity = path.length();
+            }
+        }
+        return specificity;
+    }
+
+    /**
+     * @return Field to extract per metadata property, in configuration order
+     */
+    public Map<String, FieldSpec> getMappings() {
+        return mappings;
+    }
+
+    private static String[] nullToEmpty(String[] values) {
+        return values != null ? values : new String[0];
+    }
+
+    private static String trimTrailingSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.apache.sling.api.resource.Resource;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The form data of a draft in one storage layout, opened as a stream.
+ * <p>
+ * Payloads are read through the JCR property when the resource is backed by a node, so
+ * string properties are streamed like binaries and their length is known before reading.
+ * Other resources fall back to the value map.
+ */
+final class DraftPayload implements Closeable {
+
+    static final long UNKNOWN_LENGTH = -1;
+
+    private final InputStream stream;
+    private final long length;
+    private final Binary binary;
+
+    private DraftPayload(InputStream stream, long length, Binary binary) {
+        this.stream = stream;
+        this.length = length;
+        this.binary = binary;
+    }
+
+    /**
+     * @param holder The resource holding the payload property
+     * @param propertyName The payload property
+     * @return The opened payload, or null if the property is missing or empty
+     * @throws RepositoryException if the property cannot be read
+     */
+    static DraftPayload open(Resource holder, String propertyName) throws RepositoryException {
+        Node node = holder.adaptTo(Node.class);
+        if (node != null) {
+            if (!node.hasProperty(propertyName)) {
+                return null;
+            }
+            Property property = node.getProperty(propertyName);
+            if (property.isMultiple() || property.getLength() == 0) {
+                return null;
+            }
+            Binary binary = property.getBinary();
+            return new DraftPayload(binary.getStream(), property.getLength(), binary);
+        }
+
+        Object value = holder.getValueMap().get(propertyName);
+        if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            return bytes.length > 0 ? new DraftPayload(new ByteArrayInputStream(bytes), bytes.length, null) : null;
+        }
+        InputStream stream = holder.getValueMap().get(propertyName, InputStream.class);
+        return stream != null ? new DraftPayload(stream, UNKNOWN_LENGTH, null) : null;
+    }
+
+    /**
+     * @return The payload, positioned at its start
+     */
+    InputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * @return The length of the payload in bytes (characters for string properties in the
+     *         repository), or {@link #UNKNOWN_LENGTH}
+     */
+    long getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            stream.close();
+        } finally {
+            if (binary != null) {
+                binary.dispose();
+            }
+        }
+    }
+}
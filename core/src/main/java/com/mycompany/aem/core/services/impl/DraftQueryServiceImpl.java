@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftPage;
+import com.mycompany.aem.core.services.DraftQuery;
+import com.mycompany.aem.core.services.DraftQueryService;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of DraftQueryService on the {@code my65siteDraftMetadata} Oak index.
+ * <p>
+ * Every query is restricted to the index's path, node type and properties and selects it
+ * by its tag. Pages are ordered by {@code jcr:lastModified}, newest first, and continue
+ * from a cursor (the modification date and path of the last draft returned) rather than an
+ * offset, so that later pages cost no more than the first. Drafts modified in the same
+ * millisecond are ordered by path.
+ */
+@Component(service = DraftQueryService.class)
+@Designate(ocd = DraftQueryServiceImpl.Config.class)
+public class DraftQueryServiceImpl implements DraftQueryService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftQueryServiceImpl.class);
+
+    static final String INDEX_TAG = "my65siteDrafts";
+    static final String GATHERED_NAME_PROPERTY = "myCustomDraftNameGathered";
+    static final String OWNER_PROPERTY = "owner";
+    private static final String DRAFTS_ROOT = "/content/forms/fp";
+    private static final String LAST_MODIFIED = "jcr:lastModified";
+    private static final DateTimeFormatter JCR_DATE =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    @ObjectClassDefinition(name = "My65site Draft Query Service",
+                           description = "Finds drafts by their gathered metadata, owner and modification date")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Default page size",
+                             description = "Number of drafts per page if a query does not ask for a size")
+        int default_page_size() default 20;
+
+        @AttributeDefinition(name = "Max page size",
+                             description = "Upper bound of the number of drafts per page")
+        int max_page_size() default 100;
+    }
+
+    private int defaultPageSize = 20;
+    private int maxPageSize = 100;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxPageSize = Math.max(1, config.max_page_size());
+        defaultPageSize = Math.max(1, Math.min(config.default_page_size(), maxPageSize));
+    }
+
+    @Override
+    public DraftPage findDrafts(ResourceResolver resolver, DraftQuery query) {
+        Cursor after = Cursor.parse(query.getCursor());
+        int limit = query.getLimit() > 0 ? Math.min(query.getLimit(), maxPageSize) : defaultPageSize;
+        String statement = buildQuery(query, after);
+        LOG.debug("Finding drafts with {}", statement);
+
+        // Drafts modified in the same millisecond are collected and ordered by path before
+        // they are added, so that a cursor inside such a group resumes at the right draft
+        List<Resource> page = new ArrayList<>(limit);
+        List<Resource> group = new ArrayList<>();
+        long groupTime = Long.MIN_VALUE;
+        boolean more = false;
+        Iterator<Resource> drafts = resolver.findResources(statement, "JCR-SQL2");
+        while (drafts.hasNext()) {
+            Resource draft = drafts.next();
+            long time = lastModified(draft);
+            if (!group.isEmpty() && time != groupTime) {
+                more = addGroup(group, groupTime, after, page, limit) || page.size() == limit;
+                group.clear();
+                if (more) {
+                    break;
+                }
+            }
+            groupTime = time;
+            group.add(draft);
+        }
+        if (!more && !group.isEmpty()) {
+            more = addGroup(group, groupTime, after, page, limit);
+        }
+
+        Resource last = more ? page.get(page.size() - 1) : null;
+        return new DraftPage(page, last != null ? new Cursor(lastModified(last), last.getPath()).toString() : null);
+    }
+
+    /**
+     * Adds the drafts of one modification time that follow the cursor to the page.
+     * 
+     * @return true if the page is full and drafts are left over
+     */
+    private static boolean addGroup(List<Resource> group, long time, Cursor after, List<Resource> page, int limit) {
+        group.sort(Comparator.comparing(Resource::getPath));
+        for (Resource draft : group) {
+            if (after != null && time == after.time && draft.getPath().compareTo(after.path) <= 0) {
+                continue;
+            }
+            if (page.size() == limit) {
+                return true;
+            }
+            page.add(draft);
+        }
+        return false;
+    }
+
+    /**
+     * Builds the JCR-SQL2 statement of a query. Every constraint and the ordering must be
+     * covered by the {@code my65siteDraftMetadata} index definition in ui.apps.
+     */
+    static String buildQuery(DraftQuery query, Cursor after) {
+        StringBuilder statement = new StringBuilder("SELECT * FROM [nt:unstructured] AS draft")
+            .append(" WHERE ISDESCENDANTNODE(draft, '").append(DRAFTS_ROOT).append("')")
+            .append(" AND draft.[nodeType] = 'fp:Draft'");
+        if (query.getGatheredName() != null) {
+            statement.append(" AND draft.[").append(GATHERED_NAME_PROPERTY).append("] = ")
+                .append(literal(query.getGatheredName()));
+        }
+        if (query.getOwner() != null) {
+            statement.append(" AND draft.[").append(OWNER_PROPERTY).append("] = ").append(literal(query.getOwner()));
+        }
+        boolean bounded = false;
+        if (query.getModifiedFrom() != null) {
+            appendDate(statement, ">=", query.getModifiedFrom().getTimeInMillis());
+            bounded = true;
+        }
+        if (query.getModifiedTo() != null) {
+            appendDate(statement, "<", query.getModifiedTo().getTimeInMillis());
+            bounded = true;
+        }
+        if (after != null) {
+            appendDate(statement, "<=", after.time);
+            bounded = true;
+        }
+        if (!bounded) {
+            // Drafts without a modification date cannot be paged through
+            statement.append(" AND draft.[").append(LAST_MODIFIED).append("] IS NOT NULL");
+        }
+        return statement.append(" ORDER BY draft.[").append(LAST_MODIFIED).append("] DESC")
+            .append(" OPTION(INDEX TAG ").append(INDEX_TAG).append(")")
+            .toString();
+    }
+
+    private static void appendDate(StringBuilder statement, String operator, long millis) {
+        statement.append(" AND draft.[").append(LAST_MODIFIED).append("] ").append(operator)
+            .append(" CAST('").append(JCR_DATE.format(Instant.ofEpochMilli(millis))).append("' AS DATE)");
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static long lastModified(Resource draft) {
+        Calendar lastModified = draft.getValueMap().get(LAST_MODIFIED, Calendar.class);
+        return lastModified != null ? lastModified.getTimeInMillis() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Position after a draft, given by its modification time and path.
+     */
+    static final class Cursor {
+
+        final long time;
+        final String path;
+
+        Cursor(long time, String path) {
+            this.time = time;
+            this.path = path;
+        }
+
+        /**
+         * @param value A cursor as returned by {@link #toString()}, or null
+         * @return The cursor, or null if the value is null
+         * @throws IllegalArgumentException if the value is not a cursor
+         */
+        static Cursor parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            int separator = value.indexOf(':');
+            if (separator <= 0 || !value.startsWith(DRAFTS_ROOT + "/", separator + 1)) {
+                throw new IllegalArgumentException("Invalid draft cursor: " + value);
+            }
+            try {
+                return new Cursor(Long.parseLong(value.substring(0, separator)), value.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid draft cursor: " + value, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return time + ":" + path;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Buffers draft property changes and writes them in one commit once the buffer holds
+ * the maximum batch size or its oldest change is the maximum delay old.
+ * <p>
+ * Changes to the same draft are merged while buffered. If a batch fails to commit it is
+ * reverted and every draft is written and committed on its own, so that one draft that
+ * cannot be saved does not hold back the others.
+ */
+public final class DraftWriteBehindBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftWriteBehindBuffer.class);
+
+    private final ResourceResolverFactory resolverFactory;
+    private final String subservice;
+    private final Consumer<String> failureListener;
+    private final LongConsumer commitLatency;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    private Map<String, Map<String, Object>> buffer = new LinkedHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+
+    /**
+     * @param resolverFactory Factory for the resolver the batches are written with
+     * @param subservice The service user mapping to write with
+     * @param maxBatchSize Number of buffered drafts that triggers a flush
+     * @param maxDelayMillis Maximum time a change stays buffered
+     * @param failureListener Called with the path of every draft whose changes are not written
+     * @param commitLatency Called with the duration of every commit, in nanoseconds
+     */
+    public DraftWriteBehindBuffer(ResourceResolverFactory resolverFactory, String subservice,
+                                  int maxBatchSize, long maxDelayMillis,
+                                  Consumer<String> failureListener, LongConsumer commitLatency) {
+        this.resolverFactory = resolverFactory;
+        this.subservice = subservice;
+        this.failureListener = failureListener;
+        this.commitLatency = commitLatency;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "draft-enrichment-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Buffers changes to a draft. Flushes on the calling thread when the batch is full.
+     *
+     * @param path The draft path
+     * @param changes The properties to write
+     */
+    public void submit(String path, Map<String, Object> changes) {
+        boolean full;
+        boolean first;
+        synchronized (bufferLock) {
+            first = buffer.isEmpty();
+            buffer.computeIfAbsent(path, key -> new LinkedHashMap<>()).putAll(changes);
+            full = buffer.size() >= maxBatchSize;
+        }
+        if (full) {
+            flush();
+        } else if (first) {
+            timer.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all buffered changes.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, Map<String, Object>> batch;
+            synchronized (bufferLock) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                batch = buffer;
+                buffer = new LinkedHashMap<>();
+            }
+            write(batch);
+        }
+    }
+
+    private void write(Map<String, Map<String, Object>> batch) {
+        Map<String, Object> authInfo = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, subservice);
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(authInfo)) {
+            List<String> applied = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> entry : batch.entrySet()) {
+                if (apply(resolver, entry.getKey(), entry.getValue())) {
+                    applied.add(entry.getKey());
+                }
+            }
+            try {
+                commit(resolver);
+                batches.increment();
+                written.add(applied.size());
+                LOG.debug("Committed enrichment of {} draft(s) in one batch", applied.size());
+                return;
+            } catch (PersistenceException e) {
+                LOG.warn("Failed to commit enrichment batch of {} draft(s), retrying one by one: {}",
+                    batch.size(), e.getMessage());
+                resolver.revert();
+                splits.increment();
+            }
+
+            for (Map.Entry<String, Map<String, Object>> entry : batch.entrySet()) {
+                try {
+                    if (apply(resolver, entry.getKey(), entry.getValue())) {
+                        commit(resolver);
+                        written.increment();
+                    }
+                } catch (PersistenceException e) {
+                    resolver.revert();
+                    failed.increment();
+                    failureListener.accept(entry.getKey());
+                    LOG.error("Failed to persist enrichment of draft: {}", entry.getKey(), e);
+                }
+            }
+        } catch (LoginException e) {
+            failed.add(batch.size());
+            batch.keySet().forEach(failureListener);
+            LOG.error("Failed to get service resource resolver, dropping enrichment of {} draft(s)", batch.size(), e);
+        }
+    }
+
+    private void commit(ResourceResolver resolver) throws PersistenceException {
+        long start = System.nanoTime();
+        try {
+            resolver.commit();
+        } finally {
+            commitLatency.accept(System.nanoTime() - start);
+        }
+    }
+
+    private boolean apply(ResourceResolver resolver, String path, Map<String, Object> changes) {
+        Resource resource = resolver.getResource(path);
+        ModifiableValueMap properties = resource != null ? resource.adaptTo(ModifiableValueMap.class) : null;
+        if (properties == null) {
+            LOG.warn("Draft {} is gone or not writable, dropping its enrichment", path);
+            failureListener.accept(path);
+            return false;
+        }
+        properties.putAll(changes);
+        return true;
+    }
+
+    /**
+     * Flushes the remaining changes and stops the flush timer.
+     */
+    public void close() {
+        timer.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @return Number of drafts waiting to be written
+     */
+    public int getPendingCount() {
+        synchronized (bufferLock) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * @return Number of batches committed in one go
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return Number of drafts written
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return Number of batches that failed and were retried one draft at a time
+     */
+    public long getSplitCount() {
+        return splits.sum();
+    }
+
+    /**
+     * @return Number of drafts whose changes could not be written
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+}
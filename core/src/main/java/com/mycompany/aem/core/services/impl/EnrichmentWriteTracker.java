@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers recent enrichment writes so that the change events they cause can be told
+ * apart from draft saves.
+ * <p>
+ * A write is matched by the first change to its draft that touches only written
+ * properties, or, if the event does not report property names, by the first change to
+ * the draft at all. Writes not matched within the time to live are forgotten.
+ */
+final class EnrichmentWriteTracker {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Write> writes = new ConcurrentHashMap<>();
+
+    EnrichmentWriteTracker(long ttlMillis, int maxSize) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Records properties written to a draft.
+     */
+    void record(String path, Set<String> propertyNames) {
+        long now = System.nanoTime();
+        if (writes.size() >= maxSize) {
+            purgeExpired(now);
+        }
+        if (writes.size() < maxSize) {
+            writes.merge(path, new Write(propertyNames, now + ttlNanos), Write::merge);
+        }
+    }
+
+    /**
+     * Forgets a recorded write that was not persisted.
+     */
+    void forget(String path) {
+        writes.remove(path);
+    }
+
+    /**
+     * Checks a change against the recorded writes and forgets the write it matches.
+     *
+     * @param path The changed path
+     * @param propertyNames The changed property names, or null if unknown
+     * @return true if the change was caused by a recorded write
+     */
+    boolean consume(String path, Set<String> propertyNames) {
+        long now = System.nanoTime();
+        boolean[] matched = new boolean[1];
+        writes.computeIfPresent(path, (key, write) -> {
+            if (write.expiresAt - now <= 0) {
+                return null;
+            }
+            if (propertyNames == null || (!propertyNames.isEmpty() && write.propertyNames.containsAll(propertyNames))) {
+                matched[0] = true;
+                return null;
+            }
+            return write;
+        });
+        return matched[0];
+    }
+
+    int size() {
+        return writes.size();
+    }
+
+    private void purgeExpired(long now) {
+        for (Iterator<Write> it = writes.values().iterator(); it.hasNext();) {
+            if (it.next().expiresAt - now <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Write {
+
+        private final Set<String> propertyNames;
+        private final long expiresAt;
+
+        Write(Set<String> propertyNames, long expiresAt) {
+            this.propertyNames = Collections.unmodifiableSet(new LinkedHashSet<>(propertyNames));
+            this.expiresAt = expiresAt;
+        }
+
+        Write merge(Write later) {
+            Set<String> names = new LinkedHashSet<>(propertyNames);
+            names.addAll(later.propertyNames);
+            return new Write(names, later.expiresAt);
+        }
+    }
+}
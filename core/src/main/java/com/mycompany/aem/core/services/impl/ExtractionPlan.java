@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What was learned about the drafts of one form: where the data node keeps the payload
+ * and at which element path each single-valued field was found.
+ */
+public final class ExtractionPlan {
+
+    private final DraftDataLayout layout;
+    private final Map<FieldSpec, String> elementPaths;
+
+    public ExtractionPlan(DraftDataLayout layout, Map<FieldSpec, String> elementPaths) {
+        this.layout = layout;
+        this.elementPaths = Collections.unmodifiableMap(new LinkedHashMap<>(elementPaths));
+    }
+
+    /**
+     * @return The storage layout the payload was found in
+     */
+    public DraftDataLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return Element path per field, for the fields that were found
+     */
+    public Map<FieldSpec, String> getElementPaths() {
+        return elementPaths;
+    }
+
+    @Override
+    public String toString() {
+        return layout + " " + elementPaths;
+    }
+}
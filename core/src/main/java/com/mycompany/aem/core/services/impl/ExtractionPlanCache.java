@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, LRU-evicted cache of {@link ExtractionPlan}s keyed by form path.
+ */
+public final class ExtractionPlanCache {
+
+    private final int maxSize;
+    private final Map<String, ExtractionPlan> plans;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExtractionPlanCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        this.plans = new LinkedHashMap<String, ExtractionPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ExtractionPlan> eldest) {
+                boolean evict = size() > ExtractionPlanCache.this.maxSize;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * @param formPath The form path
+     * @return The plan learned for the form, or null
+     */
+    public ExtractionPlan get(String formPath) {
+        synchronized (plans) {
+            return plans.get(formPath);
+        }
+    }
+
+    /**
+     * Stores the plan for a form, replacing any previous one.
+     */
+    public void put(String formPath, ExtractionPlan plan) {
+        synchronized (plans) {
+            plans.put(formPath, plan);
+        }
+    }
+
+    /**
+     * Drops the plan of a form that no longer matches its drafts.
+     */
+    public void invalidate(String formPath) {
+        synchronized (plans) {
+            plans.remove(formPath);
+        }
+    }
+
+    /**
+     * Records that a cached plan supplied the payload and all of its fields.
+     */
+    public void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Records that full discovery was needed, because there was no plan or it no longer matched.
+     */
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field values extracted from one draft payload.
+ */
+public final class ExtractionResult {
+
+    private final Map<FieldSpec, List<String>> values;
+    private final Map<FieldSpec, String> elementPaths;
+    private final boolean complete;
+    private final Map<String, Object> derivedProperties;
+
+    ExtractionResult(Map<FieldSpec, List<String>> values, Map<FieldSpec, String> elementPaths) {
+        this(values, elementPaths, true);
+    }
+
+    ExtractionResult(Map<FieldSpec, List<String>> values, Map<FieldSpec, String> elementPaths, boolean complete) {
+        this(values, elementPaths, complete, Collections.emptyMap());
+    }
+
+    private ExtractionResult(Map<FieldSpec, List<String>> values, Map<FieldSpec, String> elementPaths,
+                             boolean complete, Map<String, Object> derivedProperties) {
+        this.values = Collections.unmodifiableMap(values);
+        this.elementPaths = Collections.unmodifiableMap(elementPaths);
+        this.complete = complete;
+        this.derivedProperties = Collections.unmodifiableMap(derivedProperties);
+    }
+
+    /**
+     * @param properties The properties reported by the enrichers of the same parse
+     * @return A copy of this result with the given enricher properties
+     */
+    ExtractionResult withDerivedProperties(Map<String, Object> properties) {
+        return new ExtractionResult(values, elementPaths, complete, properties);
+    }
+
+    /**
+     * @return The non-blank values found per field; fields without a value are absent
+     */
+    public Map<FieldSpec, List<String>> getValues() {
+        return values;
+    }
+
+    /**
+     * @param field A requested field
+     * @return The slash separated qualified element names leading to the element that supplied
+     *         the value of a single-valued field name, or null for other fields and missing values
+     */
+    public String getElementPath(FieldSpec field) {
+        return elementPaths.get(field);
+    }
+
+    /**
+     * @return The element paths of all fields that have one
+     */
+    public Map<FieldSpec, String> getElementPaths() {
+        return elementPaths;
+    }
+
+    /**
+     * @return false if the payload was only scanned in part and fields without a value may
+     *         have one further on
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The metadata properties computed by the draft enrichers, empty if none ran
+     */
+    public Map<String, Object> getDerivedProperties() {
+        return derivedProperties;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.Arrays;
+
+/**
+ * A form field to extract from draft data.
+ * <p>
+ * Expressions have the form {@code field}, {@code panel/field} or either of them followed
+ * by {@code []}. A plain field name is looked up like the original XPath patterns and yields
+ * the first non-blank value. A path only matches elements whose parent elements end with the
+ * given names, which is how a field inside a repeated panel is addressed. The {@code []}
+ * suffix collects every non-blank value in document order instead of the first one.
+ * <p>
+ * The data-ref syntax of core component based forms, such as {@code $.panel.field} or
+ * {@code $.panel[*].field}, is accepted as well and means the same as {@code panel/field};
+ * array indexes are ignored.
+ */
+public final class FieldSpec {
+
+    private static final String MULTI_VALUE_SUFFIX = "[]";
+    private static final String DATA_REF_PREFIX = "$.";
+
+    private final String expression;
+    private final String[] path;
+    private final boolean multiValued;
+
+    private FieldSpec(String expression, String[] path, boolean multiValued) {
+        this.expression = expression;
+        this.path = path;
+        this.multiValued = multiValued;
+    }
+
+    /**
+     * Parses a field expression.
+     *
+     * @param expression The field expression
+     * @return The field spec
+     * @throws IllegalArgumentException if the expression is empty or has empty path segments
+     */
+    public static FieldSpec parse(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Field expression must not be empty");
+        }
+        String trimmed = expression.trim();
+        boolean multiValued = trimmed.endsWith(MULTI_VALUE_SUFFIX);
+        String pathExpression = multiValued
+            ? trimmed.substring(0, trimmed.length() - MULTI_VALUE_SUFFIX.length())
+            : trimmed;
+        String[] path = pathExpression.startsWith(DATA_REF_PREFIX)
+            ? parseDataRef(pathExpression.substring(DATA_REF_PREFIX.length()))
+            : pathExpression.split("/", -1);
+        for (String segment : path) {
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Invalid field expression: " + expression);
+            }
+        }
+        return new FieldSpec(trimmed, path, multiValued);
+    }
+
+    private static String[] parseDataRef(String dataRef) {
+        String[] path = dataRef.split("\\.", -1);
+        for (int i = 0; i < path.length; i++) {
+            int index = path[i].indexOf('[');
+            if (index >= 0 && path[i].endsWith("]")) {
+                path[i] = path[i].substring(0, index);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @return The expression this spec was parsed from
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return The element name of the field itself
+     */
+    public String getFieldName() {
+        return path[path.length - 1];
+    }
+
+    /**
+     * @return true if all values of the field are collected
+     */
+    public boolean isMultiValued() {
+        return multiValued;
+    }
+
+    /**
+     * @return true if the field is addressed by its parent elements as well as its name
+     */
+    public boolean isPath() {
+        return path.length > 1;
+    }
+
+    String[] getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FieldSpec)) {
+            return false;
+        }
+        FieldSpec other = (FieldSpec) o;
+        return multiValued == other.multiValued && Arrays.equals(path, other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(path) + (multiValued ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mycompany.aem.core.services.DraftEnricher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (token level) extractor for form field values in the JSON draft data of core
+ * component based adaptive forms.
+ * <p>
+ * The JSON is read as if it was afData XML: every object member is an element named after
+ * the member, the members of an array each repeat the element of the array, and the root
+ * object has no element of its own. A field is a member with a scalar value, so
+ * {@code {"traveller": [{"city": "Basel"}, {"city": "Bern"}]}} has two values for
+ * {@code traveller/city[]} (or {@code $.traveller[*].city[]}), as has
+ * {@code {"city": ["Basel", "Bern"]}} for {@code city[]}.
+ * <p>
+ * A plain single-valued field name yields the first non-blank value in document order.
+ * Element path hints (see {@link ExtractionResult#getElementPaths()}) are not used and not
+ * reported, as that value is found without them. Reading stops as soon as every requested
+ * field is determined, unless a {@link DraftEnricher.Handler} is subscribed, which receives
+ * the whole document as elements and text.
+ */
+public final class JsonFieldExtractor {
+
+    private static final JsonFactory JSON = new JsonFactory()
+        .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private JsonFieldExtractor() {
+        // static methods only
+    }
+
+    /**
+     * Extracts several fields from a JSON byte stream in one pass. The stream is not closed.
+     *
+     * @param inputStream The JSON data
+     * @param fields The fields to extract
+     * @param maxDepth The maximum nesting depth
+     * @param handler The handler receiving the document, or null
+     * @return The values found
+     * @throws IOException if the data is not well-formed or nested deeper than {@code maxDepth}
+     *                     up to the point where all values are found
+     */
+    public static ExtractionResult extractFields(InputStream inputStream, Collection<FieldSpec> fields, int maxDepth,
+                                                 DraftEnricher.Handler handler) throws IOException {
+        try (JsonParser json = JSON.createParser(inputStream)) {
+            return extractFields(json, fields, maxDepth, false, handler);
+        }
+    }
+
+    /**
+     * Scans a JSON byte stream for fields that can be determined from the data read so far,
+     * like {@link XmlFieldExtractor#scanFields(InputStream, Collection, Map, int, DraftEnricher.Handler)}.
+     * The stream is not closed.
+     *
+     * @param inputStream The JSON data, possibly cut short
+     * @param fields The fields to extract
+     * @param maxDepth The maximum nesting depth
+     * @param handler The handler receiving the data read, or null
+     * @return The values determined
+     * @throws IOException if the stream cannot be read at all
+     */
+    public static ExtractionResult scanFields(InputStream inputStream, Collection<FieldSpec> fields, int maxDepth,
+                                              DraftEnricher.Handler handler) throws IOException {
+        try (JsonParser json = JSON.createParser(inputStream)) {
+            return extractFields(json, fields, maxDepth, true, handler);
+        }
+    }
+
+    private static ExtractionResult extractFields(JsonParser json, Collection<FieldSpec> fields, int maxDepth,
+                                                  boolean scan, DraftEnricher.Handler handler) throws IOException {
+        Matcher[] matchers = new Matcher[fields.size()];
+        int index = 0;
+        for (FieldSpec field : fields) {
+            matchers[index++] = new Matcher(field);
+        }
+        int unresolved = matchers.length;
+
+        Elements elements = new Elements();
+        boolean complete = true;
+        try {
+            JsonToken token;
+            while ((unresolved > 0 || handler != null) && (token = json.nextToken()) != null) {
+                switch (token) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        if (elements.nesting >= maxDepth) {
+                            throw new DepthLimitException(json, maxDepth);
+                        }
+                        String name = elements.nameOfValue(json);
+                        boolean element = name != null && token == JsonToken.START_OBJECT;
+                        if (element && handler != null) {
+                            handler.startElement(name, elements.depth);
+                        }
+                        elements.push(name, element, token == JsonToken.START_ARRAY);
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        String closed = elements.pop();
+                        if (closed != null && handler != null) {
+                            handler.endElement(closed, elements.depth);
+                        }
+                        break;
+                    case FIELD_NAME:
+                        break;
+                    case VALUE_NULL:
+                        if (handler != null) {
+                            String field = elements.nameOfValue(json);
+                            if (field != null) {
+                                handler.startElement(field, elements.depth);
+                                handler.endElement(field, elements.depth);
+                            }
+                        }
+                        break;
+                    default:
+                        // Scalar: a field element with text only
+                        String field = elements.nameOfValue(json);
+                        if (field == null) {
+                            break;
+                        }
+                        if (handler != null) {
+                            handler.startElement(field, elements.depth);
+                            handler.text(json.getTextCharacters(), json.getTextOffset(), json.getTextLength());
+                            handler.endElement(field, elements.depth);
+                        }
+                        if (unresolved > 0) {
+                            String text = null;
+                            for (Matcher matcher : matchers) {
+                                if (!matcher.resolved && matcher.matches(elements, field)) {
+                                    if (text == null) {
+                                        text = json.getText().trim();
+                                    }
+                                    if (matcher.add(text)) {
+                                        unresolved--;
+                                    }
+                                }
+                            }
+                        }
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!scan) {
+                throw e;
+            }
+            complete = false;
+        }
+
+        Map<FieldSpec, List<String>> values = new LinkedHashMap<>();
+        for (Matcher matcher : matchers) {
+            // Without the rest of the document only resolved fields are certain
+            if (!matcher.values.isEmpty() && (complete || matcher.resolved)) {
+                values.put(matcher.field, matcher.values);
+            }
+        }
+        return new ExtractionResult(values, Collections.emptyMap(), complete);
+    }
+
+    /**
+     * Thrown when a document is nested deeper than the maximum depth. The document may be
+     * well-formed, it was just not parsed to its end.
+     */
+    public static final class DepthLimitException extends JsonParseException {
+
+        private static final long serialVersionUID = 1L;
+
+        DepthLimitException(JsonParser json, int maxDepth) {
+            super(json, "Nesting depth exceeds " + maxDepth);
+        }
+    }
+
+    /**
+     * The open objects and arrays, with the names of the open elements.
+     */
+    private static final class Elements {
+
+        private String[] names = new String[32];
+        private boolean[] isElement = new boolean[32];
+        private boolean[] isArray = new boolean[32];
+        private int nesting;
+        private int depth;
+
+        /**
+         * @return The element name of the value at the current token, or null for the root
+         *         value and values of unnamed arrays
+         */
+        String nameOfValue(JsonParser json) throws IOException {
+            if (nesting == 0) {
+                return null;
+            }
+            return isArray[nesting - 1] ? names[nesting - 1] : json.getCurrentName();
+        }
+
+        void push(String name, boolean element, boolean array) {
+            if (nesting == names.length) {
+                names = Arrays.copyOf(names, nesting * 2);
+                isElement = Arrays.copyOf(isElement, nesting * 2);
+                isArray = Arrays.copyOf(isArray, nesting * 2);
+            }
+            names[nesting] = name;
+            isElement[nesting] = element;
+            isArray[nesting++] = array;
+            if (element) {
+                depth++;
+            }
+        }
+
+        /**
+         * @return The name of the element closed, or null if the closed value is no element
+         */
+        String pop() {
+            String name = names[--nesting];
+            names[nesting] = null;
+            if (isElement[nesting]) {
+                depth--;
+                return name;
+            }
+            return null;
+        }
+
+        /**
+         * @return true if the innermost open elements have the given names
+         */
+        boolean endsWith(String[] path, int length) {
+            int element = nesting - 1;
+            for (int i = length - 1; i >= 0; i--) {
+                while (element >= 0 && !isElement[element]) {
+                    element--;
+                }
+                if (element < 0 || !path[i].equals(names[element])) {
+                    return false;
+                }
+                element--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Collects the value(s) of one field.
+     */
+    private static final class Matcher {
+
+        final FieldSpec field;
+        final List<String> values = new ArrayList<>(1);
+        boolean resolved;
+
+        Matcher(FieldSpec field) {
+            this.field = field;
+        }
+
+        boolean matches(Elements elements, String name) {
+            String[] path = field.getPath();
+            return name.equals(field.getFieldName()) && elements.endsWith(path, path.length - 1);
+        }
+
+        /**
+         * @return true if the value resolved the field
+         */
+        boolean add(String text) {
+            if (text.isEmpty()) {
+                return false;
+            }
+            values.add(text);
+            if (!field.isMultiValued()) {
+                resolved = true;
+                return true;
+            }
+            return false;
+        }
+    }
+}
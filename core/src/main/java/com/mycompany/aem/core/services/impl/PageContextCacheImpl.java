@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
+import com.mycompany.aem.core.services.PageContextCache;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Implementation of {@link PageContextCache} that keeps the lookups of a scope in a map
+ * bound to the thread that opened it.
+ * <p>
+ * Lookups are memoized per page rather than per resource: every resource below the
+ * {@code jcr:content} node of a page is contained in that page, so all components of a
+ * page share one entry.
+ */
+@Component(service = PageContextCache.class)
+public class PageContextCacheImpl implements PageContextCache {
+
+    private static final String CONTENT_SEGMENT = "/" + JcrConstants.JCR_CONTENT;
+
+    private static final Scope NESTED_SCOPE = () -> { };
+
+    private final ThreadLocal<RequestScope> scopes = new ThreadLocal<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Override
+    public Page getContainingPage(Resource resource) {
+        if (resource == null) {
+            return null;
+        }
+        RequestScope scope = getScope(resource);
+        if (scope == null) {
+            misses.increment();
+            return lookupPage(resource);
+        }
+        String key = getPageKey(resource.getPath());
+        if (scope.pages.containsKey(key)) {
+            hits.increment();
+            return scope.pages.get(key);
+        }
+        misses.increment();
+        Page page = lookupPage(resource);
+        scope.pages.put(key, page);
+        return page;
+    }
+
+    @Override
+    public ValueMap getPageProperties(Resource resource) {
+        Page page = getContainingPage(resource);
+        if (page == null) {
+            return ValueMap.EMPTY;
+        }
+        RequestScope scope = getScope(resource);
+        if (scope == null) {
+            return page.getProperties();
+        }
+        return scope.properties.computeIfAbsent(page.getPath(), path -> page.getProperties());
+    }
+
+    @Override
+    public Scope openScope(ResourceResolver resolver) {
+        if (scopes.get() != null) {
+            return NESTED_SCOPE;
+        }
+        scopes.set(new RequestScope(resolver));
+        return scopes::remove;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private RequestScope getScope(Resource resource) {
+        RequestScope scope = scopes.get();
+        return scope != null && scope.resolver == resource.getResourceResolver() ? scope : null;
+    }
+
+    private static Page lookupPage(Resource resource) {
+        PageManager pageManager = resource.getResourceResolver().adaptTo(PageManager.class);
+        return pageManager != null ? pageManager.getContainingPage(resource) : null;
+    }
+
+    /**
+     * @return The path of the page a resource below a page's content node belongs to, the
+     *         path itself for other resources
+     */
+    static String getPageKey(String path) {
+        int content = path.indexOf(CONTENT_SEGMENT + "/");
+        if (content < 0 && path.endsWith(CONTENT_SEGMENT)) {
+            content = path.length() - CONTENT_SEGMENT.length();
+        }
+        return content > 0 ? path.substring(0, content) : path;
+    }
+
+    private static final class RequestScope {
+
+        private final ResourceResolver resolver;
+        private final Map<String, Page> pages = new HashMap<>();
+        private final Map<String, ValueMap> properties = new HashMap<>();
+
+        private RequestScope(ResourceResolver resolver) {
+            this.resolver = resolver;
+        }
+    }
+}
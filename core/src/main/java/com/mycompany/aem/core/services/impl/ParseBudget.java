@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the combined size of the draft payloads parsed at the same time.
+ * <p>
+ * A parse acquires its payload size before reading and releases it when done, so large
+ * drafts wait for each other instead of being read together. A payload larger than the
+ * whole budget takes all of it and is parsed alone. Waiting is fair, so large payloads
+ * are not starved by a stream of small ones.
+ */
+final class ParseBudget {
+
+    // The semaphore counts kilobytes, so budgets beyond 2 GB fit into its int permits
+    private static final int PERMIT_SIZE = 1024;
+
+    private final int capacity;
+    private final Semaphore permits;
+
+    /**
+     * @param capacityBytes The combined payload size that may be parsed at the same time
+     */
+    ParseBudget(long capacityBytes) {
+        this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacityBytes / PERMIT_SIZE));
+        this.permits = new Semaphore(capacity, true);
+    }
+
+    /**
+     * Waits until the payload fits into the budget.
+     *
+     * @param bytes The payload size
+     * @return The permit to close once the payload is parsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Permit acquire(long bytes) throws InterruptedException {
+        int weight = (int) Math.min(capacity, Math.max(1, (bytes + PERMIT_SIZE - 1) / PERMIT_SIZE));
+        permits.acquire(weight);
+        return new Permit(weight);
+    }
+
+    /**
+     * @return The combined payload size that may be parsed at the same time
+     */
+    long getCapacityBytes() {
+        return (long) capacity * PERMIT_SIZE;
+    }
+
+    /**
+     * @return The combined size of the payloads being parsed
+     */
+    long getInFlightBytes() {
+        return (long) (capacity - permits.availablePermits()) * PERMIT_SIZE;
+    }
+
+    /**
+     * @return Number of parses waiting for budget
+     */
+    int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * The share of the budget held by one parse.
+     */
+    final class Permit implements AutoCloseable {
+
+        private final int weight;
+        private boolean released;
+
+        private Permit(int weight) {
+            this.weight = weight;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                permits.release(weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.utils.Fnv1a;
+import org.apache.jackrabbit.api.ReferenceBinary;
+import org.apache.sling.api.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+
+/**
+ * Compact identities of draft payloads, used to tell whether a payload changed since it
+ * was last enriched without parsing it.
+ * <p>
+ * Payloads stored as strings are streamed and hashed with 64-bit FNV-1a. Binaries are
+ * identified by their content identity where the repository exposes one
+ * ({@link ReferenceBinary}); binaries without one are hashed when they are small, and
+ * otherwise fall back to the last modification date of the node holding them.
+ */
+final class PayloadDigest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PayloadDigest.class);
+
+    // Binaries without a content identity up to this size are hashed
+    private static final long MAX_HASHED_BINARY_SIZE = 16 * 1024;
+
+    private PayloadDigest() {
+        // static methods only
+    }
+
+    /**
+     * @param payload The payload, read to its end
+     * @return The digest of the payload
+     * @throws IOException if the payload cannot be read
+     */
+    static String ofPayload(DraftPayload payload) throws IOException {
+        return ofStream(payload.getStream(), payload.getLength());
+    }
+
+    /**
+     * @param holder The resource holding the binary property
+     * @param propertyName The binary property
+     * @return The digest of the binary, or null if it cannot be determined without reading it
+     */
+    static String ofBinary(Resource holder, String propertyName) {
+        Node node = holder.adaptTo(Node.class);
+        if (node != null) {
+            try {
+                if (node.hasProperty(propertyName)) {
+                    Binary binary = node.getProperty(propertyName).getBinary();
+                    try {
+                        String reference = binary instanceof ReferenceBinary
+                            ? ((ReferenceBinary) binary).getReference()
+                            : null;
+                        if (reference != null) {
+                            return "ref:" + reference;
+                        }
+                        if (binary.getSize() <= MAX_HASHED_BINARY_SIZE) {
+                            return ofStream(binary.getStream(), binary.getSize());
+                        }
+                    } finally {
+                        binary.dispose();
+                    }
+                }
+            } catch (RepositoryException | IOException e) {
+                LOG.debug("Cannot determine the identity of binary {} of {}: {}",
+                    propertyName, holder.getPath(), e.getMessage());
+            }
+        }
+        Calendar lastModified = holder.getValueMap().get("jcr:lastModified", Calendar.class);
+        return lastModified != null ? "mod:" + lastModified.getTimeInMillis() : null;
+    }
+
+    /**
+     * @param value Any string, such as a description of the extracted fields
+     * @return The 64-bit FNV-1a hash of the string, in hex
+     */
+    static String fingerprint(String value) {
+        return Long.toHexString(Fnv1a.hash(value));
+    }
+
+    private static String ofStream(InputStream stream, long size) throws IOException {
+        long hash = Fnv1a.OFFSET_BASIS;
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                hash = Fnv1a.update(hash, buffer, 0, read);
+            }
+        }
+        return "fnv:" + Long.toHexString(hash) + ":" + size;
+    }
+}
@@ -0,0 +1,728 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (StAX) extractor for form field values in afData draft XML.
+ * <p>
+ * A plain field name produces the same result as evaluating the following XPath patterns
+ * in order against a namespace-unaware DOM and returning the trimmed text of the first
+ * node of the first pattern whose first node is not blank:
+ * <ol>
+ *     <li>{@code //field}</li>
+ *     <li>{@code //*[local-name()='field']}</li>
+ *     <li>{@code //afData/afBoundData/data//field}</li>
+ *     <li>{@code //data//field}</li>
+ * </ol>
+ * Any number of fields (see {@link FieldSpec}) are collected in a single pass. The document
+ * is never materialised and reading stops as soon as every requested field is determined,
+ * which for single-valued fields is usually the end tag of the last one found.
+ * <p>
+ * For single-valued field names the element path that supplied the value is reported, and
+ * can be passed back as a hint for later documents of the same form. A hinted field only
+ * matches the element at exactly that path, skipping pattern resolution altogether.
+ * <p>
+ * Documents nested deeper than a maximum element depth are rejected. A scan (see
+ * {@link #scanFields(InputStream, Collection, Map, int)}) reports whatever could be
+ * determined before the data ended or became unreadable, for payloads that are only
+ * read up to a limit.
+ * <p>
+ * A {@link DraftEnricher.Handler} can subscribe to the same pass. It receives every element
+ * and text of the document, so reading only stops early when there is no handler.
+ */
+public final class XmlFieldExtractor {
+
+    private static final XMLInputFactory INPUT_FACTORY = newSecureInputFactory();
+
+    private static final String AF_DATA = "afData";
+    private static final String AF_BOUND_DATA = "afBoundData";
+    private static final String DATA = "data";
+
+    /**
+     * Maximum element depth used by the methods that do not take one.
+     */
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    private XmlFieldExtractor() {
+        // static methods only
+    }
+
+    /**
+     * Extracts a field value from XML character data.
+     *
+     * @param reader The XML data
+     * @param fieldName The field (element) name to extract
+     * @return The trimmed field value, or null if not found
+     * @throws XMLStreamException if the data is not well-formed up to the point where the value is found
+     */
+    public static String extractField(Reader reader, String fieldName) throws XMLStreamException {
+        return firstValue(extractFields(reader, Collections.singletonList(FieldSpec.parse(fieldName))));
+    }
+
+    /**
+     * Extracts a field value from an XML byte stream. The encoding is detected from the
+     * XML declaration, as the DOM parser did. The stream is not closed.
+     *
+     * @param inputStream The XML data
+     * @param fieldName The field (element) name to extract
+     * @return The trimmed field value, or null if not found
+     * @throws XMLStreamException if the data is not well-formed up to the point where the value is found
+     */
+    public static String extractField(InputStream inputStream, String fieldName) throws XMLStreamException {
+        return firstValue(extractFields(inputStream, Collections.singletonList(FieldSpec.parse(fieldName))));
+    }
+
+    /**
+     * Extracts several fields from XML character data in one pass.
+     *
+     * @param reader The XML data
+     * @param fields The fields to extract
+     * @return The non-blank values found per field, in request order. Single-valued
+     *         fields have exactly one value; fields without a value are absent.
+     * @throws XMLStreamException if the data is not well-formed up to the point where all values are found
+     */
+    public static Map<FieldSpec, List<String>> extractFields(Reader reader, Collection<FieldSpec> fields)
+            throws XMLStreamException {
+        return extractFields(reader, fields, Collections.emptyMap()).getValues();
+    }
+
+    /**
+     * Extracts several fields from an XML byte stream in one pass. The stream is not closed.
+     *
+     * @param inputStream The XML data
+     * @param fields The fields to extract
+     * @return The non-blank values found per field, see {@link #extractFields(Reader, Collection)}
+     * @throws XMLStreamException if the data is not well-formed up to the point where all values are found
+     */
+    public static Map<FieldSpec, List<String>> extractFields(InputStream inputStream, Collection<FieldSpec> fields)
+            throws XMLStreamException {
+        return extractFields(inputStream, fields, Collections.emptyMap()).getValues();
+    }
+
+    /**
+     * Extracts several fields from XML character data in one pass, using known element paths.
+     *
+     * @param reader The XML data
+     * @param fields The fields to extract
+     * @param elementPaths Element paths (as reported by {@link ExtractionResult#getElementPath(FieldSpec)})
+     *                     to look up single-valued fields at instead of resolving the XPath patterns
+     * @return The values found and the element paths that supplied them
+     * @throws XMLStreamException if the data is not well-formed up to the point where all values are found
+     */
+    public static ExtractionResult extractFields(Reader reader, Collection<FieldSpec> fields,
+                                                 Map<FieldSpec, String> elementPaths) throws XMLStreamException {
+        XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(reader);
+        try {
+            return extractFields(xml, fields, elementPaths, UNLIMITED_DEPTH, false, null);
+        } finally {
+            xml.close();
+        }
+    }
+
+    /**
+     * Extracts several fields from an XML byte stream in one pass, using known element paths.
+     * The stream is not closed.
+     *
+     * @param inputStream The XML data
+     * @param fields The fields to extract
+     * @param elementPaths Element paths to look up single-valued fields at, see
+     *                     {@link #extractFields(Reader, Collection, Map)}
+     * @return The values found and the element paths that supplied them
+     * @throws XMLStreamException if the data is not well-formed up to the point where all values are found
+     */
+    public static ExtractionResult extractFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                                 Map<FieldSpec, String> elementPaths) throws XMLStreamException {
+        return extractFields(inputStream, fields, elementPaths, UNLIMITED_DEPTH);
+    }
+
+    /**
+     * Extracts several fields from an XML byte stream in one pass, using known element paths
+     * and rejecting deeply nested documents. The stream is not closed.
+     *
+     * @param inputStream The XML data
+     * @param fields The fields to extract
+     * @param elementPaths Element paths to look up single-valued fields at, see
+     *                     {@link #extractFields(Reader, Collection, Map)}
+     * @param maxDepth The maximum element depth
+     * @return The values found and the element paths that supplied them
+     * @throws XMLStreamException if the data is not well-formed or nested deeper than {@code maxDepth}
+     *                            up to the point where all values are found
+     */
+    public static ExtractionResult extractFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                                 Map<FieldSpec, String> elementPaths, int maxDepth)
+            throws XMLStreamException {
+        return extractFields(inputStream, fields, elementPaths, maxDepth, null);
+    }
+
+    /**
+     * Extracts several fields from an XML byte stream in one pass while streaming the whole
+     * document to a handler. The stream is not closed.
+     *
+     * @param inputStream The XML data
+     * @param fields The fields to extract
+     * @param elementPaths Element paths to look up single-valued fields at, see
+     *                     {@link #extractFields(Reader, Collection, Map)}
+     * @param maxDepth The maximum element depth
+     * @param handler The handler receiving the document, or null
+     * @return The values found and the element paths that supplied them
+     * @throws XMLStreamException if the data is not well-formed or nested deeper than {@code maxDepth}
+     */
+    public static ExtractionResult extractFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                                 Map<FieldSpec, String> elementPaths, int maxDepth,
+                                                 DraftEnricher.Handler handler) throws XMLStreamException {
+        XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            return extractFields(xml, fields, elementPaths, maxDepth, false, handler);
+        } finally {
+            xml.close();
+        }
+    }
+
+    /**
+     * Scans an XML byte stream for fields that can be determined from the data read so far.
+     * Reading stops at the end of the stream, at the first well-formedness error or when
+     * {@code maxDepth} is exceeded. If the document was read completely the result equals
+     * that of {@link #extractFields(InputStream, Collection, Map, int)}; otherwise only
+     * fields whose value could no longer change are reported, which excludes multi-valued
+     * fields. The stream is not closed.
+     *
+     * @param inputStream The XML data, possibly cut short
+     * @param fields The fields to extract
+     * @param elementPaths Element paths to look up single-valued fields at, see
+     *                     {@link #extractFields(Reader, Collection, Map)}
+     * @param maxDepth The maximum element depth
+     * @return The values determined and the element paths that supplied them
+     * @throws XMLStreamException if the stream cannot be read at all
+     */
+    public static ExtractionResult scanFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                              Map<FieldSpec, String> elementPaths, int maxDepth)
+            throws XMLStreamException {
+        return scanFields(inputStream, fields, elementPaths, maxDepth, null);
+    }
+
+    /**
+     * Scans an XML byte stream for fields, see {@link #scanFields(InputStream, Collection, Map, int)},
+     * while streaming the data read to a handler. The stream is not closed.
+     *
+     * @param inputStream The XML data, possibly cut short
+     * @param fields The fields to extract
+     * @param elementPaths Element paths to look up single-valued fields at, see
+     *                     {@link #extractFields(Reader, Collection, Map)}
+     * @param maxDepth The maximum element depth
+     * @param handler The handler receiving the data read, or null
+     * @return The values determined and the element paths that supplied them
+     * @throws XMLStreamException if the stream cannot be read at all
+     */
+    public static ExtractionResult scanFields(InputStream inputStream, Collection<FieldSpec> fields,
+                                              Map<FieldSpec, String> elementPaths, int maxDepth,
+                                              DraftEnricher.Handler handler) throws XMLStreamException {
+        XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            return extractFields(xml, fields, elementPaths, maxDepth, true, handler);
+        } finally {
+            xml.close();
+        }
+    }
+
+    private static ExtractionResult extractFields(XMLStreamReader xml, Collection<FieldSpec> fields,
+                                                  Map<FieldSpec, String> elementPaths, int maxDepth,
+                                                  boolean scan, DraftEnricher.Handler handler)
+            throws XMLStreamException {
+        ElementStack elements = new ElementStack();
+        Matcher[] matchers = new Matcher[fields.size()];
+        int index = 0;
+        for (FieldSpec field : fields) {
+            String elementPath = field.isPath() || field.isMultiValued() ? null : elementPaths.get(field);
+            if (elementPath != null) {
+                matchers[index++] = new ElementPathMatcher(field, elementPath);
+            } else if (field.isPath() || field.isMultiValued()) {
+                matchers[index++] = new PathMatcher(field);
+            } else {
+                matchers[index++] = new FirstMatchMatcher(field);
+            }
+        }
+        int unresolved = matchers.length;
+
+        boolean complete = true;
+        try {
+            while ((unresolved > 0 || handler != null) && xml.hasNext()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (elements.depth >= maxDepth) {
+                            throw new DepthLimitException(maxDepth, xml.getLocation());
+                        }
+                        String qName = xml.getLocalName();
+                        int localStart = qName.indexOf(':') + 1;
+                        for (Matcher matcher : matchers) {
+                            if (!matcher.resolved) {
+                                matcher.startElement(elements, qName, localStart);
+                            }
+                        }
+                        if (handler != null) {
+                            handler.startElement(qName, elements.depth);
+                        }
+                        elements.push(qName, localStart);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        for (Matcher matcher : matchers) {
+                            if (matcher.openCaptures > 0) {
+                                matcher.text(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                            }
+                        }
+                        if (handler != null) {
+                            handler.text(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        elements.pop();
+                        for (Matcher matcher : matchers) {
+                            if (matcher.openCaptures > 0 && matcher.endElement(elements.depth)) {
+                                unresolved--;
+                            }
+                        }
+                        if (handler != null) {
+                            handler.endElement(xml.getLocalName(), elements.depth);
+                        }
+                        break;
+                    case XMLStreamConstants.DTD:
+                        // Same policy as disallow-doctype-decl on the DOM parser
+                        throw new XMLStreamException("DOCTYPE is not allowed in draft data", xml.getLocation());
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            if (!scan) {
+                throw e;
+            }
+            complete = false;
+        }
+
+        Map<FieldSpec, List<String>> values = new LinkedHashMap<>();
+        Map<FieldSpec, String> matchedPaths = new LinkedHashMap<>();
+        for (Matcher matcher : matchers) {
+            if (!matcher.resolved) {
+                if (!complete) {
+                    continue;
+                }
+                matcher.finish();
+            }
+            if (!matcher.values.isEmpty()) {
+                values.put(matcher.field, matcher.values);
+                if (matcher.elementPath != null) {
+                    matchedPaths.put(matcher.field, matcher.elementPath);
+                }
+            }
+        }
+        return new ExtractionResult(values, matchedPaths, complete);
+    }
+
+    private static String firstValue(Map<FieldSpec, List<String>> values) {
+        return values.isEmpty() ? null : values.values().iterator().next().get(0);
+    }
+
+    /**
+     * Creates a namespace-unaware StAX factory with DTD processing and external
+     * entities disabled. Configured factories are safe to share between threads.
+     */
+    private static XMLInputFactory newSecureInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static boolean localNameEquals(String qName, int localStart, String name) {
+        return qName.length() - localStart == name.length() && qName.startsWith(name, localStart);
+    }
+
+    /**
+     * Thrown when a document is nested deeper than the maximum element depth. The document
+     * may be well-formed, it was just not parsed to its end.
+     */
+    public static final class DepthLimitException extends XMLStreamException {
+
+        private static final long serialVersionUID = 1L;
+
+        DepthLimitException(int maxDepth, Location location) {
+            super("Element depth exceeds " + maxDepth, location);
+        }
+    }
+
+    /**
+     * The currently open elements, with the ancestor state the XPath patterns depend on.
+     */
+    private static final class ElementStack {
+
+        private static final int AF_CHAIN_MASK = 3;
+        private static final int AF_DATA_ELEMENT = 1;
+        private static final int AF_BOUND_DATA_ELEMENT = 2;
+        private static final int BOUND_DATA_ELEMENT = 3;
+        private static final int DATA_ELEMENT = 4;
+
+        private String[] names = new String[32];
+        private int[] localStarts = new int[32];
+        private int[] flags = new int[32];
+        private int depth;
+        private int openBoundData;
+        private int openData;
+
+        void push(String qName, int localStart) {
+            int parentChain = depth > 0 ? flags[depth - 1] & AF_CHAIN_MASK : 0;
+            int elementFlags = 0;
+            if (localNameEquals(qName, localStart, AF_DATA)) {
+                elementFlags = AF_DATA_ELEMENT;
+            } else if (parentChain == AF_DATA_ELEMENT && localNameEquals(qName, localStart, AF_BOUND_DATA)) {
+                elementFlags = AF_BOUND_DATA_ELEMENT;
+            } else if (parentChain == AF_BOUND_DATA_ELEMENT && localNameEquals(qName, localStart, DATA)) {
+                elementFlags = BOUND_DATA_ELEMENT;
+                openBoundData++;
+            }
+            if (localNameEquals(qName, localStart, DATA)) {
+                elementFlags |= DATA_ELEMENT;
+                openData++;
+            }
+            if (depth == names.length) {
+                names = Arrays.copyOf(names, depth * 2);
+                localStarts = Arrays.copyOf(localStarts, depth * 2);
+                flags = Arrays.copyOf(flags, depth * 2);
+            }
+            names[depth] = qName;
+            localStarts[depth] = localStart;
+            flags[depth++] = elementFlags;
+        }
+
+        void pop() {
+            int elementFlags = flags[--depth];
+            names[depth] = null;
+            if ((elementFlags & AF_CHAIN_MASK) == BOUND_DATA_ELEMENT) {
+                openBoundData--;
+            }
+            if ((elementFlags & DATA_ELEMENT) != 0) {
+                openData--;
+            }
+        }
+
+        /**
+         * @return the slash separated qualified names of the open elements followed by {@code qName}
+         */
+        String pathOf(String qName) {
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+                path.append(names[i]).append('/');
+            }
+            return path.append(qName).toString();
+        }
+
+        /**
+         * @return true if the open elements have exactly the given qualified names
+         */
+        boolean equalsPath(String[] path, int length) {
+            if (length != depth) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!names[i].equals(path[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the innermost open elements have the given local names
+         */
+        boolean endsWith(String[] path, int length) {
+            if (length > depth) {
+                return false;
+            }
+            for (int i = 1; i <= length; i++) {
+                int element = depth - i;
+                if (!localNameEquals(names[element], localStarts[element], path[length - i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Text content collected for one matching element.
+     */
+    private static final class Capture {
+
+        final int depth;
+        final String path;
+        final StringBuilder text = new StringBuilder();
+        boolean closed;
+
+        Capture(int depth, String path) {
+            this.depth = depth;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Collects the value(s) of one field while the document is streamed.
+     */
+    private abstract static class Matcher {
+
+        final FieldSpec field;
+        final List<String> values = new ArrayList<>(1);
+        final List<Capture> captures = new ArrayList<>(4);
+        int openCaptures;
+        boolean resolved;
+        String elementPath;
+
+        Matcher(FieldSpec field) {
+            this.field = field;
+        }
+
+        /**
+         * Called before the element is pushed, so {@code ancestors} holds its ancestors.
+         */
+        abstract void startElement(ElementStack ancestors, String qName, int localStart);
+
+        /**
+         * Called after the element is popped.
+         *
+         * @return true if this end tag resolved the field
+         */
+        abstract boolean endElement(int depth);
+
+        /**
+         * Resolves the field at the end of the document.
+         */
+        abstract void finish();
+
+        void text(char[] chars, int start, int length) {
+            for (int i = 0; i < captures.size(); i++) {
+                Capture capture = captures.get(i);
+                if (!capture.closed) {
+                    capture.text.append(chars, start, length);
+                }
+            }
+        }
+
+        Capture open(int depth, String path) {
+            Capture capture = new Capture(depth, path);
+            captures.add(capture);
+            openCaptures++;
+            return capture;
+        }
+
+        boolean close(int depth) {
+            boolean closed = false;
+            for (int i = 0; i < captures.size(); i++) {
+                Capture capture = captures.get(i);
+                if (!capture.closed && capture.depth == depth) {
+                    capture.closed = true;
+                    openCaptures--;
+                    closed = true;
+                }
+            }
+            return closed;
+        }
+
+        void markResolved() {
+            resolved = true;
+            captures.clear();
+            openCaptures = 0;
+        }
+    }
+
+    /**
+     * Emulates the four XPath patterns for a plain, single-valued field name.
+     */
+    private static final class FirstMatchMatcher extends Matcher {
+
+        private final Capture[] firstMatch = new Capture[4];
+
+        FirstMatchMatcher(FieldSpec field) {
+            super(field);
+        }
+
+        @Override
+        void startElement(ElementStack ancestors, String qName, int localStart) {
+            // Like the DOM XPath engine, single-step "//field" compares the qualified name
+            // while the other patterns compare the part after any prefix
+            if (localNameEquals(qName, localStart, field.getFieldName())) {
+                Capture capture = offer(0, localStart == 0, null, ancestors, qName);
+                capture = offer(1, true, capture, ancestors, qName);
+                capture = offer(2, ancestors.openBoundData > 0, capture, ancestors, qName);
+                offer(3, ancestors.openData > 0, capture, ancestors, qName);
+            }
+        }
+
+        @Override
+        boolean endElement(int depth) {
+            return close(depth) && resolve(false);
+        }
+
+        @Override
+        void finish() {
+            resolve(true);
+        }
+
+        /**
+         * Resolves the patterns in priority order.
+         *
+         * @param endOfDocument whether the whole document has been read
+         * @return false if a later part of the document could still change the result
+         */
+        private boolean resolve(boolean endOfDocument) {
+            for (Capture capture : firstMatch) {
+                if (capture == null) {
+                    if (endOfDocument) {
+                        continue;
+                    }
+                    return false;
+                }
+                if (!capture.closed) {
+                    return false;
+                }
+                String text = capture.text.toString().trim();
+                if (!text.isEmpty()) {
+                    values.add(text);
+                    elementPath = capture.path;
+                    break;
+                }
+            }
+            markResolved();
+            return true;
+        }
+
+        private Capture offer(int pattern, boolean matches, Capture shared, ElementStack ancestors, String qName) {
+            if (!matches || firstMatch[pattern] != null) {
+                return shared;
+            }
+            Capture capture = shared != null ? shared : open(ancestors.depth, ancestors.pathOf(qName));
+            firstMatch[pattern] = capture;
+            return capture;
+        }
+    }
+
+    /**
+     * Matches a field by its name and parent element names, collecting the first or all
+     * non-blank values.
+     */
+    private static final class PathMatcher extends Matcher {
+
+        PathMatcher(FieldSpec field) {
+            super(field);
+        }
+
+        @Override
+        void startElement(ElementStack ancestors, String qName, int localStart) {
+            String[] path = field.getPath();
+            if (localNameEquals(qName, localStart, field.getFieldName())
+                    && ancestors.endsWith(path, path.length - 1)) {
+                open(ancestors.depth, null);
+            }
+        }
+
+        @Override
+        boolean endElement(int depth) {
+            for (int i = captures.size() - 1; i >= 0; i--) {
+                Capture capture = captures.get(i);
+                if (capture.depth == depth) {
+                    close(depth);
+                    captures.remove(i);
+                    String text = capture.text.toString().trim();
+                    if (!text.isEmpty()) {
+                        values.add(text);
+                        if (!field.isMultiValued()) {
+                            markResolved();
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void finish() {
+            resolved = true;
+        }
+    }
+
+    /**
+     * Matches a single-valued field only at a known element path, taking the first non-blank value.
+     */
+    private static final class ElementPathMatcher extends Matcher {
+
+        private final String[] path;
+
+        ElementPathMatcher(FieldSpec field, String elementPath) {
+            super(field);
+            this.path = elementPath.split("/");
+            this.elementPath = elementPath;
+        }
+
+        @Override
+        void startElement(ElementStack ancestors, String qName, int localStart) {
+            if (qName.equals(path[path.length - 1]) && ancestors.equalsPath(path, path.length - 1)) {
+                open(ancestors.depth, null);
+            }
+        }
+
+        @Override
+        boolean endElement(int depth) {
+            for (int i = captures.size() - 1; i >= 0; i--) {
+                Capture capture = captures.get(i);
+                if (capture.depth == depth) {
+                    close(depth);
+                    captures.remove(i);
+                    String text = capture.text.toString().trim();
+                    if (!text.isEmpty()) {
+                        values.add(text);
+                        markResolved();
+                        return true;
+                    }
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void finish() {
+            resolved = true;
+        }
+    }
+}
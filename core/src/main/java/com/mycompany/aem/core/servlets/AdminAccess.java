@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.util.Iterator;
+
+/**
+ * Access check of the diagnostic servlets, which expose request paths of all users and are
+ * registered by path, so that no repository ACL applies to them.
+ */
+final class AdminAccess {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdminAccess.class);
+
+    static final String ADMINISTRATORS = "administrators";
+
+    private AdminAccess() {
+    }
+
+    /**
+     * @return Whether the user of a resolver is the admin user or a member of the administrators group
+     */
+    static boolean isAdministrator(ResourceResolver resolver) {
+        User user = resolver.adaptTo(User.class);
+        if (user == null) {
+            return false;
+        }
+        if (user.isAdmin()) {
+            return true;
+        }
+        try {
+            Iterator<Group> groups = user.memberOf();
+            while (groups.hasNext()) {
+                if (ADMINISTRATORS.equals(groups.next().getID())) {
+                    return true;
+                }
+            }
+        } catch (RepositoryException e) {
+            LOG.warn("Cannot read the groups of user {}: {}", resolver.getUserID(), e.getMessage());
+        }
+        return false;
+    }
+}
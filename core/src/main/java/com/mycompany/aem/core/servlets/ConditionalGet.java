@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.mycompany.aem.core.utils.Fnv1a;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Calendar;
+
+/**
+ * Validators for conditional GET requests.
+ * <p>
+ * The entity tag is a 64-bit FNV-1a hash of the values a response is rendered from, fed
+ * in rendering order, and the last modification time is the latest one seen. Both are
+ * known before the body is written, so a response can be answered with 304 Not Modified
+ * without rendering it. {@code If-None-Match} takes precedence over
+ * {@code If-Modified-Since}, as in RFC 7232.
+ * <p>
+ * A response listing resources changes when one of them is removed, without any remaining
+ * one being modified. Such responses use an {@link #entityTagOnly()} validator, which feeds
+ * the modification times into the entity tag only.
+ */
+final class ConditionalGet {
+
+    private final boolean validatesLastModified;
+    private long hash = Fnv1a.OFFSET_BASIS;
+    private long lastModified = -1;
+
+    ConditionalGet() {
+        this(true);
+    }
+
+    private ConditionalGet(boolean validatesLastModified) {
+        this.validatesLastModified = validatesLastModified;
+    }
+
+    /**
+     * @return A validator that sends no {@code Last-Modified} header and ignores
+     *         {@code If-Modified-Since}, for responses listing resources
+     */
+    static ConditionalGet entityTagOnly() {
+        return new ConditionalGet(false);
+    }
+
+    /**
+     * @param value A value the response depends on, or null
+     * @return This validator
+     */
+    ConditionalGet update(String value) {
+        if (value == null) {
+            return update(0xffff);
+        }
+        hash = Fnv1a.update(hash, value);
+        // Separates consecutive values, so that "ab", "c" differs from "a", "bc"
+        return update(0xfffe);
+    }
+
+    /**
+     * @param time A modification time the response depends on, or null
+     * @return This validator
+     */
+    ConditionalGet modified(Calendar time) {
+        if (time == null) {
+            return update(null);
+        }
+        long millis = time.getTimeInMillis();
+        lastModified = Math.max(lastModified, millis);
+        return update(Long.toString(millis));
+    }
+
+    private ConditionalGet update(int marker) {
+        hash = Fnv1a.update(hash, marker);
+        return this;
+    }
+
+    /**
+     * @return The weak entity tag of the values seen
+     */
+    String getETag() {
+        return "W/\"" + Long.toHexString(hash) + "\"";
+    }
+
+    /**
+     * @return The latest modification time seen, or -1; also tracked by entity tag only validators
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Sets the {@code ETag} and {@code Last-Modified} headers.
+     */
+    void writeHeaders(HttpServletResponse response) {
+        response.setHeader("ETag", getETag());
+        if (validatesLastModified && lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+    }
+
+    /**
+     * @return true if the client's copy is current and the request can be answered with 304
+     */
+    boolean isNotModified(HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String etag = opaqueTag(getETag());
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || opaqueTag(tag).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (!validatesLastModified) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a resolution of one second
+        return lastModified >= 0 && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static String opaqueTag(String tag) {
+        // Weak comparison, as required for If-None-Match
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mycompany.aem.core.services.DraftPage;
+import com.mycompany.aem.core.services.DraftQuery;
+import com.mycompany.aem.core.services.DraftQueryService;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletPaths;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Lists the current user's drafts as JSON, one page at a time, for the forms portal
+ * draft listing ({@code forms/portal/customDisplay}).
+ * <p>
+ * Parameters: {@code cursor} (the {@code next} value of the previous page), {@code limit}
+ * and {@code name} (a gathered draft name to filter by). Drafts come from
+ * {@link DraftQueryService}, so only one page is ever loaded, and the JSON is written with
+ * a streaming generator. The ETag is derived from the page before anything is rendered,
+ * and a request with a matching {@code If-None-Match} is answered with 304. There is no
+ * Last-Modified header, since deleting a draft would not make it advance.
+ */
+@Component(service = { Servlet.class })
+@SlingServletPaths(DraftListServlet.PATH)
+@ServiceDescription("Draft Listing Servlet")
+@Designate(ocd = DraftListServlet.Config.class)
+public class DraftListServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(DraftListServlet.class);
+
+    static final String PATH = "/bin/my65site/drafts";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @ObjectClassDefinition(name = "My65site Draft Listing Servlet",
+                           description = "Lists the current user's drafts as JSON")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Field properties",
+                             description = "Draft metadata properties listed as fields of each draft, "
+                                 + "such as the properties gathered from the form data")
+        String[] field_properties() default { "myCustomPropertyName", "myCustomDraftNameGathered" };
+    }
+
+    @Reference
+    private transient DraftQueryService draftQueryService;
+
+    private String[] fieldProperties = new String[0];
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        fieldProperties = config.field_properties() != null ? config.field_properties() : new String[0];
+    }
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws IOException {
+        String user = req.getResourceResolver().getUserID();
+        if (user == null || "anonymous".equals(user)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String cursor = req.getParameter("cursor");
+        DraftPage page;
+        try {
+            page = draftQueryService.findDrafts(req.getResourceResolver(), DraftQuery.builder()
+                .owner(user)
+                .gatheredName(req.getParameter("name"))
+                .after(cursor)
+                .limit(parseLimit(req.getParameter("limit")))
+                .build());
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Invalid draft listing request: {}", e.getMessage());
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        String[] fields = fieldProperties;
+        ConditionalGet validator = ConditionalGet.entityTagOnly()
+            .update(user)
+            .update(cursor)
+            .update(page.getNextCursor())
+            .update(Arrays.toString(fields));
+        for (Resource draft : page.getDrafts()) {
+            ValueMap properties = draft.getValueMap();
+            validator.update(draft.getPath())
+                .update(properties.get("name", String.class))
+                .update(properties.get("formPath", String.class))
+                .modified(properties.get("jcr:lastModified", Calendar.class));
+            for (String field : fields) {
+                validator.update(Arrays.toString(properties.get(field, String[].class)));
+            }
+        }
+        validator.writeHeaders(resp);
+        resp.setHeader("Cache-Control", "private, no-cache");
+        if (validator.isNotModified(req)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        try (JsonGenerator json = JSON.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("drafts");
+            for (Resource draft : page.getDrafts()) {
+                writeDraft(json, draft, fields);
+            }
+            json.writeEndArray();
+            json.writeStringField("next", page.getNextCursor());
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeDraft(JsonGenerator json, Resource draft, String[] fields) throws IOException {
+        ValueMap properties = draft.getValueMap();
+        json.writeStartObject();
+        json.writeStringField("id", draft.getName());
+        json.writeStringField("name", properties.get("name", draft.getName()));
+        json.writeStringField("formPath", properties.get("formPath", String.class));
+        Calendar lastModified = properties.get("jcr:lastModified", Calendar.class);
+        json.writeStringField("lastModified",
+            lastModified != null ? Instant.ofEpochMilli(lastModified.getTimeInMillis()).toString() : null);
+        json.writeObjectFieldStart("fields");
+        for (String field : fields) {
+            Object value = properties.get(field);
+            if (value instanceof Object[]) {
+                json.writeArrayFieldStart(field);
+                for (String item : properties.get(field, String[].class)) {
+                    json.writeString(item);
+                }
+                json.writeEndArray();
+            } else if (value != null) {
+                json.writeStringField(field, properties.get(field, String.class));
+            }
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static int parseLimit(String limit) {
+        if (limit == null || limit.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limit, e);
+        }
+    }
+}
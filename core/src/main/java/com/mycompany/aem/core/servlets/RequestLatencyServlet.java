@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mycompany.aem.core.metrics.LatencyHistogram;
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics;
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics.RequestType;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletPaths;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reports the request latencies recorded by the request filter as JSON, most frequent
+ * request type first. Latencies are in microseconds. Only administrators may read them.
+ */
+@Component(service = { Servlet.class })
+@SlingServletPaths(RequestLatencyServlet.PATH)
+@ServiceDescription("Request Latency Servlet")
+public class RequestLatencyServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String PATH = "/bin/my65site/request-latency";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Reference
+    private transient RequestLatencyMetrics metrics;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws IOException {
+        if (!AdminAccess.isAdministrator(req.getResourceResolver())) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        try (JsonGenerator json = JSON.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("types");
+            for (Map.Entry<RequestType, LatencyHistogram> entry : metrics.getHistograms()) {
+                RequestType type = entry.getKey();
+                LatencyHistogram histogram = entry.getValue();
+                json.writeStartObject();
+                json.writeStringField("type", type.toString());
+                json.writeStringField("resourceType", type.getResourceType());
+                json.writeStringField("selectors", type.getSelectors());
+                json.writeStringField("extension", type.getExtension());
+                json.writeNumberField("count", histogram.getCount());
+                json.writeNumberField("meanMicros", histogram.getMeanMicros());
+                json.writeNumberField("p50", histogram.getPercentileMicros(50));
+                json.writeNumberField("p95", histogram.getPercentileMicros(95));
+                json.writeNumberField("p99", histogram.getPercentileMicros(99));
+                json.writeNumberField("max", histogram.getMaxMicros());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeNumberField("overflow", metrics.getOverflowCount());
+            json.writeEndObject();
+        }
+    }
+}
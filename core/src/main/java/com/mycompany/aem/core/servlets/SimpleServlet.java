@@ -16,6 +16,8 @@
 package com.mycompany.aem.core.servlets;
 
 import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
@@ -28,13 +30,27 @@ import org.osgi.service.component.propertytypes.ServiceDescription;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Servlet that writes some sample content into the response. It is mounted for
  * all resources of a specific Sling resource type. The
  * {@link SlingSafeMethodsServlet} shall be used for HTTP methods that are
  * idempotent. For write operations use the {@link SlingAllMethodsServlet}.
+ * <p>
+ * With the {@code subtree} selector it writes the title of every page in the subtree of the
+ * current page instead, one tab separated line per page, down to {@code depth} levels and
+ * at most {@code limit} pages. The optional {@code properties} parameter adds page
+ * properties to each line. Subtree responses carry an ETag derived from the paths and
+ * modification dates of the pages listed, so that they can be revalidated. They carry no
+ * Last-Modified header: a page removed from the subtree would not make it advance.
  */
 @Component(service = { Servlet.class })
 @SlingServletResourceTypes(
@@ -46,11 +62,124 @@ public class SimpleServlet extends SlingSafeMethodsServlet {
 
     private static final long serialVersionUID = 1L;
 
+    static final String SUBTREE_SELECTOR = "subtree";
+    static final int DEFAULT_DEPTH = 1;
+    static final int MAX_DEPTH = 10;
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
     @Override
     protected void doGet(final SlingHttpServletRequest req,
             final SlingHttpServletResponse resp) throws ServletException, IOException {
         final Resource resource = req.getResource();
+        if (Arrays.asList(req.getRequestPathInfo().getSelectors()).contains(SUBTREE_SELECTOR)) {
+            writeSubtree(req, resp);
+            return;
+        }
         resp.setContentType("text/plain");
         resp.getWriter().write("Title = " + resource.getValueMap().get(JcrConstants.JCR_TITLE));
     }
+
+    private void writeSubtree(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws IOException {
+        final int depth;
+        final int limit;
+        try {
+            depth = parseParameter(req.getParameter("depth"), DEFAULT_DEPTH, 0, MAX_DEPTH);
+            limit = parseParameter(req.getParameter("limit"), DEFAULT_LIMIT, 1, MAX_LIMIT);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        final String[] properties = parseProperties(req.getParameter("properties"));
+
+        final PageManager pageManager = req.getResourceResolver().adaptTo(PageManager.class);
+        final Page root = pageManager != null ? pageManager.getContainingPage(req.getResource()) : null;
+        if (root == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // The validators have to be sent before the body, so the pages are collected first
+        final List<Page> pages = new ArrayList<>();
+        collectPages(root, depth, limit, pages);
+        final ConditionalGet validator = ConditionalGet.entityTagOnly()
+            .update(Integer.toString(depth))
+            .update(Integer.toString(limit))
+            .update(Arrays.toString(properties));
+        for (Page page : pages) {
+            validator.update(page.getPath()).modified(getLastModified(page));
+        }
+        validator.writeHeaders(resp);
+        if (validator.isNotModified(req)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        final PrintWriter writer = resp.getWriter();
+        for (Page page : pages) {
+            writer.append(page.getPath()).append('\t').append(clean(page.getTitle()));
+            for (String property : properties) {
+                writer.append('\t').append(property).append('=')
+                    .append(clean(page.getProperties().get(property, String.class)));
+            }
+            writer.append('\n');
+        }
+    }
+
+    private static void collectPages(Page page, int depth, int limit, List<Page> pages) {
+        pages.add(page);
+        if (depth == 0) {
+            return;
+        }
+        Iterator<Page> children = page.listChildren();
+        while (children.hasNext() && pages.size() < limit) {
+            collectPages(children.next(), depth - 1, limit, pages);
+        }
+    }
+
+    /**
+     * @return The last modification of a page, falling back to that of its content node
+     */
+    private static Calendar getLastModified(Page page) {
+        Calendar lastModified = page.getLastModified();
+        if (lastModified == null) {
+            lastModified = page.getProperties().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        }
+        return lastModified;
+    }
+
+    private static int parseParameter(String value, int defaultValue, int min, int max) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min) {
+                return Math.min(parsed, max);
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid parameter value: " + value);
+    }
+
+    private static String[] parseProperties(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return new String[0];
+        }
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .filter(property -> !property.isEmpty())
+            .toArray(String[]::new);
+    }
+
+    /**
+     * @return The value with tabs and line breaks replaced, so that it stays in its column
+     */
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mycompany.aem.core.filters.SlowRequest;
+import com.mycompany.aem.core.filters.SlowRequestTracer;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletPaths;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps the requests captured by {@link SlowRequestTracer} as JSON: the slowest requests
+ * first, then the most recent ones. A POST forgets the slowest requests. The paths may
+ * name users, so only administrators may read or reset them.
+ */
+@Component(service = { Servlet.class })
+@SlingServletPaths(SlowRequestServlet.PATH)
+@ServiceDescription("Slow Request Servlet")
+public class SlowRequestServlet extends SlingAllMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String PATH = "/bin/my65site/slow-requests";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Reference
+    private transient SlowRequestTracer tracer;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws IOException {
+        if (!AdminAccess.isAdministrator(req.getResourceResolver())) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        try (JsonGenerator json = JSON.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            json.writeNumberField("thresholdMs", tracer.getThresholdMillis());
+            json.writeNumberField("captured", tracer.getCaptureCount());
+            writeRequests(json, "slowest", tracer.getSlowest());
+            writeRequests(json, "recent", tracer.getRecent());
+            json.writeEndObject();
+        }
+    }
+
+    @Override
+    protected void doPost(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws IOException {
+        if (!AdminAccess.isAdministrator(req.getResourceResolver())) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        tracer.resetSlowest();
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    private static void writeRequests(JsonGenerator json, String name, List<SlowRequest> requests)
+            throws IOException {
+        json.writeArrayFieldStart(name);
+        for (SlowRequest request : requests) {
+            json.writeStartObject();
+            json.writeStringField("time", Instant.ofEpochMilli(request.getTimestamp()).toString());
+            json.writeStringField("method", request.getMethod());
+            json.writeStringField("path", request.getPath());
+            json.writeStringField("selectors", request.getSelectors());
+            json.writeStringField("extension", request.getExtension());
+            json.writeStringField("resourceType", request.getResourceType());
+            json.writeNumberField("status", request.getStatus());
+            json.writeNumberField("durationMs", TimeUnit.NANOSECONDS.toMillis(request.getDurationNanos()));
+            json.writeNumberField("cpuTimeMs", request.getCpuTimeNanos() < 0
+                ? -1 : TimeUnit.NANOSECONDS.toMillis(request.getCpuTimeNanos()));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.utils;
+
+/**
+ * The 64-bit FNV-1a hash: fast and well distributed, but not cryptographic. Used where a
+ * compact identity of some data is needed, such as payload digests and entity tags.
+ * <p>
+ * A hash starts at {@link #OFFSET_BASIS} and is updated with one value (a byte or a char) at
+ * a time, so that data can be hashed as it is streamed.
+ */
+public final class Fnv1a {
+
+    /**
+     * The hash of no data, where every hash starts.
+     */
+    public static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fnv1a() {
+        // static methods only
+    }
+
+    /**
+     * @param value The string to hash
+     * @return The hash of the chars of the string
+     */
+    public static long hash(CharSequence value) {
+        return update(OFFSET_BASIS, value);
+    }
+
+    /**
+     * @param hash The hash so far
+     * @param value The next value, e.g. a byte as an unsigned value or a char
+     * @return The updated hash
+     */
+    public static long update(long hash, int value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    /**
+     * @param hash The hash so far
+     * @param value The next chars
+     * @return The updated hash
+     */
+    public static long update(long hash, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash The hash so far
+     * @param bytes The buffer holding the next bytes
+     * @param offset The index of the first byte
+     * @param length The number of bytes
+     * @return The updated hash
+     */
+    public static long update(long hash, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+}
@@ -22,6 +22,9 @@ import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 
+import com.mycompany.aem.core.metrics.LatencyHistogram;
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics;
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics.RequestType;
 import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
@@ -37,6 +40,7 @@ import uk.org.lidalia.slf4jtest.TestLogger;
 import uk.org.lidalia.slf4jtest.TestLoggerFactory;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.mock;
 
 @ExtendWith(AemContextExtension.class)
@@ -73,4 +77,24 @@ class LoggingFilterTest {
         assertEquals("/content/test", event.getArguments().get(0));
         assertEquals("selectors", event.getArguments().get(1));
     }
+
+    @Test
+    void recordsLatencyPerRequestType(AemContext context) throws IOException, ServletException {
+        RequestLatencyMetrics metrics = context.registerInjectActivateService(new RequestLatencyMetrics());
+        LoggingFilter filter = context.registerInjectActivateService(new LoggingFilter());
+        context.build().resource("/content/test", "sling:resourceType", "my65site/components/page").commit();
+        context.currentResource("/content/test");
+        MockSlingHttpServletRequest request = context.request();
+        MockRequestPathInfo requestPathInfo = (MockRequestPathInfo) request.getRequestPathInfo();
+        requestPathInfo.setSelectorString("print");
+        requestPathInfo.setExtension("html");
+
+        filter.doFilter(request, context.response(), mock(FilterChain.class));
+        filter.doFilter(request, context.response(), mock(FilterChain.class));
+
+        LatencyHistogram histogram = metrics.getHistogram(
+            new RequestType("my65site/components/page", "print", "html"));
+        assertNotNull(histogram);
+        assertEquals(2, histogram.getCount());
+    }
 }
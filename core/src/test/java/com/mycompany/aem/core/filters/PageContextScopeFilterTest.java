@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.day.cq.wcm.api.Page;
+import com.mycompany.aem.core.services.PageContextCache;
+import com.mycompany.aem.core.services.impl.PageContextCacheImpl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(AemContextExtension.class)
+class PageContextScopeFilterTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testScopeLastsForRequest() throws IOException, ServletException {
+        PageContextCache cache = context.registerInjectActivateService(new PageContextCacheImpl());
+        PageContextScopeFilter filter = context.registerInjectActivateService(new PageContextScopeFilter());
+        Page page = context.create().page("/content/site/page");
+        context.currentPage(page);
+        AtomicLong hitsDuringRequest = new AtomicLong();
+
+        filter.doFilter(context.request(), context.response(), (request, response) -> {
+            cache.getContainingPage(page.getContentResource());
+            cache.getContainingPage(page.getContentResource());
+            hitsDuringRequest.set(cache.getHitCount());
+        });
+        cache.getContainingPage(page.getContentResource());
+
+        assertEquals(1, hitsDuringRequest.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowRequestLogTest {
+
+    @Test
+    void testKeepsMostRecentAndSlowest() {
+        SlowRequestLog log = new SlowRequestLog(4, 2);
+        long[] durations = { 50, 10, 90, 20, 30, 40, 5 };
+        for (long duration : durations) {
+            add(log, duration);
+        }
+
+        List<SlowRequest> recent = log.getRecent();
+        assertEquals(4, recent.size());
+        assertEquals(5, recent.get(0).getDurationNanos());
+        assertEquals(20, recent.get(3).getDurationNanos());
+
+        List<SlowRequest> slowest = log.getSlowest();
+        assertEquals(2, slowest.size());
+        assertEquals(90, slowest.get(0).getDurationNanos());
+        assertEquals(50, slowest.get(1).getDurationNanos());
+        assertEquals(7, log.getCaptureCount());
+
+        log.resetSlowest();
+        assertTrue(log.getSlowest().isEmpty());
+        assertEquals(4, log.getRecent().size());
+    }
+
+    @Test
+    void testConcurrentCaptures() throws InterruptedException {
+        SlowRequestLog log = new SlowRequestLog(16, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    add(log, i * 4L + thread);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(4000, log.getCaptureCount());
+        assertEquals(16, log.getRecent().size());
+        List<SlowRequest> slowest = log.getSlowest();
+        assertEquals(5, slowest.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(3999 - i, slowest.get(i).getDurationNanos());
+        }
+    }
+
+    @Test
+    void testConcurrentCapturesAndResets() throws Exception {
+        SlowRequestLog log = new SlowRequestLog(16, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        AtomicBoolean capturing = new AtomicBoolean(true);
+        Future<?> resets = executor.submit(() -> {
+            while (capturing.get()) {
+                log.resetSlowest();
+            }
+        });
+        List<Future<?>> captures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            captures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    add(log, i);
+                }
+            }));
+        }
+        try {
+            for (Future<?> capture : captures) {
+                // Rethrows an exception of add, such as reading the fastest capture of an emptied set
+                capture.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            capturing.set(false);
+            executor.shutdown();
+        }
+        resets.get(10, TimeUnit.SECONDS);
+
+        assertEquals(80000, log.getCaptureCount());
+        assertTrue(log.getSlowest().size() <= 1);
+    }
+
+    private static void add(SlowRequestLog log, long duration) {
+        log.add(new SlowRequest(log.nextSequence(), System.currentTimeMillis(), "GET", "/content/test",
+            null, "html", null, 200, duration, -1));
+    }
+}
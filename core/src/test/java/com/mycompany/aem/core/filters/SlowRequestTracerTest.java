@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.filters;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+@ExtendWith(AemContextExtension.class)
+class SlowRequestTracerTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testCapturesRequestsOverThreshold() throws IOException, ServletException {
+        SlowRequestTracer tracer = context.registerInjectActivateService(new SlowRequestTracer(),
+            "threshold.ms", 0L);
+        context.build().resource("/content/test", "sling:resourceType", "my65site/components/page").commit();
+        context.currentResource("/content/test");
+        MockSlingHttpServletRequest request = context.request();
+        MockRequestPathInfo requestPathInfo = (MockRequestPathInfo) request.getRequestPathInfo();
+        requestPathInfo.setResourcePath("/content/test");
+        requestPathInfo.setSelectorString("print");
+        requestPathInfo.setExtension("html");
+        MockSlingHttpServletResponse response = context.response();
+
+        tracer.doFilter(request, response, (req, resp) -> response.setStatus(404));
+
+        List<SlowRequest> recent = tracer.getRecent();
+        assertEquals(1, recent.size());
+        SlowRequest captured = recent.get(0);
+        assertEquals("/content/test", captured.getPath());
+        assertEquals("print", captured.getSelectors());
+        assertEquals("html", captured.getExtension());
+        assertEquals("my65site/components/page", captured.getResourceType());
+        assertEquals(404, captured.getStatus());
+        assertTrue(captured.getDurationNanos() >= 0);
+        assertSame(captured, tracer.getSlowest().get(0));
+    }
+
+    @Test
+    void testIgnoresFastRequests() throws IOException, ServletException {
+        SlowRequestTracer tracer = context.registerInjectActivateService(new SlowRequestTracer(),
+            "threshold.ms", 60000L);
+
+        tracer.doFilter(context.request(), context.response(), mock(FilterChain.class));
+
+        assertEquals(0, tracer.getCaptureCount());
+        assertTrue(tracer.getRecent().isEmpty());
+        assertTrue(tracer.getSlowest().isEmpty());
+    }
+
+    @Test
+    void testCapturesFailedRequests() {
+        SlowRequestTracer tracer = context.registerInjectActivateService(new SlowRequestTracer(),
+            "threshold.ms", 0L);
+
+        assertThrows(ServletException.class, () -> tracer.doFilter(context.request(), context.response(),
+            (req, resp) -> {
+                throw new ServletException("failed");
+            }));
+
+        assertEquals(1, tracer.getCaptureCount());
+    }
+}
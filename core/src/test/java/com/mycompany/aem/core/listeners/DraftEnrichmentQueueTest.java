@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DraftEnrichmentQueueTest {
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private DraftEnrichmentQueue queue;
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void testCoalescesBurstPerPath() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(2);
+        queue = new DraftEnrichmentQueue(path -> {
+            handled.add(path);
+            latch.countDown();
+        }, 200, 2, 100);
+
+        for (int i = 0; i < 5; i++) {
+            queue.submit("/content/forms/fp/admin/drafts/metadata/A_af");
+        }
+        queue.submit("/content/forms/fp/admin/drafts/metadata/B_af");
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, handled.size(), "Should handle each path once per burst");
+        assertTrue(handled.contains("/content/forms/fp/admin/drafts/metadata/A_af"));
+        assertEquals(6, queue.getSubmittedCount());
+        assertEquals(4, queue.getCoalescedCount());
+        assertEquals(4 / 6.0, queue.getCoalesceRatio(), 0.0001);
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    void testHandlesOnCallingThreadWhenFull() {
+        queue = new DraftEnrichmentQueue(path -> handled.add(path + "@" + Thread.currentThread().getName()),
+            60000, 1, 1);
+
+        queue.submit("/a");
+        queue.submit("/b");
+
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(1, queue.getCallerRunsCount());
+        assertEquals("/b@" + Thread.currentThread().getName(), handled.get(0),
+            "Should not drop a change when the queue is full");
+    }
+}
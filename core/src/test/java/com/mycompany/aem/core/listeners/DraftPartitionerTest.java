@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.discovery.ClusterView;
+import org.apache.sling.discovery.InstanceDescription;
+import org.apache.sling.discovery.TopologyEvent;
+import org.apache.sling.discovery.TopologyView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class DraftPartitionerTest {
+
+    private static final int DRAFT_COUNT = 3000;
+
+    private final AemContext context = new AemContext();
+
+    private DraftPartitioner partitioner;
+
+    @BeforeEach
+    void setUp() {
+        partitioner = context.registerInjectActivateService(new DraftPartitioner());
+    }
+
+    @Test
+    void testUnknownTopologyHandlesLocalChangesOnly() {
+        String path = draftPath(1);
+
+        assertTrue(partitioner.isResponsible(path, false));
+        assertFalse(partitioner.isResponsible(path, true));
+        assertNull(partitioner.getOwner(path));
+        assertEquals(0, partitioner.getInstanceCount());
+    }
+
+    @Test
+    void testEachDraftHasExactlyOneOwner() {
+        List<DraftPartitioner> instances = new ArrayList<>();
+        for (String local : new String[] { "a", "b", "c" }) {
+            DraftPartitioner instance = new DraftPartitioner();
+            instance.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_INIT, view(local, "a", "b", "c")));
+            instances.add(instance);
+        }
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < DRAFT_COUNT; i++) {
+            String path = draftPath(i);
+            int responsible = 0;
+            for (DraftPartitioner instance : instances) {
+                // Local and external changes are routed alike once the topology is known
+                assertEquals(instance.isResponsible(path, false), instance.isResponsible(path, true));
+                if (instance.isResponsible(path, true)) {
+                    responsible++;
+                }
+            }
+            assertEquals(1, responsible, path);
+            owned.merge(instances.get(0).getOwner(path), 1, Integer::sum);
+        }
+        assertEquals(3, owned.size());
+        for (int count : owned.values()) {
+            assertTrue(count > DRAFT_COUNT / 6, "Drafts should be spread over all instances: " + owned);
+        }
+    }
+
+    @Test
+    void testJoiningInstanceOnlyTakesOverDrafts() {
+        partitioner.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_INIT, view("a", "a", "b", "c")));
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < DRAFT_COUNT; i++) {
+            before.put(draftPath(i), partitioner.getOwner(draftPath(i)));
+        }
+
+        partitioner.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_CHANGING, null));
+        assertEquals(0, partitioner.getInstanceCount());
+        assertFalse(partitioner.isResponsible(draftPath(1), true));
+
+        partitioner.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_CHANGED, view("a", "a", "b", "c", "d")));
+        assertEquals(4, partitioner.getInstanceCount());
+        int moved = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = partitioner.getOwner(entry.getKey());
+            if (!owner.equals(entry.getValue())) {
+                assertEquals("d", owner, "Drafts should only move to the joining instance");
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < DRAFT_COUNT / 2, "Moved " + moved);
+    }
+
+    @Test
+    void testLeavingInstanceOnlyGivesUpItsDrafts() {
+        partitioner.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_INIT, view("a", "a", "b", "c")));
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < DRAFT_COUNT; i++) {
+            before.put(draftPath(i), partitioner.getOwner(draftPath(i)));
+        }
+
+        partitioner.handleTopologyEvent(event(TopologyEvent.Type.TOPOLOGY_CHANGED, view("a", "a", "b")));
+
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!"c".equals(entry.getValue())) {
+                assertEquals(entry.getValue(), partitioner.getOwner(entry.getKey()));
+            }
+            assertEquals("a".equals(partitioner.getOwner(entry.getKey())),
+                partitioner.isResponsible(entry.getKey(), true));
+        }
+    }
+
+    private static String draftPath(int i) {
+        return "/content/forms/fp/user" + (i % 50) + "/drafts/metadata/DRAFT" + i + "_af";
+    }
+
+    private static TopologyEvent event(TopologyEvent.Type type, TopologyView newView) {
+        TopologyEvent event = mock(TopologyEvent.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getNewView()).thenReturn(newView);
+        return event;
+    }
+
+    private static TopologyView view(String local, String... slingIds) {
+        ClusterView cluster = mock(ClusterView.class);
+        List<InstanceDescription> instances = new ArrayList<>();
+        InstanceDescription localInstance = null;
+        for (String slingId : slingIds) {
+            InstanceDescription instance = mock(InstanceDescription.class);
+            when(instance.getSlingId()).thenReturn(slingId);
+            when(instance.getClusterView()).thenReturn(cluster);
+            instances.add(instance);
+            if (slingId.equals(local)) {
+                localInstance = instance;
+            }
+        }
+        when(cluster.getInstances()).thenReturn(instances);
+        TopologyView view = mock(TopologyView.class);
+        when(view.getLocalInstance()).thenReturn(localInstance);
+        return view;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DraftPathClassifierTest {
+
+    private final DraftPathClassifier classifier = DraftPathClassifier.DRAFT_METADATA;
+
+    @Test
+    void testMatchesDraftMetadataNodes() {
+        assertTrue(classifier.matches("/content/forms/fp/admin/drafts/metadata/TEST123_af"));
+        assertTrue(classifier.matches("/content/forms/fp/jdoe/drafts/metadata/X"));
+    }
+
+    @Test
+    void testRejectsOtherPaths() {
+        assertFalse(classifier.matches("/content/forms/fp/admin/drafts/data/TEST123_af"));
+        assertFalse(classifier.matches("/content/forms/fp/admin/drafts/metadata/TEST123_af/jcr:content"));
+        assertFalse(classifier.matches("/content/forms/fp/admin/drafts/metadata/"));
+        assertFalse(classifier.matches("/content/forms/fp/admin/drafts/metadata"));
+        assertFalse(classifier.matches("/content/forms/fp//drafts/metadata/TEST123_af"));
+        assertFalse(classifier.matches("/content/forms/fpx/admin/drafts/metadata/TEST123_af"));
+        assertFalse(classifier.matches("content/forms/fp/admin/drafts/metadata/TEST123_af"));
+        assertFalse(classifier.matches(""));
+        assertFalse(classifier.matches(null));
+    }
+
+    @Test
+    void testRejectsInvalidPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> new DraftPathClassifier("content/forms"));
+        assertThrows(IllegalArgumentException.class, () -> new DraftPathClassifier("/content//forms"));
+        assertThrows(IllegalArgumentException.class, () -> new DraftPathClassifier("/"));
+    }
+}
@@ -15,9 +15,19 @@
  */
 package com.mycompany.aem.core.listeners;
 
+import com.mycompany.aem.core.services.DraftEnrichmentService;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
 
 /**
  * Unit tests for DraftSaveListener.
@@ -30,8 +40,11 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
  * These are better suited for integration tests rather than unit tests.
  * This class provides basic structure validation.
  */
+@ExtendWith(AemContextExtension.class)
 class DraftSaveListenerTest {
 
+    private final AemContext context = new AemContext();
+
     @Test
     void testListenerInstantiation() {
         // Verify the listener can be instantiated
@@ -39,6 +52,22 @@ class DraftSaveListenerTest {
         assertNotNull(listener, "Listener should be instantiable");
     }
 
+    @Test
+    void testExternalChangesNeedKnownTopology() {
+        context.registerService(DraftEnrichmentService.class, mock(DraftEnrichmentService.class));
+        context.registerInjectActivateService(new DraftPartitioner());
+        DraftSaveListener listener = context.registerInjectActivateService(new DraftSaveListener(),
+            "quiet.window.ms", 60000L);
+
+        // Without a topology, only changes made on this instance are enriched here
+        listener.onChange(Arrays.asList(
+            new ResourceChange(ChangeType.ADDED, "/content/forms/fp/admin/drafts/metadata/A_af", false),
+            new ResourceChange(ChangeType.ADDED, "/content/forms/fp/admin/drafts/metadata/B_af", true)));
+
+        assertEquals(1, listener.getQueue().getSubmittedCount());
+        assertEquals(1, listener.getDelegatedCount());
+    }
+
     /**
      * Full integration test would require:
      * 1. Mock ResourceResolverFactory
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import com.day.cq.replication.ReplicationAction;
+import com.day.cq.replication.ReplicationActionType;
+import com.mycompany.aem.core.services.CacheWarmer;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(AemContextExtension.class)
+class ReplicationWarmupListenerTest {
+
+    private final AemContext context = new AemContext();
+
+    private CacheWarmer cacheWarmer;
+    private ReplicationWarmupListener listener;
+
+    @BeforeEach
+    void setUp() {
+        cacheWarmer = context.registerService(CacheWarmer.class, mock(CacheWarmer.class));
+        listener = context.registerInjectActivateService(new ReplicationWarmupListener());
+    }
+
+    @Test
+    void testWarmsActivatedPages() {
+        listener.handleEvent(new ReplicationAction(ReplicationActionType.ACTIVATE, "/content/my65site/us/en").toEvent());
+
+        verify(cacheWarmer).warm("/content/my65site/us/en", true);
+    }
+
+    @Test
+    void testWarmsAncestorsOfDeactivatedPages() {
+        listener.handleEvent(new ReplicationAction(ReplicationActionType.DEACTIVATE, "/content/my65site/us/old").toEvent());
+        listener.handleEvent(new ReplicationAction(ReplicationActionType.DELETE, "/content/my65site/us/gone").toEvent());
+
+        verify(cacheWarmer).warm("/content/my65site/us/old", false);
+        verify(cacheWarmer).warm("/content/my65site/us/gone", false);
+    }
+
+    @Test
+    void testIgnoresOtherActions() {
+        listener.handleEvent(new ReplicationAction(ReplicationActionType.TEST, "/content/my65site").toEvent());
+
+        verify(cacheWarmer, never()).warm(anyString(), anyBoolean());
+    }
+}
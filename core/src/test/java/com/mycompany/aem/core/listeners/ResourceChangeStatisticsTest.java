@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.listeners;
+
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResourceChangeStatisticsTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    void testPrefix() {
+        ResourceChangeStatistics statistics = new ResourceChangeStatistics(2, 10);
+
+        assertEquals("/content/forms", statistics.prefix("/content/forms/fp/admin"));
+        assertEquals("/content/forms", statistics.prefix("/content/forms"));
+        assertEquals("/content", statistics.prefix("/content"));
+        assertEquals("/", statistics.prefix("/"));
+    }
+
+    @Test
+    void testCountsPerTypeAndOrigin() {
+        ResourceChangeStatistics statistics = new ResourceChangeStatistics(3, 10);
+        statistics.record("/content/forms/fp/a", ChangeType.ADDED, false, NOW);
+        statistics.record("/content/forms/fp/a", ChangeType.CHANGED, false, NOW);
+        statistics.record("/content/forms/fp/b", ChangeType.CHANGED, true, NOW);
+        statistics.record("/content/forms/af/x", ChangeType.REMOVED, false, NOW);
+
+        ResourceChangeStatistics.Subtree drafts = statistics.getSubtree("/content/forms/fp");
+        assertEquals(3, drafts.getTotal());
+        assertEquals(1, drafts.getCount(ChangeType.ADDED, false));
+        assertEquals(1, drafts.getCount(ChangeType.CHANGED, false));
+        assertEquals(1, drafts.getCount(ChangeType.CHANGED, true));
+        assertEquals(2, drafts.getCount(ChangeType.CHANGED));
+        assertEquals(1, drafts.getExternalCount());
+        assertEquals(1, statistics.getSubtree("/content/forms/af").getCount(ChangeType.REMOVED));
+    }
+
+    @Test
+    void testRollingRate() {
+        ResourceChangeStatistics statistics = new ResourceChangeStatistics(1, 10);
+        for (int second = 0; second < 120; second++) {
+            for (int i = 0; i < 3; i++) {
+                statistics.record("/var/audit/" + i, ChangeType.ADDED, false, NOW + second * 1000L);
+            }
+            if (second >= 100) {
+                statistics.record("/content/x", ChangeType.CHANGED, false, NOW + second * 1000L);
+            }
+        }
+        long now = NOW + 120_000L;
+
+        assertEquals(3.0, statistics.getSubtree("/var").getRate(now), 0.0001);
+        assertEquals(20 / 60.0, statistics.getSubtree("/content").getRate(now), 0.0001);
+        // Nothing in the last minute
+        assertEquals(0.0, statistics.getSubtree("/var").getRate(now + 61_000L), 0.0001);
+        assertEquals(360, statistics.getSubtree("/var").getTotal());
+
+        List<ResourceChangeStatistics.Subtree> hottest = statistics.getHottest(1, now);
+        assertEquals(1, hottest.size());
+        assertEquals("/var", hottest.get(0).getPrefix());
+    }
+
+    @Test
+    void testCapsSubtrees() {
+        ResourceChangeStatistics statistics = new ResourceChangeStatistics(1, 2);
+        statistics.record("/a/x", ChangeType.ADDED, false, NOW);
+        statistics.record("/b/x", ChangeType.ADDED, false, NOW);
+        statistics.record("/c/x", ChangeType.ADDED, false, NOW);
+        statistics.record("/d/x", ChangeType.ADDED, false, NOW);
+        statistics.record("/a/y", ChangeType.ADDED, false, NOW);
+
+        assertEquals(3, statistics.getSubtreeCount());
+        assertEquals(2, statistics.getSubtree(ResourceChangeStatistics.OVERFLOW_SUBTREE).getTotal());
+        assertEquals(2, statistics.getSubtree("/a").getTotal());
+    }
+}
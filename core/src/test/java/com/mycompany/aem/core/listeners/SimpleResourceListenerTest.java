@@ -17,42 +17,58 @@ package com.mycompany.aem.core.listeners;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
-import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 
-import uk.org.lidalia.slf4jext.Level;
-import uk.org.lidalia.slf4jtest.LoggingEvent;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
 import uk.org.lidalia.slf4jtest.TestLogger;
 import uk.org.lidalia.slf4jtest.TestLoggerFactory;
 
+@ExtendWith(AemContextExtension.class)
 class SimpleResourceListenerTest {
 
+    private final AemContext context = new AemContext();
+
     private SimpleResourceListener fixture = new SimpleResourceListener();
 
     private TestLogger logger = TestLoggerFactory.getTestLogger(fixture.getClass());
 
     @Test
-    void handleEvent() {
-        
-        ResourceChange change = new ResourceChange(ChangeType.ADDED,"/content/test", false);
-        
-        fixture.onChange(Arrays.asList(change));
+    void handleEvent() throws Exception {
+        fixture = context.registerInjectActivateService(fixture, "subtree.depth", 3);
+        TestLoggerFactory.clear();
 
-        List<LoggingEvent> events = logger.getLoggingEvents();
-        assertEquals(1, events.size());
-        LoggingEvent event = events.get(0);
+        fixture.onChange(Arrays.asList(
+                new ResourceChange(ChangeType.ADDED, "/content/forms/fp/admin/drafts/metadata/A_af", false),
+                new ResourceChange(ChangeType.CHANGED, "/content/forms/fp/admin/drafts/metadata/A_af", true),
+                new ResourceChange(ChangeType.CHANGED, "/content/dam/image.png", false)));
 
+        TabularData hottest = fixture.getHottestSubtrees();
+        CompositeData forms = hottest.get(new Object[] { "/content/forms/fp" });
         assertAll(
-                () -> assertEquals(Level.DEBUG, event.getLevel()),
-                () -> assertEquals(3, event.getArguments().size()),
-                () -> assertEquals(ChangeType.ADDED, event.getArguments().get(0)),
-                () -> assertEquals("/content/test", event.getArguments().get(1)),
-                () -> assertEquals(Boolean.FALSE,event.getArguments().get(2))
+                () -> assertTrue(logger.getLoggingEvents().isEmpty(), "Changes should not be logged"),
+                () -> assertEquals(3, fixture.getChangeCount()),
+                () -> assertEquals(1, fixture.getExternalChangeCount()),
+                () -> assertEquals(2, fixture.getSubtreeCount()),
+                () -> assertEquals(2L, forms.get("total")),
+                () -> assertEquals(1L, forms.get("added")),
+                () -> assertEquals(1L, forms.get("changed")),
+                () -> assertEquals(1L, forms.get("external")),
+                () -> assertEquals(1L, hottest.get(new Object[] { "/content/dam/image.png" }).get("total"))
         );
+
+        fixture.resetStatistics();
+        assertEquals(0, fixture.getChangeCount());
+        assertEquals(0, fixture.getSubtreeCount());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Outcome;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Stage;
+import com.mycompany.aem.core.metrics.DraftEnrichmentMetrics.Statistic;
+import com.mycompany.aem.core.services.impl.DraftEnrichmentServiceImpl;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.metrics.Gauge;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DraftEnrichmentMetricsTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testCountsOutcomesAndBacklog() {
+        DraftEnrichmentMetrics metrics = context.registerInjectActivateService(new DraftEnrichmentMetrics());
+        metrics.recordOutcome(Outcome.ENRICHED);
+        metrics.recordOutcome(Outcome.ENRICHED);
+        metrics.recordOutcome(Outcome.NOT_A_DRAFT);
+        metrics.registerBacklog("a", () -> 3);
+        metrics.registerBacklog("b", () -> 4);
+
+        assertEquals(2, metrics.getEnrichedCount());
+        assertEquals(1, metrics.getNotADraftCount());
+        assertEquals(0, metrics.getFailedCount());
+        assertEquals(7, metrics.getBacklog());
+
+        metrics.unregisterBacklog("b");
+        metrics.resetStatistics();
+        assertEquals(3, metrics.getBacklog());
+        assertEquals(0, metrics.getEnrichedCount());
+    }
+
+    @Test
+    void testRecordsEnrichmentStages() {
+        DraftEnrichmentMetrics metrics = context.registerInjectActivateService(new DraftEnrichmentMetrics());
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        String data = "<afData><afBoundData><data><myCustomDraftName>My Draft</myCustomDraftName>"
+            + "</data></afBoundData></afData>";
+        context.create().resource("/content/forms/fp/admin/drafts/data/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "data", data);
+        Resource draft = context.create().resource("/content/forms/fp/admin/drafts/metadata/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "userdataID", "/content/forms/fp/admin/drafts/data/TEST123_af");
+
+        assertTrue(service.enrichDraft(draft));
+
+        assertEquals(1, metrics.getLatency(Stage.READ).getCount());
+        assertEquals(1, metrics.getParseCount());
+        assertEquals(1, metrics.getCommitCount());
+        assertTrue(metrics.getBytesParsed() > 0);
+        assertTrue(metrics.getBytesParsed() <= data.length());
+        assertEquals(0, metrics.getBacklog());
+        assertEquals(1L, gauge("my65site.draftEnrichment.latency.PARSE.count").getValue());
+        assertEquals(metrics.getParseLatencyMax(), gauge("my65site.draftEnrichment.latency.PARSE.maxMicros").getValue());
+    }
+
+    @Test
+    void testPublishesComponentStatisticsAsGauges() {
+        DraftEnrichmentMetrics metrics = context.registerInjectActivateService(new DraftEnrichmentMetrics());
+        metrics.registerBacklog("queue", () -> 5);
+        metrics.registerStatistic(Statistic.COALESCE_RATIO, () -> 0.25);
+        metrics.registerStatistic(Statistic.SUPPRESSED_CHANGES, () -> 3L);
+
+        assertEquals(0.25, metrics.getCoalesceRatio(), 0.0001);
+        assertEquals(3, metrics.getSuppressedChangeCount());
+        assertEquals(0, metrics.getDelegatedChangeCount(), "Should read a statistic without a source as zero");
+        assertEquals(0.25, gauge("my65site.draftEnrichment.queue.coalesceRatio").getValue());
+        assertEquals(5, gauge("my65site.draftEnrichment.backlog").getValue());
+
+        metrics.unregisterStatistic(Statistic.COALESCE_RATIO);
+        assertEquals(0.0, metrics.getCoalesceRatio(), 0.0001);
+    }
+
+    @Test
+    void testReadsStatisticsOfEnrichmentService() {
+        DraftEnrichmentMetrics metrics = context.registerInjectActivateService(new DraftEnrichmentMetrics());
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        context.create().resource("/content/forms/fp/admin/drafts/data/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "data", "<afData><afBoundData><data><myCustomDraftName>My Draft</myCustomDraftName>"
+                + "</data></afBoundData></afData>");
+        Resource draft = context.create().resource("/content/forms/fp/admin/drafts/metadata/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "formPath", "/content/forms/af/travel",
+            "userdataID", "/content/forms/fp/admin/drafts/data/TEST123_af");
+
+        assertTrue(service.enrichDraft(draft));
+        assertTrue(service.computeEnrichment(draft).isEmpty());
+
+        assertEquals(1, metrics.getPlanCacheMissCount());
+        assertEquals(0, metrics.getPlanCacheHitCount());
+        assertEquals(0.5, metrics.getPayloadSkipRate(), 0.0001);
+        assertEquals(0, metrics.getInFlightParseBytes());
+        assertEquals(1L, gauge("my65site.draftEnrichment.planCache.misses").getValue());
+        assertTrue(Arrays.stream(Statistic.values()).allMatch(statistic ->
+            gauge("my65site.draftEnrichment." + statistic.getMetricName()) != null));
+    }
+
+    private Gauge<?> gauge(String name) {
+        Gauge<?>[] gauges = context.getServices(Gauge.class, "(" + Gauge.NAME + "=" + name + ")");
+        return gauges.length == 1 ? gauges[0] : null;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    void testPercentiles() {
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(103, histogram.getPercentileMicros(50), "Should report the upper bound of the bucket");
+        assertEquals(103, histogram.getPercentileMicros(99));
+        assertEquals(50000, histogram.getPercentileMicros(100), "Should not report more than the maximum");
+        assertEquals(50000, histogram.getMaxMicros());
+        assertEquals((99 * 100 + 50000) / 100.0, histogram.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    void testPercentilesWithinOneSixteenth() {
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        for (int percentile : new int[] { 50, 90, 95, 99 }) {
+            long exact = percentile * 10_000L;
+            long reported = histogram.getPercentileMicros(percentile);
+            assertTrue(reported >= exact && reported < exact * 17 / 16,
+                "p" + percentile + " should be within 1/16 of " + exact + ", was " + reported);
+        }
+    }
+
+    @Test
+    void testBuckets() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= micros);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < micros);
+        }
+        assertEquals(LatencyHistogram.bucketOf(1L << 32), LatencyHistogram.bucketOf(Long.MAX_VALUE),
+            "Should count latencies beyond the range in the last bucket");
+    }
+
+    @Test
+    void testEmptyAndReset() {
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0.0, histogram.getMeanMicros());
+
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50), "Should count negative latencies as zero");
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.metrics;
+
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics.RequestType;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class RequestLatencyMetricsTest {
+
+    private static final String PAGE = "my65site/components/page";
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testRecordsPerRequestType() throws Exception {
+        RequestLatencyMetrics metrics = context.registerInjectActivateService(new RequestLatencyMetrics());
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(PAGE, null, "html", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        metrics.record(PAGE, "print", "html", TimeUnit.MILLISECONDS.toNanos(5));
+
+        LatencyHistogram html = metrics.getHistogram(new RequestType(PAGE, null, "html"));
+        assertEquals(100, html.getCount());
+        assertEquals(1, metrics.getHistogram(new RequestType(PAGE, "print", "html")).getCount());
+        assertTrue(html.getPercentileMicros(50) <= html.getPercentileMicros(99));
+        assertEquals(100_000, html.getMaxMicros());
+        assertEquals(PAGE + ":html", metrics.getHistograms().get(0).getKey().toString());
+        assertEquals(PAGE + ":print.html", metrics.getHistograms().get(1).getKey().toString());
+
+        TabularData table = metrics.getLatencies();
+        assertEquals(2, table.size());
+        CompositeData row = table.get(new Object[] { PAGE + ":html" });
+        assertEquals(100L, row.get("count"));
+        assertEquals(html.getPercentileMicros(95), row.get("p95"));
+
+        metrics.resetStatistics();
+        assertEquals(0, metrics.getRequestTypeCount());
+    }
+
+    @Test
+    void testCapsRequestTypes() {
+        RequestLatencyMetrics metrics = context.registerInjectActivateService(new RequestLatencyMetrics(),
+            "max.request.types", 2);
+        for (int i = 0; i < 5; i++) {
+            metrics.record(PAGE, "s" + i, "html", 1000);
+        }
+        metrics.record(PAGE, "s0", "html", 1000);
+
+        // The overflow type takes one more slot
+        assertEquals(3, metrics.getRequestTypeCount());
+        assertEquals(3, metrics.getOverflowCount());
+        assertEquals(3, metrics.getHistogram(RequestLatencyMetrics.OVERFLOW_TYPE).getCount());
+        assertEquals(2, metrics.getHistogram(new RequestType(PAGE, "s0", "html")).getCount());
+    }
+
+    @Test
+    void testRequestTypeText() {
+        assertEquals("(none)", new RequestType(null, null, null).toString());
+        assertEquals("a/b:json", new RequestType("a/b", null, "json").toString());
+        assertEquals("a/b:tidy", new RequestType("a/b", "tidy", null).toString());
+        assertEquals(new RequestType("a/b", "x", "json"), new RequestType("a/b", "x", "json"));
+        assertNotEquals(new RequestType("a/b", "x", "json"), new RequestType("a/b", null, "json"));
+    }
+}
@@ -24,8 +24,10 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import com.day.cq.wcm.api.Page;
 import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import com.mycompany.aem.core.services.PageContextCache;
 import com.mycompany.aem.core.testcontext.AppAemContext;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -63,4 +65,24 @@ class HelloWorldModelTest {
         assertTrue(StringUtils.contains(msg, page.getPath()));
     }
 
+    @Test
+    void testSharesPageLookupWithinRequest() throws Exception {
+        PageContextCache cache = context.getService(PageContextCache.class);
+        Resource other = context.create().resource(page, "other",
+            "sling:resourceType", "my65site/components/helloworld");
+
+        try (PageContextCache.Scope scope = cache.openScope(context.resourceResolver())) {
+            HelloWorldModel first = resource.adaptTo(HelloWorldModel.class);
+            HelloWorldModel second = other.adaptTo(HelloWorldModel.class);
+            // Nothing is looked up until the message is read
+            assertEquals(0, cache.getHitCount() + cache.getMissCount());
+
+            assertTrue(StringUtils.contains(first.getMessage(), page.getPath()));
+            assertTrue(StringUtils.contains(second.getMessage(), page.getPath()));
+            first.getMessage();
+        }
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import com.mycompany.aem.core.services.DraftEnrichmentService;
+import com.mycompany.aem.core.services.impl.DraftEnrichmentServiceImpl;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+@ExtendWith(AemContextExtension.class)
+class DraftBackfillJobTest {
+
+    private static final String CHECKPOINT = "/var/my65site/draft-backfill";
+    private static final String[] DRAFTS = {
+        "/content/forms/fp/admin/drafts/metadata/A_af",
+        "/content/forms/fp/admin/drafts/metadata/B_af",
+        "/content/forms/fp/jdoe/drafts/metadata/C_af"
+    };
+
+    private final AemContext context = new AemContext();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (String draft : DRAFTS) {
+            context.create().resource(draft,
+                "jcr:primaryType", "nt:unstructured",
+                "nodeType", "fp:Draft",
+                "sling:resourceType", "fd/fp/components/guidereload");
+        }
+        context.resourceResolver().commit();
+        context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+    }
+
+    @Test
+    void testEnrichesAllDraftsAndCompletes() throws Exception {
+        DraftBackfillJob job = context.registerInjectActivateService(new DraftBackfillJob(),
+            "enabled", true, "page.size", 2, "worker.count", 2, "max.commits.per.second", 0.0);
+
+        job.run();
+
+        assertEquals(3, job.getEnrichedCount());
+        assertEquals(0, job.getFailedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            for (String draft : DRAFTS) {
+                assertEquals("my cust property value",
+                    resolver.getResource(draft).getValueMap().get("myCustomPropertyName", String.class));
+            }
+            Resource checkpoint = resolver.getResource(CHECKPOINT);
+            assertEquals(DRAFTS[2], checkpoint.getValueMap().get("cursor", String.class));
+            assertTrue(checkpoint.getValueMap().get("completed", false));
+        }
+
+        job.run();
+        assertEquals(3, job.getVisitedCount(), "Should not run again once completed");
+    }
+
+    @Test
+    void testResumesAfterCursor() throws Exception {
+        context.create().resource(CHECKPOINT, "cursor", DRAFTS[0], "completed", false);
+        context.resourceResolver().commit();
+        DraftBackfillJob job = context.registerInjectActivateService(new DraftBackfillJob(), "enabled", true);
+
+        job.run();
+
+        assertEquals(2, job.getVisitedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertFalse(resolver.getResource(DRAFTS[0]).getValueMap().containsKey("myCustomPropertyName"));
+            assertTrue(resolver.getResource(DRAFTS[1]).getValueMap().containsKey("myCustomPropertyName"));
+        }
+    }
+
+    @Test
+    void testDryRunDoesNotWrite() throws Exception {
+        DraftBackfillJob job = context.registerInjectActivateService(new DraftBackfillJob(),
+            "enabled", true, "dry.run", true);
+
+        job.run();
+
+        assertEquals(3, job.getEnrichedCount(), "Should count the drafts it would enrich");
+        try (ResourceResolver resolver = newResolver()) {
+            for (String draft : DRAFTS) {
+                assertFalse(resolver.getResource(draft).getValueMap().containsKey("myCustomPropertyName"));
+            }
+            assertNull(resolver.getResource(CHECKPOINT));
+        }
+    }
+
+    @Test
+    void testRetriesDraftsThatFailedWithAnException() throws Exception {
+        AtomicBoolean failure = new AtomicBoolean(true);
+        DraftEnrichmentService failing = mock(DraftEnrichmentService.class,
+            delegatesTo(context.getService(DraftEnrichmentService.class)));
+        doThrow(new IllegalStateException("Enrichment failure")).when(failing)
+            .computeEnrichment(argThat(draft -> failure.get() && draft != null && DRAFTS[1].equals(draft.getPath())));
+        context.registerService(DraftEnrichmentService.class, failing, Constants.SERVICE_RANKING, 100);
+        DraftBackfillJob job = context.registerInjectActivateService(new DraftBackfillJob(),
+            "enabled", true, "page.size", 2, "max.commits.per.second", 0.0);
+
+        job.run();
+
+        assertEquals(3, job.getVisitedCount());
+        assertEquals(2, job.getEnrichedCount());
+        assertEquals(1, job.getFailedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            Resource checkpoint = resolver.getResource(CHECKPOINT);
+            assertEquals(DRAFTS[2], checkpoint.getValueMap().get("cursor", String.class));
+            assertArrayEquals(new String[] { DRAFTS[1] }, checkpoint.getValueMap().get("failed", String[].class));
+            assertFalse(checkpoint.getValueMap().get("completed", true), "Should not complete with failed drafts");
+        }
+
+        failure.set(false);
+        job.run();
+
+        assertEquals(4, job.getVisitedCount(), "Should retry only the failed draft");
+        assertEquals(3, job.getEnrichedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertTrue(resolver.getResource(DRAFTS[1]).getValueMap().containsKey("myCustomPropertyName"));
+            Resource checkpoint = resolver.getResource(CHECKPOINT);
+            assertEquals(0, checkpoint.getValueMap().get("failed", new String[0]).length);
+            assertTrue(checkpoint.getValueMap().get("completed", false));
+        }
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        DraftBackfillJob job = context.registerInjectActivateService(new DraftBackfillJob());
+
+        job.run();
+
+        assertEquals(0, job.getVisitedCount());
+    }
+
+    private ResourceResolver newResolver() throws Exception {
+        return context.getService(ResourceResolverFactory.class).getServiceResourceResolver(null);
+    }
+}
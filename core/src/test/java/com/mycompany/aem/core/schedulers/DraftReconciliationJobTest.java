@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import com.mycompany.aem.core.services.impl.DraftEnrichmentServiceImpl;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class DraftReconciliationJobTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testBuildQuery() {
+        String query = DraftReconciliationJob.buildQuery(0, false);
+
+        assertTrue(query.contains("ISDESCENDANTNODE(draft, '/content/forms/fp')"));
+        assertTrue(query.contains("draft.[jcr:lastModified] > CAST('1970-01-01T00:00:00.000Z' AS DATE)"));
+        assertTrue(query.endsWith("ORDER BY draft.[jcr:lastModified], draft.[jcr:path]"));
+        assertTrue(DraftReconciliationJob.buildQuery(0, true)
+            .contains("draft.[jcr:lastModified] >= CAST('1970-01-01T00:00:00.000Z' AS DATE)"));
+    }
+
+    @Test
+    void testResumesAfterLastDraftModifiedAtMark() throws Exception {
+        Calendar time = Calendar.getInstance();
+        time.add(Calendar.MINUTE, -10);
+        // More drafts saved within the same millisecond than one run may check
+        List<Resource> drafts = Arrays.asList(
+            createDraft("A_af", time), createDraft("B_af", time), createDraft("C_af", time));
+
+        List<String> queries = new ArrayList<>();
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doAnswer(invocation -> {
+            queries.add(invocation.getArgument(0));
+            return drafts.iterator();
+        }).when(resolver).findResources(anyString(), eq("JCR-SQL2"));
+        doNothing().when(resolver).close();
+        ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(any())).thenReturn(resolver);
+        context.registerService(ResourceResolverFactory.class, resolverFactory,
+            Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        DraftReconciliationJob job = context.registerInjectActivateService(new DraftReconciliationJob(),
+            "max.drafts.per.run", 1);
+
+        job.run();
+        assertTrue(job.getLagMillis() >= 10 * 60 * 1000, "Should lag behind the mark while not caught up");
+        assertEquals("/content/forms/fp/admin/drafts/metadata/A_af", context.resourceResolver()
+            .getResource("/var/my65site/draft-reconciliation").getValueMap().get("highWaterMarkPath", String.class));
+        job.run();
+        job.run();
+
+        assertEquals(3, job.getCheckedCount(), "Should check each draft once");
+        for (Resource draft : drafts) {
+            assertTrue(draft.getValueMap().containsKey("myCustomPropertyName"), draft.getPath());
+        }
+        String mark = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC)
+            .format(time.toInstant());
+        assertTrue(queries.get(1).contains("draft.[jcr:lastModified] >= CAST('" + mark + "' AS DATE)"),
+            "Should query the drafts modified at the mark again: " + queries.get(1));
+
+        job.run();
+        assertEquals(3, job.getCheckedCount(), "Should pass over the drafts up to the mark");
+        assertTrue(job.getLagMillis() < 60 * 1000, "Should have caught up");
+    }
+
+    @Test
+    void testEnrichesMissedDraftsAndAdvancesHighWaterMark() throws Exception {
+        Calendar older = Calendar.getInstance();
+        older.add(Calendar.MINUTE, -10);
+        Calendar newer = Calendar.getInstance();
+        newer.add(Calendar.MINUTE, -5);
+        Resource missed = createDraft("MISSED_af", older);
+        Resource enriched = createDraft("ENRICHED_af", newer);
+
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doReturn(Arrays.asList(missed, enriched).iterator()).when(resolver).findResources(anyString(), eq("JCR-SQL2"));
+        doNothing().when(resolver).close();
+        ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(any())).thenReturn(resolver);
+        context.registerService(ResourceResolverFactory.class, resolverFactory,
+            Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        service.enrichDraft(enriched);
+        DraftReconciliationJob job = context.registerInjectActivateService(new DraftReconciliationJob());
+
+        job.run();
+
+        assertEquals(2, job.getCheckedCount());
+        assertEquals(1, job.getEnrichedCount(), "Should only enrich the draft that missed enrichment");
+        assertTrue(missed.getValueMap().containsKey("myCustomPropertyName"));
+        Calendar mark = context.resourceResolver().getResource("/var/my65site/draft-reconciliation")
+            .getValueMap().get("highWaterMark", Calendar.class);
+        assertEquals(newer.getTimeInMillis(), mark.getTimeInMillis());
+        assertTrue(job.getLagMillis() < 60 * 1000, "Should not lag once caught up: " + job.getLagMillis());
+        assertTrue(job.getCatchUpRate() > 0);
+    }
+
+    @Test
+    void testDoesNotLagWhenIdle() throws Exception {
+        Calendar old = Calendar.getInstance();
+        old.add(Calendar.HOUR, -1);
+        context.create().resource("/var/my65site/draft-reconciliation", "highWaterMark", old, "caughtUp", true);
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doReturn(Collections.emptyIterator()).when(resolver).findResources(anyString(), eq("JCR-SQL2"));
+        doNothing().when(resolver).close();
+        ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(any())).thenReturn(resolver);
+        context.registerService(ResourceResolverFactory.class, resolverFactory,
+            Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        DraftReconciliationJob job = context.registerInjectActivateService(new DraftReconciliationJob());
+
+        job.run();
+
+        assertEquals(0, job.getCheckedCount());
+        assertTrue(job.getLagMillis() < 60 * 1000, "Should not lag without new drafts: " + job.getLagMillis());
+    }
+
+    private Resource createDraft(String id, Calendar lastModified) {
+        return context.create().resource("/content/forms/fp/admin/drafts/metadata/" + id,
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "jcr:lastModified", lastModified);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DraftRetentionJobTest {
+
+    private static final String CHECKPOINT = "/var/my65site/draft-retention";
+    private static final String ADMIN = "/content/forms/fp/admin/drafts/";
+    private static final String JDOE = "/content/forms/fp/jdoe/drafts/";
+
+    private static final String KEPT = ADMIN + "metadata/KEEP_af";
+    private static final String RECENT = ADMIN + "metadata/NEW_af";
+    private static final String EXPIRED = ADMIN + "metadata/OLD_af";
+    private static final String SHORT_LIVED = JDOE + "metadata/SHORT_af";
+
+    private final AemContext context = new AemContext();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        createDraft(KEPT, "/content/forms/af/keep/form", 400);
+        createDraft(RECENT, "/content/forms/af/travel", 10);
+        createDraft(EXPIRED, "/content/forms/af/travel", 200,
+            "attachmentList", "att1, att2,/content/dam/my65site/outside.pdf");
+        createDraft(SHORT_LIVED, "/content/forms/af/short", 2);
+        context.create().resource(ADMIN + "attachments/att1", "jcr:primaryType", "nt:unstructured");
+        context.create().resource(ADMIN + "attachments/att2", "jcr:primaryType", "nt:unstructured");
+        context.create().resource("/content/dam/my65site/outside.pdf", "jcr:primaryType", "nt:unstructured");
+        context.resourceResolver().commit();
+    }
+
+    @Test
+    void testDeletesExpiredDraftsWithDataAndAttachments() throws Exception {
+        DraftRetentionJob job = activate("batch.size", 1);
+
+        job.run();
+
+        assertEquals(4, job.getCheckedCount());
+        assertEquals(2, job.getPurgedCount());
+        assertEquals(6, job.getDeletedNodeCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertNull(resolver.getResource(EXPIRED));
+            assertNull(resolver.getResource(ADMIN + "data/OLD_af"));
+            assertNull(resolver.getResource(ADMIN + "attachments/att1"));
+            assertNull(resolver.getResource(ADMIN + "attachments/att2"));
+            assertNotNull(resolver.getResource("/content/dam/my65site/outside.pdf"),
+                "Should not delete attachments outside of the user's drafts");
+            assertNull(resolver.getResource(SHORT_LIVED), "Should apply the retention of the form");
+            assertNull(resolver.getResource(JDOE + "data/SHORT_af"));
+            assertNotNull(resolver.getResource(KEPT), "Should keep drafts of forms with a retention of 0");
+            assertNotNull(resolver.getResource(ADMIN + "data/KEEP_af"));
+            assertNotNull(resolver.getResource(RECENT));
+
+            Resource checkpoint = resolver.getResource(CHECKPOINT);
+            assertNull(checkpoint.getValueMap().get("cursor", String.class),
+                "Should start over once all drafts are checked");
+            assertNotNull(checkpoint.getValueMap().get("lastCompleted", Calendar.class));
+        }
+    }
+
+    @Test
+    void testNeverDeletesDraftFolders() throws Exception {
+        String draft = ADMIN + "metadata/PATHS_af";
+        createDraft(draft, "/content/forms/af/travel", 200,
+            "attachmentList", new String[] { "..", ".", "x/..", "att1/../..", "./" },
+            "userdataID", ADMIN + "data/..");
+        context.resourceResolver().commit();
+        DraftRetentionJob job = activate();
+
+        job.run();
+
+        try (ResourceResolver resolver = newResolver()) {
+            assertNull(resolver.getResource(draft));
+            assertNotNull(resolver.getResource(ADMIN + "attachments"));
+            assertNotNull(resolver.getResource(ADMIN + "data"));
+            assertNotNull(resolver.getResource(ADMIN + "data/KEEP_af"));
+            assertNotNull(resolver.getResource(KEPT));
+        }
+    }
+
+    @Test
+    void testResumesAfterCursor() throws Exception {
+        DraftRetentionJob job = activate("batch.size", 10, "max.drafts.per.run", 2);
+
+        job.run();
+
+        assertEquals(0, job.getPurgedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertEquals(RECENT, resolver.getResource(CHECKPOINT).getValueMap().get("cursor", String.class));
+        }
+
+        job.run();
+
+        assertEquals(4, job.getCheckedCount());
+        assertEquals(2, job.getPurgedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertNull(resolver.getResource(EXPIRED));
+            assertEquals(SHORT_LIVED, resolver.getResource(CHECKPOINT).getValueMap().get("cursor", String.class));
+        }
+
+        job.run();
+
+        assertEquals(4, job.getCheckedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertNull(resolver.getResource(CHECKPOINT).getValueMap().get("cursor", String.class));
+        }
+    }
+
+    @Test
+    void testDoesNothingDuringPauseWindow() throws Exception {
+        DraftRetentionJob job = activate("pause.windows", new String[] { "00:00-00:00" });
+
+        job.run();
+
+        assertEquals(0, job.getCheckedCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertNotNull(resolver.getResource(EXPIRED));
+        }
+    }
+
+    @Test
+    void testDryRunDoesNotDelete() throws Exception {
+        DraftRetentionJob job = activate("dry.run", true);
+
+        job.run();
+
+        assertEquals(2, job.getPurgedCount(), "Should count the drafts it would delete");
+        assertEquals(0, job.getDeletedNodeCount());
+        try (ResourceResolver resolver = newResolver()) {
+            assertNotNull(resolver.getResource(EXPIRED));
+            assertNotNull(resolver.getResource(SHORT_LIVED));
+            assertNull(resolver.getResource(CHECKPOINT));
+        }
+    }
+
+    @Test
+    void testFormRetentionLongestPathWins() {
+        DraftRetentionJob job = activate("form.retention", new String[] {
+            "/content/forms/af=30", "/content/forms/af/travel=7", "invalid", "/content/forms/af/x=y" });
+
+        assertEquals(TimeUnit.DAYS.toMillis(7), job.getMaxAgeMillis("/content/forms/af/travel/booking"));
+        assertEquals(TimeUnit.DAYS.toMillis(30), job.getMaxAgeMillis("/content/forms/af/travelling"));
+        assertEquals(TimeUnit.DAYS.toMillis(90), job.getMaxAgeMillis("/content/forms/other"));
+        assertEquals(TimeUnit.DAYS.toMillis(90), job.getMaxAgeMillis(null));
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        DraftRetentionJob job = context.registerInjectActivateService(new DraftRetentionJob());
+
+        job.run();
+
+        assertEquals(0, job.getCheckedCount());
+    }
+
+    private DraftRetentionJob activate(Object... properties) {
+        Object[] config = new Object[properties.length + 8];
+        System.arraycopy(new Object[] {
+            "enabled", true,
+            "max.commits.per.second", 0.0,
+            "pause.windows", new String[0],
+            "form.retention", new String[] { "/content/forms/af/keep=0", "/content/forms/af/short=1" }
+        }, 0, config, 0, 8);
+        System.arraycopy(properties, 0, config, 8, properties.length);
+        return context.registerInjectActivateService(new DraftRetentionJob(), config);
+    }
+
+    private void createDraft(String metadataPath, String formPath, int ageDays, Object... properties) {
+        String dataPath = metadataPath.replace("/metadata/", "/data/");
+        context.create().resource(dataPath, "jcr:primaryType", "nt:unstructured", "data", "<afData/>");
+        Calendar lastModified = Calendar.getInstance();
+        lastModified.add(Calendar.DAY_OF_MONTH, -ageDays);
+        Map<String, Object> draft = new HashMap<>();
+        draft.put("jcr:primaryType", "nt:unstructured");
+        draft.put("nodeType", "fp:Draft");
+        draft.put("sling:resourceType", "fd/fp/components/guidereload");
+        draft.put("formPath", formPath);
+        draft.put("userdataID", dataPath);
+        draft.put("jcr:lastModified", lastModified);
+        for (int i = 0; i < properties.length; i += 2) {
+            draft.put((String) properties[i], properties[i + 1]);
+        }
+        context.create().resource(metadataPath, draft);
+    }
+
+    private ResourceResolver newResolver() throws Exception {
+        return context.getService(ResourceResolverFactory.class).getServiceResourceResolver(null);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.schedulers;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PauseWindowTest {
+
+    @Test
+    void testDaytimeWindow() {
+        PauseWindow window = PauseWindow.parse("08:00-20:00");
+
+        assertTrue(window.contains(LocalTime.of(8, 0)));
+        assertTrue(window.contains(LocalTime.of(19, 59)));
+        assertFalse(window.contains(LocalTime.of(20, 0)));
+        assertFalse(window.contains(LocalTime.of(7, 59)));
+    }
+
+    @Test
+    void testWindowSpanningMidnight() {
+        PauseWindow window = PauseWindow.parse(" 22:30 - 02:00 ");
+
+        assertTrue(window.contains(LocalTime.of(23, 0)));
+        assertTrue(window.contains(LocalTime.of(1, 59)));
+        assertFalse(window.contains(LocalTime.of(2, 0)));
+        assertFalse(window.contains(LocalTime.of(12, 0)));
+        assertEquals("22:30-02:00", window.toString());
+    }
+
+    @Test
+    void testWholeDay() {
+        assertTrue(PauseWindow.parse("00:00-00:00").contains(LocalTime.of(13, 37)));
+    }
+
+    @Test
+    void testInvalidWindow() {
+        assertThrows(IllegalArgumentException.class, () -> PauseWindow.parse("08:00"));
+        assertThrows(IllegalArgumentException.class, () -> PauseWindow.parse("8-20"));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.WarmupRun;
+import com.sun.net.httpserver.HttpServer;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DispatcherCacheWarmerImplTest {
+
+    private final AemContext context = new AemContext();
+
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile CountDownLatch firstRequest = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private HttpServer dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Stands in for the dispatcher: the site root is cached, missing pages are not found
+        dispatcher = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        dispatcher.createContext("/", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                String path = exchange.getRequestURI().getPath();
+                requested.add(path);
+                firstRequest.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                Thread.sleep(20);
+                if (path.equals("/content/my65site.html")) {
+                    exchange.getResponseHeaders().add("X-Cache-Info", "cached");
+                }
+                exchange.sendResponseHeaders(path.contains("missing") ? 404 : 200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+                active.decrementAndGet();
+            }
+        });
+        dispatcher.setExecutor(Executors.newCachedThreadPool());
+        dispatcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop(0);
+    }
+
+    @Test
+    void testWarmsPagesAndAncestors() throws InterruptedException {
+        DispatcherCacheWarmerImpl warmer = activate(2);
+
+        assertEquals(4, warmer.warm("/content/my65site/us/en/page/jcr:content/root", true));
+        assertEquals(1, warmer.warm("/content/my65site/us/en/missing", true));
+        assertEquals(0, warmer.warm("/content/dam/my65site/asset.jpg", true));
+
+        WarmupRun run = awaitRun(warmer);
+        assertEquals(5, run.getFetched());
+        assertEquals(3, run.getFilled());
+        assertEquals(1, run.getAlreadyCached());
+        assertEquals(1, run.getFailed());
+        assertTrue(requested.contains("/content/my65site/us/en/page.html"));
+        assertTrue(requested.contains("/content/my65site.html"));
+        assertTrue(maxActive.get() <= 2, "At most 2 connections, saw " + maxActive.get());
+        assertEquals(0, warmer.getQueueSize());
+    }
+
+    @Test
+    void testDeduplicatesWaitingPages() throws InterruptedException {
+        release = new CountDownLatch(1);
+        DispatcherCacheWarmerImpl warmer = activate(1);
+
+        assertEquals(3, warmer.warm("/content/my65site/us/en", true));
+        assertTrue(firstRequest.await(10, TimeUnit.SECONDS));
+        // The page being fetched is queued again, its waiting ancestors are not
+        assertEquals(1, warmer.warm("/content/my65site/us/en", true));
+        assertEquals(0, warmer.warm("/content/my65site/us/en", false));
+        assertEquals(4, warmer.getQueueSize());
+        release.countDown();
+
+        assertEquals(4, awaitRun(warmer).getFetched());
+        assertEquals(4, requested.size());
+    }
+
+    @Test
+    void testWarmsAncestorsOfRemovedPages() throws InterruptedException {
+        DispatcherCacheWarmerImpl warmer = activate(2);
+
+        assertEquals(2, warmer.warm("/content/my65site/us/removed", false));
+
+        awaitRun(warmer);
+        assertFalse(requested.contains("/content/my65site/us/removed.html"));
+    }
+
+    @Test
+    void testWaitsForDispatcherFlush() throws InterruptedException {
+        DispatcherCacheWarmerImpl warmer = activate(2, 500);
+
+        assertEquals(2, warmer.warm("/content/my65site/us", true));
+        assertFalse(firstRequest.await(200, TimeUnit.MILLISECONDS), "Should not fetch before the flush delay");
+        assertEquals(2, warmer.getQueueSize());
+
+        assertEquals(2, awaitRun(warmer).getFetched());
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        DispatcherCacheWarmerImpl warmer = context.registerInjectActivateService(new DispatcherCacheWarmerImpl());
+
+        assertEquals(0, warmer.warm("/content/my65site/us/en", true));
+    }
+
+    @Test
+    void testPagePath() {
+        assertEquals("/content/my65site/us", DispatcherCacheWarmerImpl.getPagePath("/content/my65site/us/jcr:content"));
+        assertEquals("/content/my65site/us", DispatcherCacheWarmerImpl.getPagePath("/content/my65site/us/jcr:content/a"));
+        assertEquals("/content/my65site/us", DispatcherCacheWarmerImpl.getPagePath("/content/my65site/us"));
+    }
+
+    private DispatcherCacheWarmerImpl activate(int connections) {
+        return activate(connections, 0L);
+    }
+
+    private DispatcherCacheWarmerImpl activate(int connections, long flushDelayMillis) {
+        return context.registerInjectActivateService(new DispatcherCacheWarmerImpl(),
+            "enabled", true,
+            "dispatcher.url", "http://localhost:" + dispatcher.getAddress().getPort() + "/",
+            "max.connections", connections,
+            "requests.per.second", 0.0,
+            "flush.delay.ms", flushDelayMillis);
+    }
+
+    private static WarmupRun awaitRun(DispatcherCacheWarmerImpl warmer) throws InterruptedException {
+        for (int i = 0; i < 200 && warmer.getLastRun() == null; i++) {
+            Thread.sleep(50);
+        }
+        assertNotNull(warmer.getLastRun(), "Warm-up should complete");
+        return warmer.getLastRun();
+    }
+}
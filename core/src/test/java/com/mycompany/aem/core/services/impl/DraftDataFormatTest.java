@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DraftDataFormatTest {
+
+    @Test
+    void testSniff() throws IOException {
+        assertEquals(DraftDataFormat.JSON, sniff("{\"data\":{}}"));
+        assertEquals(DraftDataFormat.JSON, sniff("\uFEFF\r\n  [1]"));
+        assertEquals(DraftDataFormat.XML, sniff("<afData/>"));
+        assertEquals(DraftDataFormat.XML, sniff("\uFEFF<?xml version=\"1.0\"?><afData/>"));
+        assertEquals(DraftDataFormat.XML, sniff(""));
+    }
+
+    @Test
+    void testSniffPushesBackData() throws IOException {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < DraftDataFormat.SNIFF_LENGTH * 2; i++) {
+            json.append(' ');
+        }
+        json.append("{}");
+        PushbackInputStream in = stream(json.toString());
+
+        assertEquals(DraftDataFormat.XML, DraftDataFormat.sniff(in), "Should give up after the sniff length");
+        assertEquals(json.toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private static DraftDataFormat sniff(String data) throws IOException {
+        PushbackInputStream in = stream(data);
+        DraftDataFormat format = DraftDataFormat.sniff(in);
+        assertEquals(data, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        return format;
+    }
+
+    private static PushbackInputStream stream(String data) {
+        return new PushbackInputStream(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)),
+            DraftDataFormat.SNIFF_LENGTH);
+    }
+}
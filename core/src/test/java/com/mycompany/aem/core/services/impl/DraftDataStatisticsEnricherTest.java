@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DraftDataStatisticsEnricherTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testCountsFilledFieldsInData() throws Exception {
+        DraftDataStatisticsEnricher enricher = context.registerInjectActivateService(new DraftDataStatisticsEnricher());
+        String xml = "<afData><afUnboundData><data><note>n</note></data></afUnboundData>"
+            + "<afBoundData><data xmlns:x=\"urn:test\"><name>Draft</name><panel><a> </a><b>b</b>"
+            + "<x:c><![CDATA[c]]></x:c></panel>text</data></afBoundData>"
+            + "<submit><outside>o</outside></submit></afData>";
+
+        Map<String, Object> properties = parse(enricher, xml, xml.length(), false);
+
+        assertEquals(4L, properties.get("myCustomDraftFilledFields"),
+            "Should count non-blank leaf elements inside of data elements only");
+        assertEquals((long) xml.length(), properties.get("myCustomDraftDataSize"));
+    }
+
+    @Test
+    void testOmitsCountOfPartlyScannedData() throws Exception {
+        DraftDataStatisticsEnricher enricher = context.registerInjectActivateService(new DraftDataStatisticsEnricher());
+        String xml = "<afData><afBoundData><data><name>Draft</name><panel><city>Ba";
+
+        Map<String, Object> properties = parse(enricher, xml, 4096, true);
+
+        assertFalse(properties.containsKey("myCustomDraftFilledFields"));
+        assertEquals(4096L, properties.get("myCustomDraftDataSize"));
+    }
+
+    @Test
+    void testConfiguredProperties() {
+        DraftDataStatisticsEnricher enricher = context.registerInjectActivateService(new DraftDataStatisticsEnricher(),
+            "filled.fields.property", "filled", "data.size.property", "");
+
+        DraftEnricher.Handler handler = enricher.newHandler(null);
+        handler.startElement("data", 0);
+        handler.startElement("name", 1);
+        handler.text("Draft".toCharArray(), 0, 5);
+        handler.endElement("name", 1);
+        handler.endElement("data", 0);
+
+        assertEquals(Collections.singletonMap("filled", 1L), handler.endDocument(100, true));
+        assertNull(context.registerInjectActivateService(new DraftDataStatisticsEnricher(),
+            "filled.fields.property", "", "data.size.property", "").newHandler(null),
+            "Should skip drafts when no property is configured");
+    }
+
+    private static Map<String, Object> parse(DraftEnricher enricher, String xml, long payloadLength, boolean scan)
+            throws Exception {
+        DraftEnricher.Handler handler = enricher.newHandler(null);
+        ByteArrayInputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+        ExtractionResult result = scan
+            ? XmlFieldExtractor.scanFields(in, Collections.emptyList(), Collections.emptyMap(), 256, handler)
+            : XmlFieldExtractor.extractFields(in, Collections.emptyList(), Collections.emptyMap(), 256, handler);
+        return handler.endDocument(payloadLength, result.isComplete());
+    }
+}
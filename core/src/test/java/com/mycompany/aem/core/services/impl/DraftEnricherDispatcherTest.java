@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+import org.apache.sling.api.resource.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DraftEnricherDispatcherTest {
+
+    private final Resource draft = mock(Resource.class);
+
+    @Test
+    void testDropsFailingHandlersAndKeepsFirstProperty() {
+        int[] elements = new int[1];
+        DraftEnricherDispatcher dispatcher = DraftEnricherDispatcher.create(Arrays.asList(
+            enricher("failing", new DraftEnricher.Handler() {
+                @Override
+                public void startElement(String name, int depth) {
+                    throw new IllegalStateException("Enricher failure");
+                }
+
+                @Override
+                public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+                    return Collections.singletonMap("failed", true);
+                }
+            }),
+            enricher("counting", new DraftEnricher.Handler() {
+                @Override
+                public void startElement(String name, int depth) {
+                    elements[0]++;
+                }
+
+                @Override
+                public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+                    return Map.of("elements", elements[0], "shared", "first");
+                }
+            }),
+            enricher("later", (payloadLength, complete) -> Map.of("shared", "second", "length", payloadLength))),
+            draft);
+
+        dispatcher.startElement("data", 0);
+        dispatcher.startElement("name", 1);
+        Map<String, Object> properties = dispatcher.endDocument(42, true);
+
+        assertEquals(2, elements[0]);
+        assertEquals(Map.of("elements", 2, "shared", "first", "length", 42L), properties);
+    }
+
+    @Test
+    void testSkipsDraftsWithoutHandlers() {
+        when(draft.getPath()).thenReturn("/content/forms/fp/admin/drafts/metadata/TEST123_af");
+        DraftEnricher failing = enricher("failing", null);
+        when(failing.newHandler(draft)).thenThrow(new IllegalStateException("Enricher failure"));
+
+        assertNull(DraftEnricherDispatcher.create(Arrays.asList(enricher("skipping", null), failing), draft));
+    }
+
+    private DraftEnricher enricher(String name, DraftEnricher.Handler handler) {
+        DraftEnricher enricher = mock(DraftEnricher.class);
+        when(enricher.getName()).thenReturn(name);
+        when(enricher.newHandler(draft)).thenReturn(handler);
+        return enricher;
+    }
+}
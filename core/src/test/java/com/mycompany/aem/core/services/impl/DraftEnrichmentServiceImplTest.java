@@ -15,16 +15,29 @@
  */
 package com.mycompany.aem.core.services.impl;
 
+import com.mycompany.aem.core.services.DraftEnricher;
 import com.mycompany.aem.core.services.DraftEnrichmentService;
 import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(AemContextExtension.class)
 class DraftEnrichmentServiceImplTest {
@@ -144,6 +157,293 @@ class DraftEnrichmentServiceImplTest {
         assertEquals("my cust property value", properties.get("myCustomPropertyName", String.class));
     }
 
+    @Test
+    void testEnrichDraft_ExtractsFormFieldFromDataProperty() {
+        // Create the draft data node referenced by userdataID
+        context.create().resource(
+            "/content/forms/fp/admin/drafts/data/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "data", "<afData><afBoundData><data><myCustomDraftName>My Draft</myCustomDraftName></data></afBoundData></afData>"
+        );
+        Resource draftResource = context.create().resource(
+            "/content/forms/fp/admin/drafts/metadata/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "owner", "testuser",
+            "userdataID", "/content/forms/fp/admin/drafts/data/TEST123_af"
+        );
+
+        // Test
+        boolean result = draftEnrichmentService.enrichDraft(draftResource);
+
+        // Verify
+        assertTrue(result, "Should successfully enrich draft");
+        assertEquals("My Draft", draftResource.getValueMap().get("myCustomDraftNameGathered", String.class),
+            "Should copy the form field value to the metadata node");
+        assertTrue(draftEnrichmentService.isOwnChange(draftResource.getPath(),
+            Collections.singleton("myCustomDraftNameGathered")), "Should recognise the change event of its write");
+    }
+
+    @Test
+    void testEnrichDraft_ConfiguredFieldMappings() {
+        context.registerInjectActivateService(new DraftFieldMapping(),
+            "form.paths", new String[] { "/content/forms/af/travel" },
+            "field.mappings", new String[] { "tripName=tripNameGathered", "traveller/city[]=cities" });
+        context.create().resource(
+            "/content/forms/fp/admin/drafts/data/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "data", "<afData><afBoundData><data><tripName>Alps</tripName>"
+                + "<traveller><city>Basel</city></traveller><traveller><city>Bern</city></traveller>"
+                + "</data></afBoundData></afData>"
+        );
+        Resource draftResource = context.create().resource(
+            "/content/forms/fp/admin/drafts/metadata/TEST123_af",
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "formPath", "/content/forms/af/travel/booking",
+            "userdataID", "/content/forms/fp/admin/drafts/data/TEST123_af"
+        );
+
+        // Test
+        boolean result = draftEnrichmentService.enrichDraft(draftResource);
+
+        // Verify
+        assertTrue(result, "Should successfully enrich draft");
+        ValueMap properties = draftResource.getValueMap();
+        assertEquals("Alps", properties.get("tripNameGathered", String.class));
+        assertArrayEquals(new String[] { "Basel", "Bern" }, properties.get("cities", String[].class),
+            "Should store repeated panel values as a multi-valued property");
+        assertFalse(properties.containsKey("myCustomDraftNameGathered"),
+            "Should not apply the default mapping when a configured mapping covers the form");
+    }
+
+    @Test
+    void testEnrichDraft_ExtractsFormFieldsFromJsonData() {
+        context.registerInjectActivateService(new DraftFieldMapping(),
+            "form.paths", new String[] { "/content/forms/af/travel" },
+            "field.mappings", new String[] { "myCustomDraftName=myCustomDraftNameGathered",
+                "$.traveller[*].city[]=cities" });
+        Resource draftResource = createDraft("JSON_af", "{\"afData\":{\"afBoundData\":{\"data\":{"
+            + "\"myCustomDraftName\":\"Json draft\",\"traveller\":[{\"city\":\"Basel\"},{\"city\":\"Bern\"}]}}}}");
+
+        // Test
+        boolean result = draftEnrichmentService.enrichDraft(draftResource);
+
+        // Verify
+        assertTrue(result, "Should successfully enrich draft");
+        ValueMap properties = draftResource.getValueMap();
+        assertEquals("Json draft", properties.get("myCustomDraftNameGathered", String.class),
+            "Should read core component draft data as JSON");
+        assertArrayEquals(new String[] { "Basel", "Bern" }, properties.get("cities", String[].class));
+    }
+
+    @Test
+    void testEnrichDraft_ReusesExtractionPlanOfForm() {
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl(),
+            "extraction.plan.cache.size", 10);
+        Resource first = createDraft("FIRST_af",
+            "<afData><afBoundData><data><myCustomDraftName>First</myCustomDraftName></data></afBoundData></afData>");
+        Resource second = createDraft("SECOND_af",
+            "<afData><afBoundData><data><myCustomDraftName>Second</myCustomDraftName></data></afBoundData></afData>");
+        Resource moved = createDraft("MOVED_af",
+            "<afData><afUnboundData><data><myCustomDraftName>Moved</myCustomDraftName></data></afUnboundData></afData>");
+
+        assertTrue(service.enrichDraft(first));
+        ExtractionPlan plan = service.getExtractionPlanCache().get("/content/forms/af/travel");
+        assertNotNull(plan, "Should remember where the form field was found");
+        assertEquals(DraftDataLayout.DATA_PROPERTY, plan.getLayout());
+        assertEquals("afData/afBoundData/data/myCustomDraftName",
+            plan.getElementPaths().get(FieldSpec.parse("myCustomDraftName")));
+
+        assertTrue(service.enrichDraft(second));
+        assertEquals("Second", second.getValueMap().get("myCustomDraftNameGathered", String.class));
+        assertEquals(1, service.getExtractionPlanCache().getHitCount());
+
+        assertTrue(service.enrichDraft(moved));
+        assertEquals("Moved", moved.getValueMap().get("myCustomDraftNameGathered", String.class),
+            "Should fall back to discovery when the remembered element path has no value");
+        assertEquals(2, service.getExtractionPlanCache().getMissCount());
+        assertEquals("afData/afUnboundData/data/myCustomDraftName",
+            service.getExtractionPlanCache().get("/content/forms/af/travel").getElementPaths()
+                .get(FieldSpec.parse("myCustomDraftName")));
+    }
+
+    @Test
+    void testEnrichDraft_SkipsUnchangedData() throws Exception {
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        Resource draftResource = createDraft("DIGEST_af",
+            "<afData><afBoundData><data><myCustomDraftName>Before</myCustomDraftName></data></afBoundData></afData>");
+
+        assertTrue(service.enrichDraft(draftResource));
+        String digest = draftResource.getValueMap().get("myCustomDraftDataDigest", String.class);
+        assertNotNull(digest, "Should record the digest of the data it was enriched from");
+        assertTrue(service.computeEnrichment(draftResource).isEmpty());
+        assertEquals(1, service.getPayloadSkipCount());
+
+        context.resourceResolver().getResource("/content/forms/fp/admin/drafts/data/DIGEST_af")
+            .adaptTo(ModifiableValueMap.class)
+            .put("data", "<afData><afBoundData><data><myCustomDraftName>After</myCustomDraftName>"
+                + "</data></afBoundData></afData>");
+        assertTrue(service.enrichDraft(draftResource));
+
+        assertEquals("After", draftResource.getValueMap().get("myCustomDraftNameGathered", String.class));
+        assertNotEquals(digest, draftResource.getValueMap().get("myCustomDraftDataDigest", String.class));
+        assertEquals(2, service.getPayloadReadCount());
+        assertEquals(1 / 3.0, service.getPayloadSkipRate(), 0.0001);
+    }
+
+    @Test
+    void testEnrichDraft_ScansOversizedDataInDegradedMode() {
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl(),
+            "max.payload.size.kb", 1L);
+        StringBuilder filler = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            filler.append("<traveller><city>City ").append(i).append("</city></traveller>");
+        }
+        Resource first = createDraft("FIRST_af", "<afData><afBoundData><data><myCustomDraftName>First</myCustomDraftName>"
+            + filler + "</data></afBoundData></afData>");
+        Resource last = createDraft("LAST_af", "<afData><afBoundData><data>"
+            + filler + "<myCustomDraftName>Last</myCustomDraftName></data></afBoundData></afData>");
+
+        assertTrue(service.enrichDraft(first));
+        assertTrue(service.enrichDraft(last));
+
+        assertEquals("First", first.getValueMap().get("myCustomDraftNameGathered", String.class),
+            "Should find fields within the scanned part of the data");
+        assertNull(last.getValueMap().get("myCustomDraftNameGathered", String.class),
+            "Should not read beyond the maximum payload size");
+        assertNull(first.getValueMap().get("myCustomDraftDataDigest", String.class),
+            "Should read partly scanned data again on the next change");
+        assertEquals(2, service.getDegradedParseCount());
+        assertEquals(0, service.getInFlightParseBytes());
+    }
+
+    @Test
+    void testEnrichDraft_DoesNotRecordDigestOfUnreadableData() {
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        byte[] data = "<afData><afBoundData><data><myCustomDraftName>Draft</myCustomDraftName></data></afBoundData></afData>"
+            .getBytes(StandardCharsets.UTF_8);
+        ValueMap dataProps = mock(ValueMap.class);
+        // The digest reads the whole stream, the parse fails part way through it
+        when(dataProps.get("data", InputStream.class))
+            .thenReturn(new ByteArrayInputStream(data), new FailingInputStream(data, 80));
+        Resource dataResource = mock(Resource.class);
+        when(dataResource.getPath()).thenReturn("/content/forms/fp/admin/drafts/data/FAILING_af");
+        when(dataResource.getValueMap()).thenReturn(dataProps);
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getResource("/content/forms/fp/admin/drafts/data/FAILING_af")).thenReturn(dataResource);
+        Resource draftResource = mock(Resource.class);
+        when(draftResource.getPath()).thenReturn("/content/forms/fp/admin/drafts/metadata/FAILING_af");
+        when(draftResource.getResourceResolver()).thenReturn(resolver);
+        when(draftResource.getValueMap()).thenReturn(new ValueMapDecorator(Map.of(
+            "userdataID", "/content/forms/fp/admin/drafts/data/FAILING_af")));
+
+        assertNull(service.computeEnrichment(draftResource),
+            "Should not record the digest of data it could not read to its end");
+    }
+
+    @Test
+    void testEnrichDraft_DoesNotRecordDigestOfTooDeeplyNestedData() {
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl(),
+            "max.element.depth", 3);
+        Resource draftResource = createDraft("DEEP_af",
+            "<afData><afBoundData><data><myCustomDraftName>Deep</myCustomDraftName></data></afBoundData></afData>");
+
+        assertTrue(service.enrichDraft(draftResource));
+
+        assertNull(draftResource.getValueMap().get("myCustomDraftDataDigest", String.class),
+            "Should read data nested beyond the depth limit again on the next change");
+        assertEquals(0, service.getPayloadSkipCount());
+    }
+
+    @Test
+    void testEnrichDraft_MergesEnricherPropertiesFromOneParse() {
+        context.registerInjectActivateService(new DraftDataStatisticsEnricher());
+        context.registerService(DraftEnricher.class, new DraftEnricher() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public Handler newHandler(Resource draftResource) {
+                return (payloadLength, complete) -> {
+                    throw new IllegalStateException("Enricher failure");
+                };
+            }
+        });
+        context.registerService(DraftEnricher.class, new DraftEnricher() {
+            @Override
+            public String getName() {
+                return "overriding";
+            }
+
+            @Override
+            public Handler newHandler(Resource draftResource) {
+                return (payloadLength, complete) -> Map.of("myCustomDraftNameGathered", "Overridden",
+                    "myCustomDraftComplete", complete);
+            }
+        });
+        DraftEnrichmentServiceImpl service = context.registerInjectActivateService(new DraftEnrichmentServiceImpl());
+        String data = "<afData><afBoundData><data><myCustomDraftName>Draft</myCustomDraftName>"
+            + "<traveller><city>Basel</city><zip> </zip></traveller></data></afBoundData></afData>";
+        Resource draftResource = createDraft("ENRICHED_af", data);
+
+        assertTrue(service.enrichDraft(draftResource));
+
+        ValueMap properties = draftResource.getValueMap();
+        assertEquals("Draft", properties.get("myCustomDraftNameGathered", String.class),
+            "Should not let enrichers overwrite mapped fields");
+        assertEquals(Boolean.TRUE, properties.get("myCustomDraftComplete", Boolean.class),
+            "Should apply the other enrichers when one fails");
+        assertEquals(2L, properties.get("myCustomDraftFilledFields", Long.class));
+        assertEquals((long) data.length(), properties.get("myCustomDraftDataSize", Long.class));
+        assertEquals(1, service.getPayloadReadCount());
+        assertTrue(service.computeEnrichment(draftResource).isEmpty(),
+            "Should skip unchanged data as long as the enrichers are the same");
+    }
+
+    private Resource createDraft(String id, String data) {
+        context.create().resource(
+            "/content/forms/fp/admin/drafts/data/" + id,
+            "jcr:primaryType", "nt:unstructured",
+            "data", data
+        );
+        return context.create().resource(
+            "/content/forms/fp/admin/drafts/metadata/" + id,
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "sling:resourceType", "fd/fp/components/guidereload",
+            "formPath", "/content/forms/af/travel",
+            "userdataID", "/content/forms/fp/admin/drafts/data/" + id
+        );
+    }
+
+    /**
+     * Serves the first bytes of some data, then fails like a dropped repository connection.
+     */
+    private static final class FailingInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int failAt;
+        private int position;
+
+        FailingInputStream(byte[] data, int failAt) {
+            this.data = data;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= failAt) {
+                throw new IOException("Connection reset");
+            }
+            return data[position++] & 0xff;
+        }
+    }
+
     @Test
     void testEnrichDraft_NullResource() {
         // Test with null
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DraftFieldMappingTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testGetSpecificity() {
+        DraftFieldMapping mapping = context.registerInjectActivateService(new DraftFieldMapping(),
+            "form.paths", new String[] { "/content/forms/af/travel/", "/content/forms/af" },
+            "field.mappings", new String[] { "a=b" });
+
+        assertEquals("/content/forms/af/travel".length(), mapping.getSpecificity("/content/forms/af/travel/booking"));
+        assertEquals("/content/forms/af".length(), mapping.getSpecificity("/content/forms/af/travelling"),
+            "Should only match whole path segments");
+        assertEquals(-1, mapping.getSpecificity("/content/dam/formsanddocuments/travel"));
+        assertEquals(-1, mapping.getSpecificity(null));
+    }
+
+    @Test
+    void testIgnoresInvalidEntries() {
+        DraftFieldMapping mapping = context.registerInjectActivateService(new DraftFieldMapping(),
+            "form.paths", new String[] { "/content/other", "/content/forms/af/travel" },
+            "field.mappings", new String[] { "tripName=tripNameGathered", "noProperty=", "=noField", "panel//x=y" });
+
+        Map<String, FieldSpec> mappings = mapping.getMappings();
+        assertEquals(1, mappings.size());
+        assertEquals("tripName", mappings.get("tripNameGathered").getFieldName());
+        assertEquals(-1, mapping.getSpecificity("/content/other/form"),
+            "Should ignore form paths outside /content/forms/af");
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftPage;
+import com.mycompany.aem.core.services.DraftQuery;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+@ExtendWith(AemContextExtension.class)
+class DraftQueryServiceImplTest {
+
+    private static final File INDEX_DEFINITION =
+        new File("../ui.apps/src/main/content/jcr_root/_oak_index/my65siteDraftMetadata/.content.xml");
+    private static final Pattern CURSOR_BOUND =
+        Pattern.compile("\\[jcr:lastModified\\] <= CAST\\('([^']+)' AS DATE\\)");
+
+    private final AemContext context = new AemContext();
+
+    /**
+     * Checks the generated statements against the shipped index definition only. It does not
+     * prove that Oak plans them with the index: the repository of the unit tests has no Lucene
+     * index provider, so that is checked on an instance by DraftQueryIndexIT in it.tests.
+     */
+    @Test
+    void testQueriesMatchIndexDefinition() throws Exception {
+        Document index = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(INDEX_DEFINITION);
+        Element root = index.getDocumentElement();
+        assertEquals("lucene", root.getAttribute("type"));
+        Element rule = firstChildElement(firstChildElement(root, "indexRules"), "nt:unstructured");
+        Set<String> indexed = new HashSet<>();
+        Set<String> ordered = new HashSet<>();
+        NodeList properties = firstChildElement(rule, "properties").getChildNodes();
+        for (int i = 0; i < properties.getLength(); i++) {
+            if (properties.item(i) instanceof Element) {
+                Element property = (Element) properties.item(i);
+                if ("{Boolean}true".equals(property.getAttribute("propertyIndex"))) {
+                    indexed.add(property.getAttribute("name"));
+                }
+                if ("{Boolean}true".equals(property.getAttribute("ordered"))) {
+                    ordered.add(property.getAttribute("name"));
+                }
+            }
+        }
+
+        Calendar from = Calendar.getInstance();
+        from.add(Calendar.DAY_OF_MONTH, -7);
+        List<String> queries = Arrays.asList(
+            DraftQueryServiceImpl.buildQuery(DraftQuery.builder().build(), null),
+            DraftQueryServiceImpl.buildQuery(DraftQuery.builder()
+                .gatheredName("O'Brien trip").owner("jdoe").modifiedFrom(from).modifiedTo(Calendar.getInstance())
+                .build(), DraftQueryServiceImpl.Cursor.parse("1700000000000:/content/forms/fp/jdoe/drafts/metadata/A")));
+
+        for (String query : queries) {
+            String where = query.substring(query.indexOf(" WHERE "), query.indexOf(" ORDER BY "));
+            assertTrue(query.startsWith("SELECT * FROM [nt:unstructured] AS draft"),
+                "Should select the node type of the index rule: " + query);
+            assertTrue(where.contains("ISDESCENDANTNODE(draft, '/content/forms/fp')")
+                && root.getAttribute("queryPaths").equals("[/content/forms/fp]"),
+                "Should be restricted to the index's query path: " + query);
+            Matcher constraint = Pattern.compile("draft\\.\\[([^\\]]+)\\]").matcher(where);
+            while (constraint.find()) {
+                assertTrue(indexed.contains(constraint.group(1)),
+                    "Should only constrain indexed properties, not " + constraint.group(1) + ": " + query);
+            }
+            assertTrue(query.contains(" ORDER BY draft.[jcr:lastModified] DESC") && ordered.contains("jcr:lastModified"),
+                "Should only order by ordered properties: " + query);
+            assertTrue(query.endsWith(" OPTION(INDEX TAG " + DraftQueryServiceImpl.INDEX_TAG + ")")
+                && root.getAttribute("tags").equals("[" + DraftQueryServiceImpl.INDEX_TAG + "]"),
+                "Should select the index by its tag: " + query);
+        }
+        assertTrue(queries.get(1).contains("draft.[myCustomDraftNameGathered] = 'O''Brien trip'"),
+            "Should escape quotes in values");
+    }
+
+    @Test
+    void testPagesWithCursor() {
+        long time = 1700000000000L;
+        List<Resource> drafts = Arrays.asList(
+            createDraft("E", time + 1),
+            createDraft("D", time + 4),
+            createDraft("C", time + 4),
+            createDraft("B", time + 4),
+            createDraft("A", time + 5));
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doAnswer(invocation -> {
+            // Answers like the index: bounded by the cursor, newest first, in no particular order within a millisecond
+            Matcher bound = CURSOR_BOUND.matcher(invocation.getArgument(0));
+            long max = bound.find() ? Instant.parse(bound.group(1)).toEpochMilli() : Long.MAX_VALUE;
+            return drafts.stream()
+                .filter(draft -> lastModified(draft) <= max)
+                .sorted(Comparator.comparingLong(DraftQueryServiceImplTest::lastModified).reversed())
+                .iterator();
+        }).when(resolver).findResources(anyString(), eq("JCR-SQL2"));
+        DraftQueryServiceImpl service = context.registerInjectActivateService(new DraftQueryServiceImpl());
+
+        List<String> names = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            DraftPage page = service.findDrafts(resolver, DraftQuery.builder().after(cursor).limit(2).build());
+            page.getDrafts().forEach(draft -> names.add(draft.getName()));
+            sizes.add(page.getDrafts().size());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(Arrays.asList("A", "B", "C", "D", "E"), names,
+            "Should return every draft once, ordering drafts of the same millisecond by path");
+        assertEquals(Arrays.asList(2, 2, 1), sizes);
+    }
+
+    @Test
+    void testLimitsPageSize() {
+        ResourceResolver resolver = spy(context.resourceResolver());
+        List<Resource> drafts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            drafts.add(createDraft("DRAFT" + i, 1700000000000L - i));
+        }
+        doAnswer(invocation -> drafts.iterator()).when(resolver).findResources(anyString(), eq("JCR-SQL2"));
+        DraftQueryServiceImpl service = context.registerInjectActivateService(new DraftQueryServiceImpl(),
+            "default.page.size", 3, "max.page.size", 5);
+
+        assertEquals(3, service.findDrafts(resolver, DraftQuery.builder().build()).getDrafts().size());
+        assertEquals(5, service.findDrafts(resolver, DraftQuery.builder().limit(50).build()).getDrafts().size());
+    }
+
+    @Test
+    void testRejectsInvalidCursor() {
+        DraftQueryServiceImpl service = context.registerInjectActivateService(new DraftQueryServiceImpl());
+
+        assertThrows(IllegalArgumentException.class,
+            () -> service.findDrafts(context.resourceResolver(), DraftQuery.builder().after("abc:/etc").build()));
+    }
+
+    private Resource createDraft(String id, long lastModified) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(lastModified);
+        return context.create().resource("/content/forms/fp/jdoe/drafts/metadata/" + id,
+            "jcr:primaryType", "nt:unstructured",
+            "nodeType", "fp:Draft",
+            "owner", "jdoe",
+            "jcr:lastModified", calendar);
+    }
+
+    private static long lastModified(Resource draft) {
+        return draft.getValueMap().get("jcr:lastModified", Calendar.class).getTimeInMillis();
+    }
+
+    private static Element firstChildElement(Node parent, String name) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element && name.equals(children.item(i).getNodeName())) {
+                return (Element) children.item(i);
+            }
+        }
+        throw new AssertionError("Missing " + name + " in index definition");
+    }
+}
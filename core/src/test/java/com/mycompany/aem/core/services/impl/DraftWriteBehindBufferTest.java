@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class DraftWriteBehindBufferTest {
+
+    private static final String DRAFT_A = "/content/forms/fp/admin/drafts/metadata/A_af";
+    private static final String DRAFT_B = "/content/forms/fp/admin/drafts/metadata/B_af";
+
+    private final AemContext context = new AemContext();
+    private ResourceResolverFactory resolverFactory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        context.create().resource(DRAFT_A, "jcr:primaryType", "nt:unstructured");
+        context.create().resource(DRAFT_B, "jcr:primaryType", "nt:unstructured");
+        context.resourceResolver().commit();
+        resolverFactory = context.getService(ResourceResolverFactory.class);
+    }
+
+    @Test
+    void testCommitsFullBatchAtOnce() throws Exception {
+        DraftWriteBehindBuffer buffer = new DraftWriteBehindBuffer(resolverFactory, "draftEnrichmentService", 2, 60000,
+            path -> { }, nanos -> { });
+        try {
+            buffer.submit(DRAFT_A, Collections.singletonMap("a", "1"));
+            buffer.submit(DRAFT_A, Collections.singletonMap("b", "2"));
+            assertEquals(1, buffer.getPendingCount(), "Should merge changes to the same draft");
+
+            buffer.submit(DRAFT_B, Collections.singletonMap("a", "3"));
+
+            assertEquals(0, buffer.getPendingCount());
+            assertEquals(1, buffer.getBatchCount());
+            assertEquals(2, buffer.getWrittenCount());
+            assertEquals("2", readProperty(DRAFT_A, "b"));
+            assertEquals("3", readProperty(DRAFT_B, "a"));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    void testFlushesAfterMaxDelay() throws Exception {
+        DraftWriteBehindBuffer buffer = new DraftWriteBehindBuffer(resolverFactory, "draftEnrichmentService", 50, 20,
+            path -> { }, nanos -> { });
+        try {
+            buffer.submit(DRAFT_A, Collections.singletonMap("a", "1"));
+            buffer.submit("/content/forms/fp/admin/drafts/metadata/GONE_af", Collections.singletonMap("a", "2"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (buffer.getBatchCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, buffer.getBatchCount());
+            assertEquals(1, buffer.getWrittenCount(), "Should skip drafts that no longer exist");
+            assertEquals("1", readProperty(DRAFT_A, "a"));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private String readProperty(String path, String name) throws Exception {
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
+            return resolver.getResource(path).getValueMap().get(name, String.class);
+        }
+    }
+}
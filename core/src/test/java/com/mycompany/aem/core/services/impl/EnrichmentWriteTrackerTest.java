@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnrichmentWriteTrackerTest {
+
+    private static final String DRAFT = "/content/forms/fp/admin/drafts/metadata/A_af";
+
+    private final EnrichmentWriteTracker tracker = new EnrichmentWriteTracker(60000, 100);
+
+    @Test
+    void testMatchesWrittenPropertiesOnce() {
+        tracker.record(DRAFT, new HashSet<>(Arrays.asList("myCustomPropertyName", "myCustomDraftNameGathered")));
+
+        assertFalse(tracker.consume(DRAFT, new HashSet<>(Arrays.asList("myCustomPropertyName", "lastModifiedTime"))),
+            "Should not match a change to properties enrichment does not write");
+        assertTrue(tracker.consume(DRAFT, Collections.singleton("myCustomDraftNameGathered")));
+        assertFalse(tracker.consume(DRAFT, Collections.singleton("myCustomDraftNameGathered")),
+            "Should match a write only once");
+    }
+
+    @Test
+    void testMatchesAnyChangeWithoutPropertyNamesOnce() {
+        tracker.record(DRAFT, Collections.singleton("myCustomPropertyName"));
+
+        assertFalse(tracker.consume("/content/forms/fp/admin/drafts/metadata/B_af", null));
+        assertTrue(tracker.consume(DRAFT, null));
+        assertFalse(tracker.consume(DRAFT, null));
+    }
+
+    @Test
+    void testForgetsWrites() {
+        EnrichmentWriteTracker expiring = new EnrichmentWriteTracker(0, 100);
+        expiring.record(DRAFT, Collections.singleton("myCustomPropertyName"));
+        assertFalse(expiring.consume(DRAFT, null), "Should not match an expired write");
+
+        tracker.record(DRAFT, Collections.singleton("myCustomPropertyName"));
+        tracker.forget(DRAFT);
+        assertEquals(0, tracker.size());
+    }
+}
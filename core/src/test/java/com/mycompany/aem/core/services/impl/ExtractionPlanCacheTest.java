@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtractionPlanCacheTest {
+
+    private static final ExtractionPlan PLAN = new ExtractionPlan(DraftDataLayout.JCR_DATA,
+        Collections.singletonMap(FieldSpec.parse("f"), "afData/afBoundData/data/f"));
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ExtractionPlanCache cache = new ExtractionPlanCache(2);
+        cache.put("/content/forms/af/a", PLAN);
+        cache.put("/content/forms/af/b", PLAN);
+        cache.get("/content/forms/af/a");
+        cache.put("/content/forms/af/c", PLAN);
+
+        assertEquals(2, cache.size());
+        assertSame(PLAN, cache.get("/content/forms/af/a"));
+        assertNull(cache.get("/content/forms/af/b"), "Should evict the least recently used form");
+        assertSame(PLAN, cache.get("/content/forms/af/c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testCountsHitsAndMisses() {
+        ExtractionPlanCache cache = new ExtractionPlanCache(0);
+        cache.recordMiss();
+        cache.recordHit();
+        cache.recordHit();
+
+        assertEquals(1, cache.getMaxSize(), "Should hold at least one plan");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
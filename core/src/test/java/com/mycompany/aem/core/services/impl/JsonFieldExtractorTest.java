@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.mycompany.aem.core.services.DraftEnricher;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonFieldExtractorTest {
+
+    private static final String FIELD = "myCustomDraftName";
+
+    private static final String DRAFT = "{\"afData\":{\"afBoundData\":{\"data\":{"
+        + "\"myCustomDraftName\":\" \","
+        + "\"panel\":{\"myCustomDraftName\":\"Draft 1\",\"age\":42,\"consent\":true,\"note\":null},"
+        + "\"traveller\":[{\"city\":\"Basel\"},{\"city\":\"Bern\"}],"
+        + "\"tags\":[\"a\",\"\",\"b\"]}}}}";
+
+    @Test
+    void testExtractFields_ByNameAndPath() throws Exception {
+        FieldSpec name = FieldSpec.parse(FIELD);
+        FieldSpec age = FieldSpec.parse("panel/age");
+        FieldSpec cities = FieldSpec.parse("traveller/city[]");
+        FieldSpec tags = FieldSpec.parse("tags[]");
+        FieldSpec missing = FieldSpec.parse("missing");
+
+        ExtractionResult result = JsonFieldExtractor.extractFields(stream(DRAFT),
+            Arrays.asList(name, age, cities, tags, missing), 256, null);
+
+        assertEquals(Arrays.asList("Draft 1"), result.getValues().get(name), "Should skip blank values");
+        assertEquals(Arrays.asList("42"), result.getValues().get(age));
+        assertEquals(Arrays.asList("Basel", "Bern"), result.getValues().get(cities),
+            "Should repeat the elements of an array of objects");
+        assertEquals(Arrays.asList("a", "b"), result.getValues().get(tags));
+        assertFalse(result.getValues().containsKey(missing));
+        assertTrue(result.getElementPaths().isEmpty());
+        assertTrue(result.isComplete());
+    }
+
+    @Test
+    void testExtractFields_DataRef() throws Exception {
+        FieldSpec dataRef = FieldSpec.parse("$.traveller[*].city[]");
+
+        ExtractionResult result = JsonFieldExtractor.extractFields(stream(DRAFT), Arrays.asList(dataRef), 256, null);
+
+        assertEquals(FieldSpec.parse("traveller/city[]"), dataRef);
+        assertEquals(Arrays.asList("Basel", "Bern"), result.getValues().get(dataRef));
+    }
+
+    @Test
+    void testExtractFields_StopsOnceFieldsAreFound() throws Exception {
+        String json = "{\"myCustomDraftName\":\"Draft\", this is not read";
+
+        ExtractionResult result = JsonFieldExtractor.extractFields(stream(json),
+            Arrays.asList(FieldSpec.parse(FIELD)), 256, null);
+
+        assertEquals(Arrays.asList("Draft"), result.getValues().get(FieldSpec.parse(FIELD)));
+    }
+
+    @Test
+    void testExtractFields_RejectsDeepNesting() {
+        assertThrows(JsonParseException.class, () -> JsonFieldExtractor.extractFields(stream(DRAFT),
+            Arrays.asList(FieldSpec.parse("missing")), 3, null));
+    }
+
+    @Test
+    void testScanFields_TruncatedData() throws Exception {
+        String json = "{\"data\":{\"myCustomDraftName\":\"Draft\",\"traveller\":[{\"city\":\"Basel\"},{\"ci";
+        FieldSpec name = FieldSpec.parse(FIELD);
+        FieldSpec cities = FieldSpec.parse("traveller/city[]");
+
+        ExtractionResult result = JsonFieldExtractor.scanFields(stream(json), Arrays.asList(name, cities), 256, null);
+
+        assertFalse(result.isComplete());
+        assertEquals(Arrays.asList("Draft"), result.getValues().get(name));
+        assertFalse(result.getValues().containsKey(cities), "Should not report values that may be incomplete");
+    }
+
+    @Test
+    void testExtractFields_StreamsElementsToHandler() throws Exception {
+        String json = "{\"data\":{\"name\":\"Draft\",\"traveller\":[{\"city\":\"Basel\"}],\"tags\":[\"a\"]}}";
+        List<String> events = new ArrayList<>();
+        DraftEnricher.Handler handler = new DraftEnricher.Handler() {
+            @Override
+            public void startElement(String name, int depth) {
+                events.add("<" + name + ":" + depth);
+            }
+
+            @Override
+            public void text(char[] chars, int start, int length) {
+                events.add(new String(chars, start, length));
+            }
+
+            @Override
+            public void endElement(String name, int depth) {
+                events.add(">" + name + ":" + depth);
+            }
+
+            @Override
+            public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+                return Collections.emptyMap();
+            }
+        };
+
+        JsonFieldExtractor.extractFields(stream(json), Arrays.asList(FieldSpec.parse("name")), 256, handler);
+
+        assertEquals(Arrays.asList("<data:0", "<name:1", "Draft", ">name:1",
+            "<traveller:1", "<city:2", "Basel", ">city:2", ">traveller:1",
+            "<tags:1", "a", ">tags:1", ">data:0"), events);
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
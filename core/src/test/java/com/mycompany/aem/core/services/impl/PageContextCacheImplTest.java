@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.day.cq.wcm.api.Page;
+import com.mycompany.aem.core.services.PageContextCache;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.spy;
+
+@ExtendWith(AemContextExtension.class)
+class PageContextCacheImplTest {
+
+    private final AemContext context = new AemContext();
+
+    private PageContextCacheImpl cache;
+    private Page page;
+
+    @BeforeEach
+    void setUp() {
+        cache = context.registerInjectActivateService(new PageContextCacheImpl());
+        page = context.create().page("/content/site/page", "/conf/my65site/settings/wcm/templates/page-content",
+            Map.of("jcr:title", "Page", "owner", "ops"));
+        context.create().resource(page, "root/title");
+        context.create().resource(page, "root/text");
+    }
+
+    @Test
+    void testPageKey() {
+        assertEquals("/content/site/page", PageContextCacheImpl.getPageKey("/content/site/page/jcr:content/root"));
+        assertEquals("/content/site/page", PageContextCacheImpl.getPageKey("/content/site/page/jcr:content"));
+        assertEquals("/content/site/page", PageContextCacheImpl.getPageKey("/content/site/page"));
+        assertEquals("/content/site/jcr:contentx", PageContextCacheImpl.getPageKey("/content/site/jcr:contentx"));
+    }
+
+    @Test
+    void testMemoizesPagesWithinScope() {
+        try (PageContextCache.Scope scope = cache.openScope(context.resourceResolver())) {
+            assertEquals(page.getPath(), cache.getContainingPage(resource("root/title")).getPath());
+            assertEquals(page.getPath(), cache.getContainingPage(resource("root/text")).getPath());
+            assertEquals(page.getPath(), cache.getContainingPage(resource("root")).getPath());
+            assertEquals("ops", cache.getPageProperties(resource("root/title")).get("owner", String.class));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+
+        // Closed scope, every lookup goes to the repository
+        cache.getContainingPage(resource("root/title"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testMemoizesMissingPages() {
+        Resource outside = context.create().resource("/content/outside/child");
+        try (PageContextCache.Scope scope = cache.openScope(context.resourceResolver())) {
+            assertNull(cache.getContainingPage(outside));
+            assertNull(cache.getContainingPage(outside));
+            assertTrue(cache.getPageProperties(outside).isEmpty());
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    void testIgnoresOtherResolvers() {
+        ResourceResolver other = spy(context.resourceResolver());
+        try (PageContextCache.Scope scope = cache.openScope(other)) {
+            cache.getContainingPage(resource("root/title"));
+            cache.getContainingPage(resource("root/text"));
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void testNestedScopeKeepsOuterScope() {
+        try (PageContextCache.Scope scope = cache.openScope(context.resourceResolver())) {
+            cache.getContainingPage(resource("root/title"));
+            cache.openScope(context.resourceResolver()).close();
+            cache.getContainingPage(resource("root/text"));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private Resource resource(String relativePath) {
+        return context.resourceResolver().getResource(page.getPath() + "/jcr:content/" + relativePath);
+    }
+}
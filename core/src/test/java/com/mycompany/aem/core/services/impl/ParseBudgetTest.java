@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParseBudgetTest {
+
+    @Test
+    void testAcquireAndRelease() throws Exception {
+        ParseBudget budget = new ParseBudget(64 * 1024);
+
+        try (ParseBudget.Permit small = budget.acquire(100);
+             ParseBudget.Permit large = budget.acquire(10 * 1024)) {
+            assertEquals(11 * 1024, budget.getInFlightBytes(), "Should round payload sizes up to whole kilobytes");
+        }
+        assertEquals(0, budget.getInFlightBytes());
+    }
+
+    @Test
+    void testOversizedPayloadTakesWholeBudget() throws Exception {
+        ParseBudget budget = new ParseBudget(64 * 1024);
+        ParseBudget.Permit small = budget.acquire(1024);
+        CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread thread = new Thread(() -> {
+            try (ParseBudget.Permit large = budget.acquire(Long.MAX_VALUE)) {
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS), "Should wait while any other parse is running");
+        assertEquals(1, budget.getWaitingCount());
+        small.close();
+        small.close();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS), "Should run alone once the other parse is done");
+        thread.join();
+        assertEquals(0, budget.getInFlightBytes(), "Should release a permit only once");
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.services.impl;
+
+import com.mycompany.aem.core.services.DraftEnricher;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XmlFieldExtractorTest {
+
+    private static final String FIELD = "myCustomDraftName";
+
+    @Test
+    void testExtractField_BoundData() throws Exception {
+        String xml = "<afData><afUnboundData><data/></afUnboundData>"
+            + "<afBoundData><data><panel><myCustomDraftName> Draft 1 </myCustomDraftName></panel></data></afBoundData>"
+            + "</afData>";
+
+        assertEquals("Draft 1", XmlFieldExtractor.extractField(new StringReader(xml), FIELD),
+            "Should return the trimmed text of the field");
+    }
+
+    @Test
+    void testExtractField_FirstMatchBlankFallsBackToLaterPattern() throws Exception {
+        // The first //field node is blank, //data//field finds a later one
+        String xml = "<afData><myCustomDraftName> </myCustomDraftName>"
+            + "<data><myCustomDraftName>nested</myCustomDraftName></data></afData>";
+
+        assertEquals("nested", XmlFieldExtractor.extractField(new StringReader(xml), FIELD));
+    }
+
+    @Test
+    void testExtractField_PrefixedElement() throws Exception {
+        String xml = "<afData xmlns:x=\"urn:test\"><x:myCustomDraftName>prefixed</x:myCustomDraftName></afData>";
+
+        assertEquals("prefixed", XmlFieldExtractor.extractField(new StringReader(xml), FIELD),
+            "Should match the local name like //*[local-name()=...]");
+    }
+
+    @Test
+    void testExtractField_TextContentIncludesDescendantsAndCdata() throws Exception {
+        String xml = "<data><myCustomDraftName>a<b>b</b><![CDATA[c]]></myCustomDraftName></data>";
+
+        assertEquals("abc", XmlFieldExtractor.extractField(new StringReader(xml), FIELD));
+    }
+
+    @Test
+    void testExtractField_NotFound() throws Exception {
+        String xml = "<afData><afBoundData><data><other>value</other></data></afBoundData></afData>";
+
+        assertNull(XmlFieldExtractor.extractField(new StringReader(xml), FIELD));
+    }
+
+    @Test
+    void testExtractField_StopsReadingAfterMatch() throws Exception {
+        // Everything after the match is malformed, so a full parse would fail
+        String xml = "<afData><myCustomDraftName>early</myCustomDraftName><broken></afData>";
+
+        assertEquals("early", XmlFieldExtractor.extractField(new StringReader(xml), FIELD),
+            "Should return as soon as the value is known");
+    }
+
+    @Test
+    void testExtractField_InputStreamHonoursDeclaredEncoding() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><data><myCustomDraftName>café</myCustomDraftName></data>";
+        InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.ISO_8859_1));
+
+        assertEquals("café", XmlFieldExtractor.extractField(in, FIELD));
+    }
+
+    @Test
+    void testExtractField_RejectsDoctype() {
+        String xml = "<!DOCTYPE data [<!ENTITY e \"x\">]><data><myCustomDraftName>&e;</myCustomDraftName></data>";
+
+        assertThrows(XMLStreamException.class,
+            () -> XmlFieldExtractor.extractField(new StringReader(xml), FIELD),
+            "Should reject DOCTYPE declarations like the DOM parser did");
+    }
+
+    @Test
+    void testExtractFields_SinglePass() throws Exception {
+        String xml = "<afData><afBoundData><data>"
+            + "<myCustomDraftName>Draft</myCustomDraftName>"
+            + "<travellers><traveller><city>Basel</city></traveller><traveller><city> </city></traveller>"
+            + "<traveller><city>Bern</city></traveller></travellers>"
+            + "<city>Zurich</city>"
+            + "</data></afBoundData></afData>";
+        FieldSpec name = FieldSpec.parse(FIELD);
+        FieldSpec allCities = FieldSpec.parse("traveller/city[]");
+        FieldSpec firstCity = FieldSpec.parse("traveller/city");
+        FieldSpec missing = FieldSpec.parse("missing");
+
+        Map<FieldSpec, List<String>> values = XmlFieldExtractor.extractFields(new StringReader(xml),
+            Arrays.asList(name, allCities, firstCity, missing));
+
+        assertEquals(Arrays.asList("Draft"), values.get(name));
+        assertEquals(Arrays.asList("Basel", "Bern"), values.get(allCities),
+            "Should collect every non-blank value of a repeated panel field");
+        assertEquals(Arrays.asList("Basel"), values.get(firstCity));
+        assertFalse(values.containsKey(missing), "Fields without a value should be absent");
+    }
+
+    @Test
+    void testExtractFields_StopsWhenAllSingleValuedFieldsFound() throws Exception {
+        String xml = "<data><a>1</a><b>2</b><broken></data>";
+
+        Map<FieldSpec, List<String>> values = XmlFieldExtractor.extractFields(new StringReader(xml),
+            Arrays.asList(FieldSpec.parse("a"), FieldSpec.parse("b")));
+
+        assertEquals(2, values.size());
+    }
+
+    @Test
+    void testExtractFields_RejectsDeepNesting() {
+        String xml = "<data><a><b><c><myCustomDraftName>deep</myCustomDraftName></c></b></a></data>";
+        InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(XMLStreamException.class,
+            () -> XmlFieldExtractor.extractFields(in, Arrays.asList(FieldSpec.parse(FIELD)), Collections.emptyMap(), 4));
+    }
+
+    @Test
+    void testScanFields_ReportsOnlyDeterminedFields() throws Exception {
+        // Cut short in the middle of the repeated panel, as when only part of a payload is read
+        String xml = "<afData><afBoundData><data><myCustomDraftName>Draft</myCustomDraftName>"
+            + "<traveller><city>Basel</city></traveller><traveller><ci";
+        FieldSpec name = FieldSpec.parse(FIELD);
+        FieldSpec allCities = FieldSpec.parse("traveller/city[]");
+        FieldSpec missing = FieldSpec.parse("missing");
+
+        ExtractionResult result = XmlFieldExtractor.scanFields(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+            Arrays.asList(name, allCities, missing), Collections.emptyMap(), 256);
+
+        assertFalse(result.isComplete());
+        assertEquals(Arrays.asList("Draft"), result.getValues().get(name));
+        assertFalse(result.getValues().containsKey(allCities), "Should not report values that may be incomplete");
+        assertFalse(result.getValues().containsKey(missing));
+    }
+
+    @Test
+    void testScanFields_CompleteDocument() throws Exception {
+        String xml = "<data><traveller><city>Basel</city></traveller><traveller><city>Bern</city></traveller></data>";
+        FieldSpec allCities = FieldSpec.parse("traveller/city[]");
+
+        ExtractionResult result = XmlFieldExtractor.scanFields(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+            Arrays.asList(allCities), Collections.emptyMap(), 256);
+
+        assertTrue(result.isComplete());
+        assertEquals(Arrays.asList("Basel", "Bern"), result.getValues().get(allCities));
+    }
+
+    @Test
+    void testExtractFields_StreamsWholeDocumentToHandler() throws Exception {
+        String xml = "<data><myCustomDraftName>Draft</myCustomDraftName><panel><city>Basel</city></panel></data>";
+        List<String> events = new ArrayList<>();
+        DraftEnricher.Handler handler = new DraftEnricher.Handler() {
+            @Override
+            public void startElement(String name, int depth) {
+                events.add("<" + name + ":" + depth);
+            }
+
+            @Override
+            public void text(char[] chars, int start, int length) {
+                events.add(new String(chars, start, length));
+            }
+
+            @Override
+            public void endElement(String name, int depth) {
+                events.add(">" + name + ":" + depth);
+            }
+
+            @Override
+            public Map<String, Object> endDocument(long payloadLength, boolean complete) {
+                return Collections.emptyMap();
+            }
+        };
+
+        ExtractionResult result = XmlFieldExtractor.extractFields(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+            Arrays.asList(FieldSpec.parse(FIELD)), Collections.emptyMap(), 256, handler);
+
+        assertEquals(Arrays.asList("Draft"), result.getValues().get(FieldSpec.parse(FIELD)));
+        assertEquals(Arrays.asList("<data:0", "<myCustomDraftName:1", "Draft", ">myCustomDraftName:1",
+            "<panel:1", "<city:2", "Basel", ">city:2", ">panel:1", ">data:0"), events,
+            "Should keep reading after the fields are found while a handler is subscribed");
+    }
+}
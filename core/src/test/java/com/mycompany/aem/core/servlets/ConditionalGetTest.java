@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+import java.util.Calendar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(AemContextExtension.class)
+class ConditionalGetTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testETagDependsOnValuesAndOrder() {
+        assertEquals(new ConditionalGet().update("a").update("bc").getETag(),
+            new ConditionalGet().update("a").update("bc").getETag());
+        assertNotEquals(new ConditionalGet().update("a").update("bc").getETag(),
+            new ConditionalGet().update("ab").update("c").getETag());
+        assertNotEquals(new ConditionalGet().update(null).getETag(), new ConditionalGet().update("").getETag());
+        assertTrue(new ConditionalGet().getETag().startsWith("W/\""));
+    }
+
+    @Test
+    void testIfNoneMatch() {
+        ConditionalGet validator = new ConditionalGet().update("draft");
+        MockSlingHttpServletRequest request = context.request();
+
+        request.setHeader("If-None-Match", "\"other\", " + validator.getETag());
+        assertTrue(validator.isNotModified(request));
+
+        // Weak comparison ignores the W/ prefix
+        request.setHeader("If-None-Match", validator.getETag().substring(2));
+        assertTrue(validator.isNotModified(request));
+
+        request.setHeader("If-None-Match", "\"other\"");
+        assertFalse(validator.isNotModified(request));
+    }
+
+    @Test
+    void testIfNoneMatchTakesPrecedence() {
+        ConditionalGet validator = new ConditionalGet().modified(time(1_000_000L));
+        MockSlingHttpServletRequest request = context.request();
+        request.setHeader("If-None-Match", "\"other\"");
+        request.setDateHeader("If-Modified-Since", 2_000_000L);
+
+        assertFalse(validator.isNotModified(request));
+    }
+
+    @Test
+    void testIfModifiedSince() {
+        ConditionalGet validator = new ConditionalGet().modified(time(1_000_500L)).modified(time(500L));
+        assertEquals(1_000_500L, validator.getLastModified());
+        MockSlingHttpServletRequest request = context.request();
+
+        // HTTP dates drop the milliseconds
+        request.setDateHeader("If-Modified-Since", 1_000_000L);
+        assertTrue(validator.isNotModified(request));
+
+        request.setDateHeader("If-Modified-Since", 999_000L);
+        assertFalse(validator.isNotModified(request));
+    }
+
+    @Test
+    void testWithoutValidators() {
+        assertFalse(new ConditionalGet().isNotModified(context.request()));
+    }
+
+    @Test
+    void testEntityTagOnly() {
+        ConditionalGet validator = ConditionalGet.entityTagOnly().modified(time(1_000_000L));
+        MockSlingHttpServletRequest request = context.request();
+        request.setDateHeader("If-Modified-Since", 2_000_000L);
+        MockSlingHttpServletResponse response = context.response();
+
+        validator.writeHeaders(response);
+
+        assertFalse(validator.isNotModified(request), "Should ignore If-Modified-Since");
+        assertNull(response.getHeader("Last-Modified"));
+        assertNotEquals(new ConditionalGet().getETag(), validator.getETag(), "Should feed the time into the tag");
+        request.setHeader("If-None-Match", validator.getETag());
+        assertTrue(validator.isNotModified(request));
+    }
+
+    @Test
+    void testWriteHeaders() {
+        ConditionalGet validator = new ConditionalGet().modified(time(1_000_000L));
+        MockSlingHttpServletResponse response = context.response();
+
+        validator.writeHeaders(response);
+
+        assertEquals(validator.getETag(), response.getHeader("ETag"));
+        assertNotNull(response.getHeader("Last-Modified"));
+    }
+
+    private static Calendar time(long millis) {
+        Calendar time = Calendar.getInstance();
+        time.setTimeInMillis(millis);
+        return time;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.aem.core.services.DraftPage;
+import com.mycompany.aem.core.services.DraftQuery;
+import com.mycompany.aem.core.services.DraftQueryService;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class DraftListServletTest {
+
+    private static final String DRAFTS = "/content/forms/fp/jdoe/drafts/metadata";
+
+    private final AemContext context = new AemContext();
+
+    private DraftQueryService draftQueryService;
+    private DraftListServlet fixture;
+    private ResourceResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        Calendar modified = Calendar.getInstance();
+        modified.setTimeInMillis(1_600_000_000_000L);
+        context.build().resource(DRAFTS + "/A",
+            "name", "Travel claim",
+            "formPath", "/content/forms/af/claim",
+            "owner", "jdoe",
+            "jcr:lastModified", modified,
+            "myCustomPropertyName", "Jane",
+            "myCustomDraftNameGathered", new String[] { "Trip", "Berlin" }).commit();
+        context.build().resource(DRAFTS + "/B",
+            "owner", "jdoe",
+            "jcr:lastModified", modified).commit();
+
+        draftQueryService = mock(DraftQueryService.class);
+        stubPage();
+        context.registerService(DraftQueryService.class, draftQueryService);
+        fixture = context.registerInjectActivateService(new DraftListServlet());
+
+        resolver = spy(context.resourceResolver());
+        doReturn("jdoe").when(resolver).getUserID();
+    }
+
+    @Test
+    void testListsDraftsOfCurrentUser() throws Exception {
+        MockSlingHttpServletRequest request = request();
+        request.setParameterMap(Map.of("limit", "2", "name", "Trip"));
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+
+        fixture.doGet(request, response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("application/json", response.getContentType().split(";")[0]);
+        assertNotNull(response.getHeader("ETag"));
+        assertNull(response.getHeader("Last-Modified"));
+
+        ArgumentCaptor<DraftQuery> query = ArgumentCaptor.forClass(DraftQuery.class);
+        verify(draftQueryService).findDrafts(any(), query.capture());
+        assertEquals("jdoe", query.getValue().getOwner());
+        assertEquals("Trip", query.getValue().getGatheredName());
+        assertEquals(2, query.getValue().getLimit());
+
+        JsonNode json = new ObjectMapper().readTree(response.getOutputAsString());
+        assertEquals("1600000000000:" + DRAFTS + "/B", json.get("next").asText());
+        JsonNode first = json.get("drafts").get(0);
+        assertEquals("A", first.get("id").asText());
+        assertEquals("Travel claim", first.get("name").asText());
+        assertEquals("/content/forms/af/claim", first.get("formPath").asText());
+        assertEquals("2020-09-13T12:26:40Z", first.get("lastModified").asText());
+        assertEquals("Jane", first.get("fields").get("myCustomPropertyName").asText());
+        assertEquals(2, first.get("fields").get("myCustomDraftNameGathered").size());
+        JsonNode second = json.get("drafts").get(1);
+        assertEquals("B", second.get("name").asText());
+        assertEquals(0, second.get("fields").size());
+    }
+
+    @Test
+    void testUnchangedPageIsNotModified() throws Exception {
+        MockSlingHttpServletResponse first = new MockSlingHttpServletResponse();
+        fixture.doGet(request(), first);
+
+        MockSlingHttpServletRequest request = request();
+        request.setHeader("If-None-Match", first.getHeader("ETag"));
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getOutputAsString());
+
+        context.resourceResolver().getResource(DRAFTS + "/A").adaptTo(ModifiableValueMap.class)
+            .put("myCustomPropertyName", "John");
+        context.resourceResolver().commit();
+        stubPage();
+        response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void testRejectsInvalidCursor() throws Exception {
+        when(draftQueryService.findDrafts(any(), any())).thenThrow(new IllegalArgumentException("Invalid cursor"));
+        MockSlingHttpServletRequest request = request();
+        request.setParameterMap(Map.of("cursor", "bogus"));
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+
+        fixture.doGet(request, response);
+
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    void testRequiresAuthenticatedUser() throws Exception {
+        when(draftQueryService.findDrafts(any(), any())).thenReturn(new DraftPage(Collections.emptyList(), null));
+        doReturn("anonymous").when(resolver).getUserID();
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+
+        fixture.doGet(request(), response);
+
+        assertEquals(403, response.getStatus());
+    }
+
+    private void stubPage() {
+        when(draftQueryService.findDrafts(any(), any())).thenReturn(new DraftPage(
+            Arrays.asList(context.resourceResolver().getResource(DRAFTS + "/A"),
+                context.resourceResolver().getResource(DRAFTS + "/B")),
+            "1600000000000:" + DRAFTS + "/B"));
+    }
+
+    private MockSlingHttpServletRequest request() {
+        return new MockSlingHttpServletRequest(resolver, context.bundleContext());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.aem.core.metrics.RequestLatencyMetrics;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class RequestLatencyServletTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testReportsPercentilesPerRequestType() throws Exception {
+        RequestLatencyMetrics metrics = context.registerInjectActivateService(new RequestLatencyMetrics());
+        metrics.record("my65site/components/page", null, "html", 3_000_000L);
+        metrics.record("my65site/components/page", null, "html", 5_000_000L);
+        metrics.record("my65site/components/page", "model", "json", 1_000_000L);
+        RequestLatencyServlet fixture = context.registerInjectActivateService(new RequestLatencyServlet());
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(request("administrators"), response);
+
+        JsonNode json = new ObjectMapper().readTree(response.getOutputAsString());
+        JsonNode first = json.get("types").get(0);
+        assertEquals("my65site/components/page:html", first.get("type").asText());
+        assertEquals("html", first.get("extension").asText());
+        assertTrue(first.get("selectors").isNull());
+        assertEquals(2, first.get("count").asLong());
+        assertEquals(5000, first.get("max").asLong());
+        assertTrue(first.get("p50").asLong() <= first.get("p99").asLong());
+        assertEquals("model", json.get("types").get(1).get("selectors").asText());
+        assertEquals(0, json.get("overflow").asLong());
+    }
+
+    @Test
+    void testForbiddenToOtherUsers() throws Exception {
+        context.registerInjectActivateService(new RequestLatencyMetrics());
+        RequestLatencyServlet fixture = context.registerInjectActivateService(new RequestLatencyServlet());
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(request("contributor"), response);
+
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+        assertEquals("", response.getOutputAsString());
+    }
+
+    private MockSlingHttpServletRequest request(String groupId) throws RepositoryException {
+        Group group = mock(Group.class);
+        when(group.getID()).thenReturn(groupId);
+        User user = mock(User.class);
+        when(user.memberOf()).thenReturn(List.of(group).iterator());
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doReturn(user).when(resolver).adaptTo(User.class);
+        return new MockSlingHttpServletRequest(resolver, context.bundleContext());
+    }
+}
@@ -16,9 +16,12 @@
 package com.mycompany.aem.core.servlets;
 
 import java.io.IOException;
+import java.util.Calendar;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 
+import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
 import org.junit.jupiter.api.Test;
@@ -28,10 +31,14 @@ import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextExtension;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @ExtendWith(AemContextExtension.class)
 class SimpleServletTest {
 
+    private static final String TEMPLATE = "/conf/my65site/settings/wcm/templates/page-content";
+
     private SimpleServlet fixture = new SimpleServlet();
 
     @Test
@@ -46,4 +53,112 @@ class SimpleServletTest {
 
         assertEquals("Title = resource title", response.getOutputAsString());
     }
+
+    @Test
+    void doGetSubtree(AemContext context) throws ServletException, IOException {
+        createPages(context);
+        MockSlingHttpServletRequest request = subtreeRequest(context);
+        request.setParameterMap(Map.of("depth", "2", "properties", "owner"));
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(request, response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("/content/site\tSite\towner=ops\n"
+            + "/content/site/a\tPage A\towner=\n"
+            + "/content/site/a/a1\tPage A1\towner=\n"
+            + "/content/site/b\tPage B\towner=\n", response.getOutputAsString());
+        assertNotNull(response.getHeader("ETag"));
+        assertNull(response.getHeader("Last-Modified"), "Removing a page would not advance Last-Modified");
+    }
+
+    @Test
+    void doGetSubtreeWithLimit(AemContext context) throws ServletException, IOException {
+        createPages(context);
+        MockSlingHttpServletRequest request = subtreeRequest(context);
+        request.setParameterMap(Map.of("depth", "0"));
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(request, response);
+        assertEquals("/content/site\tSite\n", response.getOutputAsString());
+
+        request.setParameterMap(Map.of("depth", "5", "limit", "2"));
+        response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(2, response.getOutputAsString().split("\n").length);
+
+        request.setParameterMap(Map.of("depth", "-1"));
+        response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    void doGetSubtreeNotModified(AemContext context) throws ServletException, IOException {
+        createPages(context);
+        MockSlingHttpServletResponse first = new MockSlingHttpServletResponse();
+        fixture.doGet(subtreeRequest(context), first);
+
+        MockSlingHttpServletRequest request = subtreeRequest(context);
+        request.setHeader("If-None-Match", first.getHeader("ETag"));
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getOutputAsString());
+
+        // A newer page in the subtree changes the validators
+        context.create().page("/content/site/c", TEMPLATE, Map.of("jcr:title", "Page C", "cq:lastModified", time(9000)));
+        response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(first.getHeader("ETag"), response.getHeader("ETag"));
+    }
+
+    @Test
+    void doGetSubtreeAfterPageRemoved(AemContext context) throws Exception {
+        createPages(context);
+        MockSlingHttpServletResponse first = new MockSlingHttpServletResponse();
+        fixture.doGet(subtreeRequest(context), first);
+
+        context.resourceResolver().delete(context.resourceResolver().getResource("/content/site/b"));
+        MockSlingHttpServletRequest request = subtreeRequest(context);
+        request.setHeader("If-None-Match", first.getHeader("ETag"));
+        request.setDateHeader("If-Modified-Since", System.currentTimeMillis());
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertFalse(response.getOutputAsString().contains("/content/site/b"));
+
+        request = subtreeRequest(context);
+        request.setDateHeader("If-Modified-Since", System.currentTimeMillis());
+        response = new MockSlingHttpServletResponse();
+        fixture.doGet(request, response);
+        assertEquals(200, response.getStatus(), "Should not answer 304 to If-Modified-Since alone");
+    }
+
+    private static void createPages(AemContext context) {
+        context.create().page("/content/site", TEMPLATE,
+            Map.of("jcr:title", "Site", "owner", "ops", "cq:lastModified", time(1000)));
+        context.create().page("/content/site/a", TEMPLATE, Map.of("jcr:title", "Page A", "cq:lastModified", time(2000)));
+        context.create().page("/content/site/a/a1", TEMPLATE,
+            Map.of("jcr:title", "Page A1", "cq:lastModified", time(3000)));
+        context.create().page("/content/site/a/a1/deep", TEMPLATE, Map.of("jcr:title", "Too deep"));
+        context.create().page("/content/site/b", TEMPLATE, Map.of("jcr:title", "Page\tB"));
+    }
+
+    private static MockSlingHttpServletRequest subtreeRequest(AemContext context) {
+        context.currentResource("/content/site/jcr:content");
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+            context.bundleContext());
+        request.setResource(context.currentResource());
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setSelectorString(SimpleServlet.SUBTREE_SELECTOR);
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setExtension("txt");
+        return request;
+    }
+
+    private static Calendar time(long millis) {
+        Calendar time = Calendar.getInstance();
+        time.setTimeInMillis(millis);
+        return time;
+    }
 }
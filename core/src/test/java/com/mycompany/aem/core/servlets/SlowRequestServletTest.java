@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2018 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.servlets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.aem.core.filters.SlowRequestTracer;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class SlowRequestServletTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void testDumpsCapturedRequests() throws Exception {
+        SlowRequestTracer tracer = context.registerInjectActivateService(new SlowRequestTracer(),
+            "threshold.ms", 0L);
+        ((MockRequestPathInfo) context.request().getRequestPathInfo()).setResourcePath("/content/slow");
+        tracer.doFilter(context.request(), context.response(), (req, resp) -> { });
+        SlowRequestServlet fixture = context.registerInjectActivateService(new SlowRequestServlet());
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+
+        fixture.doGet(request(true), response);
+
+        JsonNode json = new ObjectMapper().readTree(response.getOutputAsString());
+        assertEquals(0, json.get("thresholdMs").asLong());
+        assertEquals(1, json.get("captured").asLong());
+        assertEquals("/content/slow", json.get("recent").get(0).get("path").asText());
+        assertEquals("/content/slow", json.get("slowest").get(0).get("path").asText());
+
+        fixture.doPost(request(true), new MockSlingHttpServletResponse());
+        assertTrue(tracer.getSlowest().isEmpty());
+        assertEquals(1, tracer.getRecent().size());
+    }
+
+    @Test
+    void testForbiddenToOtherUsers() throws Exception {
+        SlowRequestTracer tracer = context.registerInjectActivateService(new SlowRequestTracer(),
+            "threshold.ms", 0L);
+        tracer.doFilter(context.request(), context.response(), (req, resp) -> { });
+        SlowRequestServlet fixture = context.registerInjectActivateService(new SlowRequestServlet());
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+
+        fixture.doGet(request(false), response);
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+        assertEquals("", response.getOutputAsString());
+
+        response = new MockSlingHttpServletResponse();
+        fixture.doPost(request(false), response);
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+        assertEquals(1, tracer.getSlowest().size(), "Should not let other users reset the slowest requests");
+    }
+
+    private MockSlingHttpServletRequest request(boolean admin) throws Exception {
+        User user = mock(User.class);
+        when(user.isAdmin()).thenReturn(admin);
+        when(user.memberOf()).thenReturn(Collections.emptyIterator());
+        ResourceResolver resolver = spy(context.resourceResolver());
+        doReturn(user).when(resolver).adaptTo(User.class);
+        return new MockSlingHttpServletRequest(resolver, context.bundleContext());
+    }
+}
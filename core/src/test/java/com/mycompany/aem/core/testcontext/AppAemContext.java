@@ -20,6 +20,8 @@ import static org.apache.sling.testing.mock.caconfig.ContextPlugins.CACONFIG;
 
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 
+import com.mycompany.aem.core.services.impl.PageContextCacheImpl;
+
 import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextBuilder;
 import io.wcm.testing.mock.aem.junit5.AemContextCallback;
@@ -64,6 +66,7 @@ public final class AppAemContext {
         @Override
         public void execute(AemContext context) {
             // custom project initialization code for every unit test
+            context.registerInjectActivateService(new PageContextCacheImpl());
         }
     };
 
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Fnv1aTest {
+
+    @Test
+    void testKnownHashes() {
+        assertEquals(0xcbf29ce484222325L, Fnv1a.hash(""));
+        assertEquals(0xaf63dc4c8601ec8cL, Fnv1a.hash("a"));
+        assertEquals(0x85944171f73967e8L, Fnv1a.hash("foobar"));
+    }
+
+    @Test
+    void testUpdatesAreIncremental() {
+        assertEquals(Fnv1a.hash("foobar"), Fnv1a.update(Fnv1a.hash("foo"), "bar"));
+        assertEquals(Fnv1a.hash("foobar"), Fnv1a.update(Fnv1a.update(Fnv1a.hash("fooba"), 'r'), ""));
+    }
+
+    @Test
+    void testBytesHashLikeAsciiChars() {
+        byte[] bytes = "xfoobarx".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Fnv1a.hash("foobar"), Fnv1a.update(Fnv1a.OFFSET_BASIS, bytes, 1, 6));
+
+        // Bytes are unsigned
+        assertEquals(Fnv1a.update(Fnv1a.OFFSET_BASIS, 0xe9),
+            Fnv1a.update(Fnv1a.OFFSET_BASIS, new byte[] { (byte) 0xe9 }, 0, 1));
+    }
+}
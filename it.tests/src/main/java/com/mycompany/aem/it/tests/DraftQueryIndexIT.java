@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.mycompany.aem.it.tests;
+
+import com.adobe.cq.testing.client.CQClient;
+import com.adobe.cq.testing.junit.rules.CQAuthorClassRule;
+import com.adobe.cq.testing.junit.rules.CQRule;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.SlingHttpResponse;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the draft queries are answered by the {@code my65siteDraftMetadata} index
+ * deployed with ui.apps, and not by traversing the repository.
+ * <p>
+ * Each statement has the shape the core bundle builds (DraftQueryServiceImpl and
+ * DraftReconciliationJob) and is run with {@code OPTION(TRAVERSAL FAIL)}, so Oak refuses to
+ * execute it if no index can answer it. The statements are run through the query tool of
+ * CRXDE Lite, which must be enabled on the author instance, as it is on a local quickstart.
+ */
+public class DraftQueryIndexIT {
+
+    private static final String QUERY_TOOL = "/crx/de/query.jsp";
+    private static final Pattern SUCCESS = Pattern.compile("\"success\"\\s*:\\s*true");
+
+    private static final String DRAFTS = "SELECT * FROM [nt:unstructured] AS draft"
+        + " WHERE ISDESCENDANTNODE(draft, '/content/forms/fp') AND draft.[nodeType] = 'fp:Draft'";
+
+    @ClassRule
+    public static final CQAuthorClassRule cqBaseClassRule = new CQAuthorClassRule();
+
+    @Rule
+    public CQRule cqBaseRule = new CQRule(cqBaseClassRule.authorRule);
+
+    static CQClient adminAuthor;
+
+    @BeforeClass
+    public static void beforeClass() {
+        adminAuthor = cqBaseClassRule.authorRule.getAdminClient(CQClient.class);
+    }
+
+    /**
+     * Verifies the listing of all drafts and a filtered, paged listing.
+     */
+    @Test
+    public void testDraftQueriesUseIndex() throws ClientException {
+        assertUsesIndex(DRAFTS + " AND draft.[jcr:lastModified] IS NOT NULL"
+            + " ORDER BY draft.[jcr:lastModified] DESC OPTION(TRAVERSAL FAIL, INDEX TAG my65siteDrafts)");
+        assertUsesIndex(DRAFTS + " AND draft.[myCustomDraftNameGathered] = 'Trip' AND draft.[owner] = 'admin'"
+            + " AND draft.[jcr:lastModified] >= CAST('2024-01-01T00:00:00.000Z' AS DATE)"
+            + " AND draft.[jcr:lastModified] <= CAST('2024-02-01T00:00:00.000Z' AS DATE)"
+            + " ORDER BY draft.[jcr:lastModified] DESC OPTION(TRAVERSAL FAIL, INDEX TAG my65siteDrafts)");
+    }
+
+    /**
+     * Verifies the query for drafts modified since the reconciliation high-water mark.
+     */
+    @Test
+    public void testReconciliationQueryUsesIndex() throws ClientException {
+        assertUsesIndex(DRAFTS + " AND draft.[jcr:lastModified] >= CAST('2024-01-01T00:00:00.000Z' AS DATE)"
+            + " ORDER BY draft.[jcr:lastModified], draft.[jcr:path] OPTION(TRAVERSAL FAIL)");
+    }
+
+    private static void assertUsesIndex(String statement) throws ClientException {
+        List<NameValuePair> parameters = Arrays.asList(
+            new BasicNameValuePair("_charset_", "utf-8"),
+            new BasicNameValuePair("type", "JCR-SQL2"),
+            new BasicNameValuePair("stmt", statement),
+            new BasicNameValuePair("showResults", "false"));
+        SlingHttpResponse response = adminAuthor.doGet(QUERY_TOOL, parameters, 200);
+        assertTrue("Should run without traversal: " + statement + "\n" + response.getContent(),
+            SUCCESS.matcher(response.getContent()).find());
+    }
+}